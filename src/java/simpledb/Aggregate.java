@@ -48,12 +48,12 @@ public class Aggregate extends Operator {
         
         if (gfield == Aggregator.NO_GROUPING) {
             gbfieldtype = null;
-            this.td = new TupleDesc(new Type[] { Type.INT_TYPE },
+            this.td = new TupleDesc(new Type[] { aop.getResultType() },
                     new String[] { String.format("%s(%s)", aop,
                             childTd.getFieldName(afield)) });
         } else {
             gbfieldtype = childTd.getFieldType(gfield);
-            this.td = new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE },
+            this.td = new TupleDesc(new Type[] { gbfieldtype, aop.getResultType() },
                     new String[] {
                             childTd.getFieldName(gfield),
                             String.format("%s(%s)", aop,
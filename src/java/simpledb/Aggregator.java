@@ -32,6 +32,25 @@ public interface Aggregator extends Serializable {
             return values()[i];
         }
         
+        /**
+         * @return the type of the aggregates computed by this operator: MIN
+         *         and MAX are of the type of the aggregated INT field, SUM and
+         *         COUNT are 64-bit so that they do not overflow on large
+         *         tables, and AVG is the exact quotient of the sum by the
+         *         count
+         */
+        public Type getResultType() {
+            switch (this) {
+            case MIN:
+            case MAX:
+                return Type.INT_TYPE;
+            case AVG:
+                return Type.DOUBLE_TYPE;
+            default:
+                return Type.LONG_TYPE;
+            }
+        }
+
         public String toString()
         {
         	if (this==MIN)
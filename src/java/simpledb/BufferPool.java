@@ -1,11 +1,31 @@
 package simpledb;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Random;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -16,113 +36,1418 @@ import java.util.Set;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The BufferPool has no global monitor. The page lookup table is a
+ * ConcurrentHashMap and the free list is a lock-free queue, and the state of
+ * each frame (the page it holds and its pin count) is guarded by a latch
+ * private to that frame, so requests for different pages never serialize.
+ * Latches are only held for short, in-memory operations; a frame is pinned
+ * instead while its page is read from or written to disk.
+ * <p>
+ * Files may have pages of different sizes. The pool holds at most numPages
+ * pages and at most numPages pages' worth of {@link #PAGE_SIZE} bytes, so a
+ * page larger than the default takes the memory of several default pages,
+ * and more pages are evicted to make room for it.
+ * <p>
+ * By default the pool is NO-STEAL: dirty pages are never evicted, so a
+ * transaction cannot dirty more pages than the pool holds. In STEAL mode
+ * (see {@link #setSteal}), a transaction which finds no clean page to evict
+ * writes out one of the pages it dirtied itself, after logging the page's
+ * before and after images with {@link LogFile#logWrite} and forcing the log.
+ * An abort then undoes the pages written through {@link LogFile#rollback},
+ * and {@link LogFile#recover} undoes them after a crash. Only the pages of
+ * the requesting transaction are stolen, because access methods modify a
+ * page right after {@link #markDirty}, which another transaction's eviction
+ * could otherwise interleave with.
+ * <p>
+ * By default the pool is also FORCE: a committing transaction writes all the
+ * pages it dirtied. With a page writer (see {@link #startPageWriter}), commit
+ * instead logs the after images of the pages and forces the log, and the
+ * pages stay in the pool, marked as holding committed changes, until a
+ * background {@link PageWriter} writes them out. Such pages are not evicted
+ * before they are written, and {@link LogFile#recover} redoes them from the
+ * log after a crash. Stopping the writer, like leaving STEAL mode, takes a
+ * checkpoint, so that recovery does not redo after images logged before
+ * over pages committed without logging afterwards.
+ * <p>
+ * An off-heap pool (see {@link #BufferPool(int, EvictionPolicy, boolean)})
+ * keeps the bytes of its pages in an arena of direct buffers, a slot of
+ * {@link #PAGE_SIZE} bytes per frame, which the garbage collector neither
+ * scans nor copies. Pages are read from disk straight into their slot, and a
+ * Page object is only built from the slot when the page is requested. Once
+ * the transactions using a page complete and the page is clean, its object
+ * is dropped, its bytes having been copied back to the slot if they changed,
+ * so the heap only holds the pages in use and the pool size does not add to
+ * the cost of collections. Pages of other DbFiles, and of HeapFiles with
+ * pages larger than the slots, are kept on the heap.
+ * <p>
+ * So that a restart does not begin with a cold pool, the IDs of the pages a
+ * pool holds can be saved, hottest first, at shutdown and periodically
+ * (see {@link #startHotPageSaver}), and the next run reads them back in with
+ * {@link #warmUp} before admitting queries.
  */
 public class BufferPool {
     /** Bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
 
-    /** Default number of pages passed to the constructor. This is used by
-    other classes. BufferPool should use the numPages argument to the
-    constructor instead. */
-    public static final int DEFAULT_PAGES = 50;
-    
-    /** Maximum number of pages in buffer pool. */
-    private int numPages;
-    /** Pointers to buffer pool pages. */
-    private Page[] bufferedPages;
-    /** Records the mapping between PageId and its location in buffer pool. */
-    private HashMap<PageId, Integer> pageLookupTable;
-    /** Records free pages in buffer pool. */
-    private LinkedList<Integer> freeList;
-    /** Used for random eviction policy. */
-    private Random rnd;
-    /** Manages transactions and locks. */
-    private LockManager lockManager;
-    /** Maintains buffer pool page index which is occupied and clean. */
-    private Set<Integer> cleanPages;
-    /** how long is it considered as a deadlock */
-    private static final int TIMEOUT = 200;
+    /** Default number of pages passed to the constructor. This is used by
+    other classes. BufferPool should use the numPages argument to the
+    constructor instead. */
+    public static final int DEFAULT_PAGES = 50;
+    
+    /** Maximum number of pages in buffer pool. */
+    private int numPages;
+    /** Maximum number of bytes of the pages in the buffer pool. */
+    private long capacityBytes;
+    /** Number of bytes of the pages held or being read by frames. */
+    private AtomicLong usedBytes;
+    /** Number of bytes each frame reserved for its page, or 0. */
+    private int[] frameBytes;
+    /** Pointers to buffer pool pages, null while a page is being read. */
+    private Page[] bufferedPages;
+    /** The id of the page each frame holds or is reading, or null. */
+    private PageId[] frameIds;
+    /** Number of threads doing I/O on each frame; pinned frames are not evicted. */
+    private int[] pinCounts;
+    /** Per-frame latches guarding bufferedPages, frameIds and pinCounts. */
+    private Object[] latches;
+    /** Number of frames with a non-zero pin count. */
+    private AtomicInteger numPinnedFrames;
+    /** Notified whenever a frame is unpinned. */
+    private final Object unpinned = new Object();
+    /** Records the mapping between PageId and its location in buffer pool. */
+    private ConcurrentHashMap<PageId, Integer> pageLookupTable;
+    /** Records free pages in buffer pool. */
+    private Queue<Integer> freeList;
+    /** Chooses which page to evict; only clean pages are evictable. */
+    private EvictionPolicy evictionPolicy;
+    /** Manages transactions and locks. */
+    private LockManager lockManager;
+    /** how long is it considered as a deadlock */
+    private static final int TIMEOUT = 200;
+    /** Maximum number of frames in the ring of a sequential scan. */
+    public static final int MAX_SCAN_RING_PAGES = 32;
+    /** Default number of pages a sequential scan reads ahead. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 4;
+    /** Number of threads reading pages ahead of sequential scans. */
+    private static final int PREFETCH_THREADS = 2;
+    /** Number of threads reading the hot pages in {@link #warmUp}. */
+    private static final int WARM_UP_THREADS = 4;
+    /** Default time budget of {@link #warmUp}. */
+    public static final long DEFAULT_WARM_UP_MILLIS = 30 * 1000;
+
+    /** Reads pages ahead of sequential scans, shared by all buffer pools. */
+    private static final ExecutorService prefetcher = Executors.newFixedThreadPool(
+            PREFETCH_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    /** Whether dirty pages may be written out to make room; see {@link #setSteal}. */
+    private volatile boolean steal = false;
+    /** The frame the next search for a page to steal starts at. */
+    private final AtomicInteger stealHand = new AtomicInteger(0);
+
+    /** Number of pages a sequential scan reads ahead, 0 to disable read-ahead. */
+    private volatile int readAheadPages;
+    /**
+     * Set once this pool is replaced by {@link #retire}; the read-ahead it
+     * queued on the shared prefetcher is then dropped.
+     */
+    private volatile boolean retired = false;
+    /** Whether each frame was read ahead and has not been requested since. */
+    private boolean[] prefetched;
+    /** Whether each frame holds committed changes which are not on disk yet. */
+    private boolean[] committedDirty;
+    /** Maximum number of slots in each direct buffer of the arena. */
+    private static final int ARENA_CHUNK_PAGES = (1 << 30) / PAGE_SIZE;
+    /**
+     * The off-heap arena, a slot of PAGE_SIZE bytes per frame in direct
+     * buffers of at most ARENA_CHUNK_PAGES slots, or null if the pages are
+     * kept on the heap.
+     */
+    private final ByteBuffer[] arena;
+    /**
+     * Whether the slot of each frame holds the bytes of its page, so that
+     * the Page object may be dropped while the page is clean.
+     */
+    private boolean[] inArena;
+    /** Whether the Page object of each frame changed since its slot was filled. */
+    private boolean[] arenaStale;
+    /** Writes out committed pages in the background, or null; see {@link #startPageWriter}. */
+    private volatile PageWriter pageWriter;
+    /**
+     * Guards starting and stopping the page writer. The pool's own monitor is
+     * not used, since LogFile holds it during checkpoints and rollbacks.
+     */
+    private final Object pageWriterLock = new Object();
+    /** Saves the hot pages periodically, or null; see {@link #startHotPageSaver}. */
+    private volatile HotPageSaver hotPageSaver;
+    /** Guards starting and stopping the hot page saver. */
+    private final Object hotPageSaverLock = new Object();
+    /**
+     * Files {@link #writeCommittedPage} wrote to since they were last forced;
+     * guarded by itself.
+     */
+    private final Set<HeapFile> unforcedFiles = new HashSet<HeapFile>();
+    /** Number of writes of writeCommittedPage in progress; guarded by unforcedFiles. */
+    private int committedWrites = 0;
+    /** Number of requests for pages which had been read ahead. */
+    private AtomicLong prefetchHits;
+    /** Number of pages read ahead which were evicted before being requested. */
+    private AtomicLong wastedPrefetches;
+
+    /**
+     * ScanRing is a small ring of frames that a sequential scan over a large
+     * table reads its pages through. Once the ring is full, the scan replaces
+     * its own least recently read page instead of asking the eviction policy
+     * for a victim, so a scan larger than the pool does not flush the working
+     * set of other transactions. Pages which are already in the pool are used
+     * in place and do not enter the ring.
+     *
+     * @see BufferPool#getScanRing
+     */
+    public static class ScanRing {
+        /** The pool the frames of this ring belong to. */
+        private final BufferPool pool;
+        /** The frame of each ring slot, or -1 if the slot is unused. */
+        private final int[] frames;
+        /** The page the ring read into the frame of each slot. */
+        private final PageId[] pids;
+        /** The next slot to reuse. */
+        private int cursor;
+
+        private ScanRing(BufferPool pool, int size) {
+            this.pool = pool;
+            frames = new int[size];
+            pids = new PageId[size];
+            for (int i = 0; i < size; i++) {
+                frames[i] = -1;
+            }
+            cursor = 0;
+        }
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using the CLOCK
+     * eviction policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     */
+    public BufferPool(int numPages) {
+        this(numPages, new ClockEvictionPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param evictionPolicy the policy choosing which page to evict, which
+     *            must be created for numPages frames.
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
+        this(numPages, evictionPolicy, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, keeping their
+     * bytes off the heap if so specified.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param evictionPolicy the policy choosing which page to evict, which
+     *            must be created for numPages frames.
+     * @param offHeap true to keep the pages in an arena of direct buffers
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy, boolean offHeap) {
+        this.numPages = numPages;
+        capacityBytes = numPages * (long) PAGE_SIZE;
+        usedBytes = new AtomicLong(0);
+        frameBytes = new int[numPages];
+        bufferedPages = new Page[numPages];
+        frameIds = new PageId[numPages];
+        pinCounts = new int[numPages];
+        prefetched = new boolean[numPages];
+        committedDirty = new boolean[numPages];
+        inArena = new boolean[numPages];
+        arenaStale = new boolean[numPages];
+        if (offHeap) {
+            arena = new ByteBuffer[(numPages + ARENA_CHUNK_PAGES - 1) / ARENA_CHUNK_PAGES];
+            for (int i = 0; i < arena.length; i++) {
+                int slots = Math.min(ARENA_CHUNK_PAGES, numPages - i * ARENA_CHUNK_PAGES);
+                arena[i] = ByteBuffer.allocateDirect(slots * PAGE_SIZE);
+            }
+        } else {
+            arena = null;
+        }
+        latches = new Object[numPages];
+        freeList = new ConcurrentLinkedQueue<Integer>();
+        for (int i = 0; i < numPages; i++) {
+            latches[i] = new Object();
+            freeList.add(i);
+        }
+        numPinnedFrames = new AtomicInteger(0);
+        readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+        prefetchHits = new AtomicLong(0);
+        wastedPrefetches = new AtomicLong(0);
+        pageLookupTable = new ConcurrentHashMap<PageId, Integer>();
+        this.evictionPolicy = evictionPolicy;
+        lockManager = new LockManager(BufferPool.TIMEOUT);
+    }
+
+    /**
+     * @return true if this pool keeps its pages off the heap
+     * @see #BufferPool(int, EvictionPolicy, boolean)
+     */
+    public boolean isOffHeap() {
+        return arena != null;
+    }
+
+    /**
+     * @return the number of pages this pool holds as Page objects, which in
+     *         an off-heap pool are the pages in use
+     */
+    int getNumPageObjects() {
+        int n = 0;
+        for (int i = 0; i < numPages; i++) {
+            synchronized (latches[i]) {
+                if (bufferedPages[i] != null) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the ring a sequential scan over the specified number of pages
+     * should read its pages through, or null if the scan fits in the pool and
+     * can read its pages into the shared pool.
+     *
+     * @param numPagesToScan the number of pages the scan will read
+     * @see #getPage(TransactionId, PageId, Permissions, ScanRing)
+     */
+    public ScanRing getScanRing(int numPagesToScan) {
+        if (numPagesToScan <= numPages) {
+            return null;
+        }
+        int size = Math.max(1, Math.min(MAX_SCAN_RING_PAGES, numPages / 8));
+        return new ScanRing(this, size);
+    }
+
+    /**
+     * Sets the number of pages a sequential scan reads ahead of the page it
+     * is consuming.
+     *
+     * @param readAheadPages the size of the read-ahead window, or 0 to
+     *            disable read-ahead
+     */
+    public void setReadAheadPages(int readAheadPages) {
+        if (readAheadPages < 0) {
+            throw new IllegalArgumentException("readAheadPages must not be negative.");
+        }
+        this.readAheadPages = readAheadPages;
+    }
+
+    /**
+     * Sets whether this pool is in STEAL mode, in which a transaction that
+     * needs a frame while every page in the pool is dirty writes out one of
+     * the pages it dirtied, logging it first, so that the number of pages a
+     * transaction dirties is not bounded by the size of the pool.
+     *
+     * Turning STEAL mode off takes a checkpoint, since transactions
+     * committing from then on write their pages without logging them, and
+     * recovery must not redo the older after-images over those pages.
+     *
+     * @param steal true for STEAL mode, false for NO-STEAL
+     */
+    public void setSteal(boolean steal) throws IOException {
+        boolean wasSteal = this.steal;
+        this.steal = steal;
+        if (wasSteal && !steal) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * @return true if this pool is in STEAL mode
+     * @see #setSteal
+     */
+    public boolean isSteal() {
+        return steal;
+    }
+
+    /**
+     * Starts a background page writer with the default pacing, replacing the
+     * running one, if any.
+     *
+     * @see #startPageWriter(long, long)
+     */
+    public void startPageWriter() {
+        startPageWriter(PageWriter.DEFAULT_INTERVAL_MILLIS,
+                PageWriter.DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * Starts a background page writer, replacing the running one, if any.
+     * Transactions committing from then on only log their pages and force the
+     * log, and the writer writes the pages out later, sorted by file and page
+     * number.
+     *
+     * @param intervalMillis the time between two rounds of the writer
+     * @param checkpointBytes the number of bytes logged since the last
+     *            checkpoint by which every committed page should be written
+     * @see PageWriter
+     */
+    public void startPageWriter(long intervalMillis, long checkpointBytes) {
+        synchronized (pageWriterLock) {
+            killPageWriter();
+            pageWriter = new PageWriter(this, intervalMillis, checkpointBytes);
+            pageWriter.start();
+        }
+    }
+
+    /**
+     * Stops the background page writer, if any, waiting for the round in
+     * progress to finish, and takes a checkpoint, which writes the committed
+     * pages the writer had not written yet. Transactions committing from then
+     * on write their pages at commit without logging them, so recovery must
+     * not redo the after-images logged before.
+     */
+    public void stopPageWriter() throws IOException {
+        if (killPageWriter()) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Stops the background page writer, if any, as a crash would: the
+     * committed pages it had not written yet are left to recovery.
+     *
+     * @return true if there was a page writer
+     */
+    boolean killPageWriter() {
+        synchronized (pageWriterLock) {
+            PageWriter writer = pageWriter;
+            pageWriter = null;
+            if (writer != null) {
+                writer.shutdown();
+            }
+            return writer != null;
+        }
+    }
+
+    /**
+     * Writes all the pages of this pool and takes a checkpoint, which
+     * truncates the log.
+     */
+    private void checkpoint() throws IOException {
+        flushAllPages();
+        Database.getLogFile().logCheckpoint();
+    }
+
+    /**
+     * Starts saving the hot pages of this pool to the specified file every
+     * intervalMillis, replacing the running saver, if any, so that a restart
+     * after a crash can warm up from a recent list.
+     *
+     * @see #saveHotPages
+     * @see #stopHotPageSaver
+     */
+    public void startHotPageSaver(File f, long intervalMillis) {
+        synchronized (hotPageSaverLock) {
+            stopHotPageSaver();
+            hotPageSaver = new HotPageSaver(this, f, intervalMillis);
+            hotPageSaver.start();
+        }
+    }
+
+    /**
+     * Retires this pool when the database replaces it: stops its background
+     * threads as {@link #killPageWriter} and {@link #stopHotPageSaver} do,
+     * and drops the read-ahead it queued, whose pages may belong to tables
+     * of a catalog which no longer exists.
+     */
+    void retire() {
+        retired = true;
+        killPageWriter();
+        stopHotPageSaver();
+    }
+
+    /**
+     * Stops the hot page saver, if any, which saves the hot pages a last
+     * time; a clean shutdown should call this.
+     */
+    public void stopHotPageSaver() {
+        synchronized (hotPageSaverLock) {
+            HotPageSaver saver = hotPageSaver;
+            hotPageSaver = null;
+            if (saver != null) {
+                saver.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return true if this pool has a background page writer
+     * @see #startPageWriter
+     */
+    public boolean hasPageWriter() {
+        return pageWriter != null;
+    }
+
+    /**
+     * @return the number of pages holding committed changes which are not on
+     *         disk yet
+     */
+    public int getNumCommittedDirtyPages() {
+        return getCommittedDirtyPages().size();
+    }
+
+    /**
+     * Returns the pages which hold committed changes not on disk yet, are
+     * not pinned and are not dirtied by a running transaction, sorted by
+     * table and page number, so that writing them in order writes each file
+     * sequentially.
+     */
+    List<PageId> getCommittedDirtyPages() {
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < numPages; i++) {
+            synchronized (latches[i]) {
+                if (committedDirty[i] && pinCounts[i] == 0
+                        && bufferedPages[i].isDirty() == null) {
+                    pids.add(frameIds[i]);
+                }
+            }
+        }
+        Collections.sort(pids, FILE_ORDER);
+        return pids;
+    }
+
+    /** Orders pages by table and then by page number. */
+    static final Comparator<PageId> FILE_ORDER = new Comparator<PageId>() {
+        @Override
+        public int compare(PageId a, PageId b) {
+            if (a.getTableId() != b.getTableId()) {
+                return a.getTableId() < b.getTableId() ? -1 : 1;
+            }
+            return Integer.compare(a.pageNumber(), b.pageNumber());
+        }
+    };
+
+    /**
+     * Writes out the committed contents of the specified page, if the pool
+     * holds it with committed changes which are not on disk yet and no
+     * running transaction has dirtied it since. The write is of a copy of the
+     * page made under the latch, so a transaction which dirties the page
+     * during the write does not tear it.
+     *
+     * @return true if the page was written
+     */
+    boolean writeCommittedPage(PageId pid) throws IOException {
+        Integer loc = pageLookupTable.get(pid);
+        if (loc == null) {
+            return false;
+        }
+        // looked up before the page is marked clean, since it throws if the
+        // table was removed from the catalog
+        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+        Page image;
+        synchronized (latches[loc]) {
+            Page page = bufferedPages[loc];
+            if (page == null || !pid.equals(frameIds[loc]) || !committedDirty[loc]
+                    || pinCounts[loc] != 0 || page.isDirty() != null) {
+                return false;
+            }
+            // the before image of a clean page is a copy of its contents
+            image = page.getBeforeImage();
+            committedDirty[loc] = false;
+            pin(loc);
+            synchronized (unforcedFiles) {
+                committedWrites++;
+            }
+        }
+        boolean written = false;
+        try {
+            file.writePage(image);
+            written = true;
+        } finally {
+            synchronized (latches[loc]) {
+                Page page = bufferedPages[loc];
+                if (!written) {
+                    committedDirty[loc] = true;
+                } else if (file instanceof HeapFile && page != null
+                        && (page.isDirty() != null || committedDirty[loc])) {
+                    // a transaction changed the page during the write, and
+                    // the maps now describe the image instead
+                    ((HeapFile) file).pageChanged(page);
+                }
+                unpin(loc);
+                dropPage(loc, pid);
+            }
+            synchronized (unforcedFiles) {
+                if (written && file instanceof HeapFile) {
+                    unforcedFiles.add((HeapFile) file);
+                }
+                committedWrites--;
+                unforcedFiles.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of files written by the page writer, or by
+     *         evictions of committed pages, which were not forced since
+     */
+    int getNumUnforcedFiles() {
+        synchronized (unforcedFiles) {
+            return unforcedFiles.size();
+        }
+    }
+
+    /**
+     * Waits for the writes of {@link #writeCommittedPage} in progress, and
+     * forces the files it wrote to since they were last forced. The page
+     * writer does not force the files it writes, so a checkpoint must do this
+     * before truncating the log of the pages written.
+     */
+    private void forceCommittedWrites() throws IOException {
+        List<HeapFile> files;
+        synchronized (unforcedFiles) {
+            while (committedWrites > 0) {
+                try {
+                    unforcedFiles.wait();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    System.exit(-1);
+                }
+            }
+            files = new ArrayList<HeapFile>(unforcedFiles);
+            unforcedFiles.clear();
+        }
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                files.get(i).getChannel().force(false);
+            } catch (IOException e) {
+                // the next checkpoint forces the files not forced yet
+                synchronized (unforcedFiles) {
+                    unforcedFiles.addAll(files.subList(i, files.size()));
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return the maximum number of pages in this pool
+     */
+    int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Returns the number of pages a sequential scan reading its pages
+     * through the specified ring should read ahead. A scan through a ring
+     * reads ahead less than the ring holds, so that pages read ahead do not
+     * replace each other before they are requested.
+     *
+     * @param ring the ring of the scan, or null if it uses the shared pool
+     * @return the size of the read-ahead window, 0 if read-ahead is disabled
+     */
+    public int getReadAheadPages(ScanRing ring) {
+        if (ring != null) {
+            return Math.min(readAheadPages, ring.frames.length - 1);
+        }
+        return readAheadPages;
+    }
+
+    /**
+     * @return the number of requests for pages which had been read ahead
+     *         and were still in the pool, or being read.
+     */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
+
+    /**
+     * @return the number of pages read ahead which were evicted or discarded
+     *         before anyone requested them.
+     */
+    public long getWastedPrefetches() {
+        return wastedPrefetches.get();
+    }
+
+    /**
+     * Reads the specified page into the pool in the background, unless it
+     * is already present, so that a later {@link #getPage} for it is a hit.
+     * No lock is acquired; the page only becomes visible to a transaction
+     * through getPage. Read-ahead is best effort, so the page is silently
+     * skipped if no frame can be freed for it, if its table is gone, or if
+     * this pool has been retired.
+     *
+     * @param pid the ID of the page to read ahead
+     * @param ring the ring of the scan reading ahead, or null to use the
+     *            shared pool
+     * @see #getReadAheadPages
+     */
+    public void prefetchPage(final PageId pid, ScanRing ring) {
+        if (ring != null && ring.pool != this) {
+            ring = null;
+        }
+        if (retired || pageLookupTable.containsKey(pid)) {
+            return;
+        }
+        final ScanRing r = ring;
+        prefetcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (retired) {
+                    return;
+                }
+                try {
+                    fetchPage(pid, r, true, null);
+                } catch (DbException e) {
+                    // every frame is dirty, or the page is corrupt; the scan
+                    // reads the page itself
+                } catch (RuntimeException e) {
+                    // the table of the page was removed from the catalog;
+                    // the hint can no longer be used
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the IDs of the pages this pool holds to the specified file,
+     * hottest first as ranked by the eviction policy, so that a later run
+     * can read them back with {@link #warmUp}. The file is replaced
+     * atomically, so a crash while saving leaves the previous list.
+     *
+     * @see EvictionPolicy#rankFrames
+     */
+    public void saveHotPages(File f) throws IOException {
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int loc : evictionPolicy.rankFrames()) {
+            synchronized (latches[loc]) {
+                if (isResident(loc) && frameIds[loc] != null) {
+                    pids.add(frameIds[loc]);
+                }
+            }
+        }
+        // ids are written like the log writes them: id class name, number
+        // of ints, then the ints of PageId.serialize
+        File tmp = new File(f.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] info = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(info.length);
+                for (int i : info) {
+                    out.writeInt(i);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the pages saved by {@link #saveHotPages} back into the pool, so
+     * that a restarted database does not start cold; it should be called
+     * before queries are admitted. The hottest pages which fit in the pool
+     * are read by several threads, all taking the next page in file order,
+     * so that each file is read mostly sequentially. No lock is acquired.
+     * Once budgetMillis have passed no more pages are read. Pages of tables
+     * which are no longer in the catalog, or past the end of their file, are
+     * skipped. Pages read count as read ahead, so they show in
+     * {@link #getPrefetchHits} and {@link #getWastedPrefetches}.
+     *
+     * @param f the saved list; nothing is read if it does not exist
+     * @param budgetMillis the time after which no more pages are read
+     * @return the number of saved pages read, or found in the pool
+     */
+    public int warmUp(File f, long budgetMillis) throws IOException {
+        final long deadline = System.currentTimeMillis() + budgetMillis;
+        if (!f.exists()) {
+            return 0;
+        }
+        final List<PageId> pids = readHotPages(f, numPages);
+        Collections.sort(pids, FILE_ORDER);
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger read = new AtomicInteger(0);
+        Thread[] threads = new Thread[Math.min(WARM_UP_THREADS, pids.size())];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    int i;
+                    while (System.currentTimeMillis() < deadline
+                            && (i = next.getAndIncrement()) < pids.size()) {
+                        try {
+                            fetchPage(pids.get(i), null, true, null);
+                            read.incrementAndGet();
+                        } catch (DbException e) {
+                            // every frame is dirty, or the page is corrupt;
+                            // it is read when requested
+                        }
+                    }
+                }
+            }, "simpledb-warm-up");
+            threads[t].start();
+        }
+        // the threads are not interrupted, since an interrupt closes the
+        // channel a page is being read from; if the caller is, they stop
+        // after the pages they are reading
+        boolean interrupted = false;
+        for (int t = 0; t < threads.length; t++) {
+            try {
+                threads[t].join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                next.set(pids.size());
+                t--;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return read.get();
+    }
+
+    /**
+     * @return the first limit pages listed in the specified file which
+     *         still exist, hottest first
+     * @see #saveHotPages
+     */
+    private static List<PageId> readHotPages(File f, int limit) throws IOException {
+        List<PageId> pids = new ArrayList<PageId>();
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)));
+        try {
+            int n = in.readInt();
+            for (int i = 0; i < n && pids.size() < limit; i++) {
+                String idClassName = in.readUTF();
+                Class<?>[] idArgTypes = new Class<?>[in.readInt()];
+                Object[] idArgs = new Object[idArgTypes.length];
+                for (int j = 0; j < idArgTypes.length; j++) {
+                    idArgTypes[j] = int.class;
+                    idArgs[j] = in.readInt();
+                }
+                PageId pid;
+                try {
+                    pid = (PageId) Class.forName(idClassName)
+                            .getConstructor(idArgTypes).newInstance(idArgs);
+                } catch (ReflectiveOperationException e) {
+                    continue;
+                }
+                DbFile file;
+                try {
+                    file = Database.getCatalog().getDbFile(pid.getTableId());
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                if (file instanceof HeapFile
+                        && pid.pageNumber() >= ((HeapFile) file).numPages()) {
+                    continue;
+                }
+                pids.add(pid);
+            }
+        } finally {
+            in.close();
+        }
+        return pids;
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions.
+     * Will acquire a lock and may block if that lock is held by another
+     * transaction.
+     * <p>
+     * The retrieved page should be looked up in the buffer pool.  If it
+     * is present, it should be returned.  If it is not present, it should
+     * be added to the buffer pool and returned.  If there is insufficient
+     * space in the buffer pool, an page should be evicted and the new page
+     * should be added in its place.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, as part of
+     * a sequential scan reading its pages through the specified ring.
+     * If the page is not present, it is read into the frame the ring read
+     * its oldest page into, provided that page is still resident and clean;
+     * otherwise a frame is allocated as by
+     * {@link #getPage(TransactionId, PageId, Permissions)} and joins the ring.
+     * <p>
+     * A hit only takes the latch of the frame holding the page. A miss reads
+     * the page from disk while the new frame is pinned, without holding any
+     * latch, so concurrent requests for other pages are not blocked; requests
+     * for the same page wait for the read to complete.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring of the scan, or null to use the shared pool
+     * @see #getScanRing
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            ScanRing ring) throws TransactionAbortedException, DbException {
+        if (ring != null && ring.pool != this) {
+            // the ring was created before the buffer pool was reset
+            ring = null;
+        }
+        lockPage(tid, pid, perm);
+        return fetchPage(pid, ring, false, tid);
+    }
+
+    /**
+     * Acquires the lock with the specified permissions on the specified page,
+     * as {@link #getPage(TransactionId, PageId, Permissions)} does, without
+     * reading the page. A scan which skips a page takes its lock this way, so
+     * that it is isolated from changes to the page as if it had read it.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     */
+    void lockPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        // Assume that tid == null is only used by test case and database system itself,
+        // so we do not acquire lock for null tid.
+        if (tid != null) {
+            try {
+                if (perm == Permissions.READ_ONLY) {
+                    lockManager.acquireReadLock(tid, pid);
+                } else if (perm == Permissions.READ_WRITE) {
+                    lockManager.acquireWriteLock(tid, pid);
+                } else {
+                    // Should never reach here
+                    assert false : "should never reach here.";
+                    System.exit(-1);
+                }
+            } catch (TransactionAbortedException e) {
+                throw new TransactionAbortedException();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                System.exit(-1);
+            }
+        }
+    }
+
+    /**
+     * Looks the specified page up in the pool, reading it into a frame if it
+     * is not present.
+     *
+     * @param pid the ID of the requested page
+     * @param ring the ring of the scan, or null to use the shared pool
+     * @param prefetch true if the page is read ahead rather than requested;
+     *            a page which is already present is then left untouched
+     * @param tid the transaction requesting the page, whose dirty pages may
+     *            be stolen to make room for it, or null
+     * @return the page, or null if prefetch is set and the page was present
+     */
+    private Page fetchPage(PageId pid, ScanRing ring, boolean prefetch,
+            TransactionId tid) throws DbException {
+        while (true) {
+            Integer loc = pageLookupTable.get(pid);
+            if (loc != null) {
+                if (prefetch) {
+                    return null;
+                }
+                Page page = lookupFrame(loc, pid);
+                if (page != null) {
+                    evictionPolicy.frameAccessed(loc);
+                    return page;
+                }
+                // the frame was evicted or its read failed; look again
+                continue;
+            }
+            int newLoc = ring != null ? reuseRingFrame(ring) : -1;
+            if (newLoc < 0) {
+                newLoc = allocateFrame(tid);
+            }
+            int bytes = HeapFile.getPageSize(pid.getTableId());
+            try {
+                reserveBytes(bytes, tid);
+            } catch (DbException e) {
+                freeList.add(newLoc);
+                throw e;
+            }
+            synchronized (latches[newLoc]) {
+                frameIds[newLoc] = pid;
+                frameBytes[newLoc] = bytes;
+                prefetched[newLoc] = prefetch;
+                pin(newLoc);
+            }
+            if (pageLookupTable.putIfAbsent(pid, newLoc) != null) {
+                // another thread is reading the same page
+                releaseFrame(newLoc);
+                continue;
+            }
+            if (ring != null) {
+                addToRing(ring, newLoc, pid);
+            }
+            ByteBuffer slot = arenaSlot(newLoc, pid);
+            Page page;
+            try {
+                page = readPage(pid, slot, prefetch);
+            } catch (DbException | RuntimeException e) {
+                pageLookupTable.remove(pid, newLoc);
+                releaseFrame(newLoc);
+                throw e;
+            }
+            synchronized (latches[newLoc]) {
+                bufferedPages[newLoc] = page;
+                inArena[newLoc] = slot != null;
+                arenaStale[newLoc] = false;
+                evictionPolicy.frameLoaded(newLoc, pid);
+                unpin(newLoc);
+                latches[newLoc].notifyAll();
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Evicts the page the ring read into its oldest slot, if that page is
+     * still resident and clean.
+     *
+     * @return the frame of the slot, now owned by the caller, or -1
+     */
+    private int reuseRingFrame(ScanRing ring) {
+        synchronized (ring) {
+            int loc = ring.frames[ring.cursor];
+            if (loc >= 0 && tryEvict(loc, ring.pids[ring.cursor])) {
+                return loc;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Records that the ring read the specified page into the specified frame.
+     * The page replaces the oldest page of the ring.
+     */
+    private void addToRing(ScanRing ring, int loc, PageId pid) {
+        synchronized (ring) {
+            ring.frames[ring.cursor] = loc;
+            ring.pids[ring.cursor] = pid;
+            ring.cursor = (ring.cursor + 1) % ring.frames.length;
+        }
+    }
+
+    /**
+     * Returns the page held by the specified frame, waiting while the page is
+     * being read from disk, and building the page from its arena slot if its
+     * object was dropped. A page which was read ahead counts as a prefetch
+     * hit the first time it is returned.
+     *
+     * @return the page, or null if the frame no longer holds the page
+     */
+    private Page lookupFrame(int loc, PageId pid) {
+        synchronized (latches[loc]) {
+            while (pid.equals(frameIds[loc]) && !isResident(loc)) {
+                try {
+                    latches[loc].wait();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    System.exit(-1);
+                }
+            }
+            if (!pid.equals(frameIds[loc])) {
+                return null;
+            }
+            if (prefetched[loc]) {
+                prefetched[loc] = false;
+                prefetchHits.incrementAndGet();
+            }
+            if (bufferedPages[loc] == null) {
+                HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(pid.getTableId());
+                try {
+                    bufferedPages[loc] = hf.createPage((HeapPageId) pid,
+                            arenaSlot(loc, hf.getPageSize()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    //should never happen -- we parsed it OK before!
+                    System.exit(1);
+                }
+            }
+            return bufferedPages[loc];
+        }
+    }
+
+    /**
+     * Returns the arena slot the specified page should be read into in the
+     * specified frame.
+     *
+     * @return the slot, or null if the pool is not off-heap or the page is
+     *         kept on the heap
+     */
+    private ByteBuffer arenaSlot(int loc, PageId pid) {
+        if (arena == null) {
+            return null;
+        }
+        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+        if (!(file instanceof HeapFile) || ((HeapFile) file).getPageSize() > PAGE_SIZE) {
+            return null;
+        }
+        return arenaSlot(loc, ((HeapFile) file).getPageSize());
+    }
+
+    /**
+     * @return a buffer over the first length bytes of the arena slot of the
+     *         specified frame, from position 0
+     */
+    private ByteBuffer arenaSlot(int loc, int length) {
+        ByteBuffer chunk = arena[loc / ARENA_CHUNK_PAGES].duplicate();
+        int offset = (loc % ARENA_CHUNK_PAGES) * PAGE_SIZE;
+        chunk.limit(offset + length).position(offset);
+        return chunk.slice();
+    }
+
+    /**
+     * Drops the Page object of the specified frame if the page is clean, not
+     * pinned, and its bytes can be kept in its arena slot, copying them to
+     * the slot if the page changed. Later requests build a new object from
+     * the slot. Requires the latch of the frame.
+     */
+    private void dropPage(int loc, PageId pid) {
+        Page page = bufferedPages[loc];
+        if (!inArena[loc] || page == null || !pid.equals(frameIds[loc])
+                || pinCounts[loc] != 0 || page.isDirty() != null || committedDirty[loc]) {
+            return;
+        }
+        if (arenaStale[loc]) {
+            arenaSlot(loc, HeapFile.getPageSize(pid.getTableId())).put(page.getPageData());
+            arenaStale[loc] = false;
+        }
+        bufferedPages[loc] = null;
+    }
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Reads the specified page from its DbFile. Pages beyond the end of a
+     * HeapFile are created empty.
      *
-     * @param numPages maximum number of pages in this buffer pool.
+     * @param slot the arena slot to read the page into, or null to read it
+     *            onto the heap
+     * @param prefetch true if the page is read ahead; a page read into its
+     *            slot is then not built
+     * @return the page, or null if it was read ahead into its slot
+     * @throws DbException if the checksum of the page does not match
      */
-    public BufferPool(int numPages) {
-        this.numPages = numPages;
-        bufferedPages = new Page[numPages];
-        freeList = new LinkedList<Integer>();
-        for (int i = 0; i < numPages; i++) {
-            freeList.add(i);
+    private Page readPage(PageId pid, ByteBuffer slot, boolean prefetch) throws DbException {
+        DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+        if (!(file instanceof HeapFile)) {
+            return file.readPage(pid);
+        }
+        HeapFile hf = (HeapFile) file;
+        try {
+            if (pid.pageNumber() < hf.numPages()) {
+                if (slot == null) {
+                    return hf.readPage(pid);
+                }
+                hf.readPageBytes(pid, slot);
+            } else {
+                // if page is not in the heapfile, first allocate a new page in buffer pool
+                // rather than directly add a new page to the heapfile, which is needed to 
+                // support NO-STEAL policy
+                byte[] data = HeapPage.createEmptyPageData(hf.getPageDataSize());
+                if (slot == null) {
+                    return hf.createPage((HeapPageId) pid, data);
+                }
+                slot.put(data).rewind();
+            }
+            return prefetch ? null : hf.createPage((HeapPageId) pid, slot);
+        } catch (ChecksumException e) {
+            throw new DbException(e.getMessage());
+        } catch (IOException e) {
+            throw new DbException("Some internal errors happen.");
         }
-        pageLookupTable = new HashMap<PageId, Integer>();
-        rnd = new Random();
-        lockManager = new LockManager(BufferPool.TIMEOUT);
-        cleanPages = new HashSet<Integer>();
     }
 
     /**
-     * Retrieve the specified page with the associated permissions.
-     * Will acquire a lock and may block if that lock is held by another
-     * transaction.
-     * <p>
-     * The retrieved page should be looked up in the buffer pool.  If it
-     * is present, it should be returned.  If it is not present, it should
-     * be added to the buffer pool and returned.  If there is insufficient
-     * space in the buffer pool, an page should be evicted and the new page
-     * should be added in its place.
+     * Takes a free frame, evicting a page if there is none.
      *
-     * @param tid the ID of the transaction requesting the page
-     * @param pid the ID of the requested page
-     * @param perm the requested permissions on the page
+     * @param tid the transaction whose dirty pages may be stolen, or null
+     * @return the index of a frame which is neither in the page lookup table
+     *         nor in the free list, and so is owned by the caller
      */
-    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
-        throws TransactionAbortedException, DbException {
-        // Assume that tid == null is only used by test case and database system itself,
-        // so we do not acquire lock for null tid.
-        if (tid != null) {
-            try {
-                if (perm == Permissions.READ_ONLY) {
-                    lockManager.acquireReadLock(tid, pid);
-                } else if (perm == Permissions.READ_WRITE) {
-                    lockManager.acquireWriteLock(tid, pid);
-                } else {
-                    // Should never reach here
-                    assert false : "should never reach here.";
+    private int allocateFrame(TransactionId tid) throws DbException {
+        while (true) {
+            Integer loc = freeList.poll();
+            if (loc != null) {
+                return loc;
+            }
+            int victim = evictionPolicy.victim();
+            if (victim >= 0) {
+                if (tryEvict(victim, null)) {
+                    return victim;
+                }
+                continue;
+            }
+            victim = writeBack();
+            if (victim < 0) {
+                victim = steal(tid);
+            }
+            if (victim >= 0) {
+                return victim;
+            }
+            // Frames pinned for I/O become evictable (or free) soon, so only
+            // fail if every frame is dirty.
+            synchronized (unpinned) {
+                if (numPinnedFrames.get() == 0 && freeList.isEmpty()) {
+                    throw new DbException("All pages in the bufferpool are dirty.");
+                }
+                try {
+                    unpinned.wait(TIMEOUT);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
                     System.exit(-1);
                 }
-            } catch (TransactionAbortedException e) {
-                throw new TransactionAbortedException();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                System.exit(-1);
             }
         }
-        synchronized (this) {
-            Integer loc = pageLookupTable.get(pid);
-            if (loc != null) {
-                return bufferedPages[loc];
+    }
+
+    /**
+     * Reserves memory for a page of the specified size, evicting pages until
+     * the pages in the pool leave enough room. The memory is given back when
+     * the frame holding the page is cleared or released.
+     *
+     * @param tid the transaction whose dirty pages may be stolen, or null
+     */
+    private void reserveBytes(int bytes, TransactionId tid) throws DbException {
+        if (bytes > capacityBytes) {
+            throw new DbException("The page is larger than the bufferpool.");
+        }
+        while (true) {
+            long used = usedBytes.get();
+            if (used + bytes <= capacityBytes) {
+                if (usedBytes.compareAndSet(used, used + bytes)) {
+                    return;
+                }
+                continue;
             }
-            if (freeList.isEmpty()) {
-                evictPage();
+            int victim = evictionPolicy.victim();
+            if (victim >= 0) {
+                if (tryEvict(victim, null)) {
+                    freeList.add(victim);
+                }
+                continue;
             }
-            int newLoc = freeList.pop();
-            int tableId = pid.getTableId();
-            if (pid.pageNumber() < ((HeapFile) Database.getCatalog().getDbFile(tableId)).numPages()) {
-                bufferedPages[newLoc] = Database.getCatalog().getDbFile(tableId).readPage(pid);
-            } else {
-                // if page is not in the heapfile, first allocate a new page in buffer pool
-                // rather than directly add a new page to the heapfile, which is needed to 
-                // support NO-STEAL policy
+            victim = writeBack();
+            if (victim < 0) {
+                victim = steal(tid);
+            }
+            if (victim >= 0) {
+                freeList.add(victim);
+                continue;
+            }
+            synchronized (unpinned) {
+                if (numPinnedFrames.get() == 0
+                        && usedBytes.get() + bytes > capacityBytes) {
+                    throw new DbException("All pages in the bufferpool are dirty.");
+                }
                 try {
-                    bufferedPages[newLoc] = new HeapPage((HeapPageId) pid, HeapPage.createEmptyPageData());
-                } catch (IOException e) {
-                    throw new DbException("Some internal errors happen.");
+                    unpinned.wait(TIMEOUT);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    System.exit(-1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes out a page holding committed changes which the page writer has
+     * not written yet, and evicts it.
+     *
+     * @return the frame of the evicted page, now owned by the caller, or -1
+     *         if there is no such page
+     */
+    private int writeBack() throws DbException {
+        for (PageId pid : getCommittedDirtyPages()) {
+            Integer loc = pageLookupTable.get(pid);
+            try {
+                if (loc == null || !writeCommittedPage(pid)) {
+                    continue;
+                }
+            } catch (IOException e) {
+                throw new DbException("could not write page " + pid + ": " + e.getMessage());
+            }
+            if (tryEvict(loc, pid)) {
+                return loc;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * In STEAL mode, writes out a page dirtied by the specified transaction
+     * and evicts it. The frames are searched round-robin, so that the pages
+     * stolen from a large transaction are spread over the pool.
+     *
+     * @param tid the transaction whose dirty pages may be stolen, or null
+     * @return the frame of the evicted page, now owned by the caller, or -1
+     *         if the pool is in NO-STEAL mode or the transaction has no
+     *         unpinned dirty page
+     */
+    private int steal(TransactionId tid) throws DbException {
+        if (!steal || tid == null) {
+            return -1;
+        }
+        for (int n = 0; n < numPages; n++) {
+            int loc = Math.floorMod(stealHand.getAndIncrement(), numPages);
+            PageId pid;
+            synchronized (latches[loc]) {
+                Page page = bufferedPages[loc];
+                if (page == null || pinCounts[loc] != 0 || !tid.equals(page.isDirty())) {
+                    continue;
                 }
+                pid = frameIds[loc];
+            }
+            try {
+                flushFrame(loc, pid);
+            } catch (IOException e) {
+                throw new DbException("could not write page " + pid + ": " + e.getMessage());
+            }
+            if (tryEvict(loc, pid)) {
+                return loc;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gives back the memory reserved by the specified frame. Requires the
+     * latch of the frame.
+     */
+    private void releaseBytes(int loc) {
+        usedBytes.addAndGet(-frameBytes[loc]);
+        frameBytes[loc] = 0;
+    }
+
+    /**
+     * Pins the specified frame. Requires the latch of the frame.
+     */
+    private void pin(int loc) {
+        if (pinCounts[loc]++ == 0) {
+            numPinnedFrames.incrementAndGet();
+        }
+    }
+
+    /**
+     * Unpins the specified frame, telling the eviction policy if its page has
+     * become evictable, and wakes up threads waiting for a frame. Requires
+     * the latch of the frame.
+     */
+    private void unpin(int loc) {
+        if (--pinCounts[loc] == 0) {
+            updateEvictable(loc);
+            numPinnedFrames.decrementAndGet();
+            synchronized (unpinned) {
+                unpinned.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns a frame reserved for a page which was not read into it back
+     * to the free list.
+     */
+    private void releaseFrame(int loc) {
+        synchronized (latches[loc]) {
+            frameIds[loc] = null;
+            prefetched[loc] = false;
+            releaseBytes(loc);
+            freeList.add(loc);
+            unpin(loc);
+            latches[loc].notifyAll();
+        }
+    }
+
+    /**
+     * Evicts the page held by the specified frame if it is clean and not
+     * pinned. On success, the frame is owned by the caller.
+     *
+     * @param loc the frame to evict
+     * @param pid the page the frame is expected to hold, or null for any page
+     * @return true if the page was evicted
+     */
+    private boolean tryEvict(int loc, PageId pid) {
+        synchronized (latches[loc]) {
+            if (!isResident(loc)
+                    || (pid != null && !pid.equals(frameIds[loc]))) {
+                return false;
+            }
+            if (!isEvictable(loc)) {
+                // the policy may not know the page was dirtied directly
+                updateEvictable(loc);
+                return false;
             }
-            cleanPages.add(newLoc);
-            pageLookupTable.put(pid, newLoc);
-            return bufferedPages[newLoc];
+            clearFrame(loc);
+            return true;
+        }
+    }
+
+    /**
+     * Removes the page held by the specified frame from the pool. Requires
+     * the latch of the frame.
+     */
+    private void clearFrame(int loc) {
+        pageLookupTable.remove(frameIds[loc], loc);
+        evictionPolicy.frameRemoved(loc);
+        if (prefetched[loc]) {
+            prefetched[loc] = false;
+            wastedPrefetches.incrementAndGet();
+        }
+        bufferedPages[loc] = null;
+        frameIds[loc] = null;
+        committedDirty[loc] = false;
+        inArena[loc] = false;
+        releaseBytes(loc);
+    }
+
+    /**
+     * A frame may be evicted if it holds a page which is clean, holds no
+     * committed changes which are not on disk, and is not pinned. Requires
+     * the latch of the frame.
+     */
+    private boolean isEvictable(int loc) {
+        return isResident(loc) && pinCounts[loc] == 0 && !committedDirty[loc]
+                && (bufferedPages[loc] == null || bufferedPages[loc].isDirty() == null);
+    }
+
+    /**
+     * A frame holds its page once the page is read, as a Page object or only
+     * as bytes in its arena slot. Requires the latch of the frame.
+     */
+    private boolean isResident(int loc) {
+        return bufferedPages[loc] != null || inArena[loc];
+    }
+
+    /**
+     * Tells the eviction policy whether the specified frame may be evicted.
+     * Requires the latch of the frame.
+     */
+    private void updateEvictable(int loc) {
+        if (isResident(loc)) {
+            evictionPolicy.setEvictable(loc, isEvictable(loc));
         }
     }
 
@@ -162,25 +1487,78 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
+        LogFile log = Database.getLogFile();
         if (commit) {
-            flushPages(tid);
-        } else {
-            synchronized (this) {
-                for (PageId pid : lockManager.getAllLockingPages(tid)) {
-                    // Since we adopt NOSTEAL policy,
-                    // pid is not in pageLookupTable can infer that
-                    // pid is not dirty
-                    if (pageLookupTable.containsKey(pid)) {
-                        int i = pageLookupTable.get(pid);
-                        HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(pid.getTableId());
-                        if (pid.pageNumber() >= hf.getDiskFileNumPages()) {
-                            hf.resetNumPages();
-                        }
-                        
-                        if (bufferedPages[i].isDirty() != null) {
-                            bufferedPages[i] = bufferedPages[i].getBeforeImage();
-                            cleanPages.add(i);
+            if (pageWriter != null) {
+                logPages(tid);
+            } else {
+                flushPages(tid);
+            }
+            // a transaction which wrote or logged pages, and was not
+            // committed through Transaction, must be marked committed
+            if (log.isActive(tid)) {
+                log.logCommit(tid);
+            }
+            // the committed contents are what a later abort must roll back
+            // to; pages which were only logged are left to the page writer
+            for (PageId pid : lockManager.getAllLockingPages(tid)) {
+                Integer i = pageLookupTable.get(pid);
+                if (i == null) {
+                    continue;
+                }
+                synchronized (latches[i]) {
+                    Page page = bufferedPages[i];
+                    if (page != null && pid.equals(frameIds[i])) {
+                        if (page.isDirty() != null) {
+                            page.markDirty(false, null);
+                            committedDirty[i] = true;
                         }
+                        page.setBeforeImage();
+                        updateEvictable(i);
+                    }
+                }
+            }
+        } else {
+            // pages stolen from the transaction are restored from the log,
+            // unless Transaction already did so
+            if (log.isActive(tid)) {
+                log.logAbort(tid);
+            }
+            for (PageId pid : lockManager.getAllLockingPages(tid)) {
+                // pages which are not in the pool are clean, or were
+                // restored by the rollback
+                Integer i = pageLookupTable.get(pid);
+                if (i == null) {
+                    continue;
+                }
+                DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+                if (!(file instanceof HeapFile)) {
+                    // other files are read-only, so their pages are clean
+                    continue;
+                }
+                HeapFile hf = (HeapFile) file;
+                if (pid.pageNumber() >= hf.getDiskFileNumPages()) {
+                    hf.resetNumPages();
+                }
+                synchronized (latches[i]) {
+                    Page page = bufferedPages[i];
+                    if (page != null && pid.equals(frameIds[i])
+                            && page.isDirty() != null) {
+                        bufferedPages[i] = page.getBeforeImage();
+                        arenaStale[i] = true;
+                        hf.updateFreeSpace(bufferedPages[i]);
+                        updateEvictable(i);
+                    }
+                }
+            }
+        }
+        if (arena != null) {
+            // the pages of an off-heap pool stay on the heap while in use
+            for (PageId pid : lockManager.getAllLockingPages(tid)) {
+                Integer i = pageLookupTable.get(pid);
+                if (i != null) {
+                    synchronized (latches[i]) {
+                        dropPage(i, pid);
                     }
                 }
             }
@@ -227,98 +1605,291 @@ public class BufferPool {
     }
 
     /**
-     * Flush all dirty pages to disk.
+     * Flush all dirty pages to disk, and force the files the page writer
+     * wrote to since they were last forced, so that a checkpoint finds every
+     * page on disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
-        for (Page page : bufferedPages) {
-            if (page != null) {
-                flushPage(page.getId());
+    public void flushAllPages() throws IOException {
+        List<PageId> pids = new ArrayList<PageId>();
+        for (int i = 0; i < numPages; i++) {
+            synchronized (latches[i]) {
+                if (bufferedPages[i] != null) {
+                    pids.add(frameIds[i]);
+                }
             }
         }
+        flushPages(pids);
+        forceCommittedWrites();
     }
 
     /** Remove the specific page id from the buffer pool.
         Needed by the recovery manager to ensure that the
         buffer pool doesn't keep a rolled back page in its
-        cache.
+        cache.  The page is not written, even if it is dirty.
     */
-    public synchronized void discardPage(PageId pid) {
-        try {
-            flushPage(pid);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(-1);
-        }
+    public void discardPage(PageId pid) {
         Integer loc = pageLookupTable.get(pid);
-        if (loc != null) {
-            bufferedPages[loc] = null;
-            pageLookupTable.remove(pid);
-            freeList.add(loc);
-            cleanPages.remove(loc);
+        if (loc == null) {
+            return;
+        }
+        synchronized (latches[loc]) {
+            if (!isResident(loc) || !pid.equals(frameIds[loc])) {
+                return;
+            }
+            clearFrame(loc);
         }
+        freeList.add(loc);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         Integer i = pageLookupTable.get(pid);
-        if (i == null) {
+        if (i != null) {
+            flushFrame(i, pid);
+        }
+    }
+
+    /**
+     * Writes the page held by the specified frame to disk if it is dirty or
+     * holds committed changes which are not on disk yet.
+     * The page is marked clean and the frame is pinned before the write, so
+     * the frame is not evicted (and possibly read back) while the write is in
+     * progress, and hits on the page are not blocked by the write. A change
+     * made to the page during the write dirties it again. In STEAL mode, the
+     * before and after images of the page are logged, and the log forced,
+     * before the page is written.
+     *
+     * @param loc the frame to flush
+     * @param pid the page the frame is expected to hold, or null for any page
+     */
+    private void flushFrame(int loc, PageId pid) throws IOException {
+        PendingWrite w = beginWrite(loc, pid);
+        if (w == null) {
             return;
         }
-        Page page = bufferedPages[i];
-        if (page.isDirty() != null) {
-            Database.getCatalog().getDbFile(pid.getTableId()).writePage(page);
+        try {
+            if (w.before != null) {
+                LogFile log = Database.getLogFile();
+                log.logWrite(w.dirtier, w.before, w.page);
+                log.force();
+            }
+            Database.getCatalog().getDbFile(w.page.getId().getTableId()).writePage(w.page);
+            w.written = true;
+        } finally {
+            endWrite(w);
+        }
+    }
+
+    /**
+     * Writes the specified pages to disk, as by {@link #flushFrame}, those
+     * which are not in the pool or have nothing to write being skipped. The
+     * pages are grouped by file and sorted by page number, so that each run
+     * of consecutive pages of a HeapFile is written by a single gathering
+     * write, and each HeapFile is forced to disk once. In STEAL mode, the log
+     * is forced once, before any page is written.
+     *
+     * @see HeapFile#writePages
+     */
+    private void flushPages(List<PageId> pids) throws IOException {
+        Collections.sort(pids, FILE_ORDER);
+        List<PendingWrite> writes = new ArrayList<PendingWrite>();
+        try {
+            for (PageId pid : pids) {
+                Integer i = pageLookupTable.get(pid);
+                if (i != null) {
+                    PendingWrite w = beginWrite(i, pid);
+                    if (w != null) {
+                        writes.add(w);
+                    }
+                }
+            }
+            LogFile log = Database.getLogFile();
+            boolean logged = false;
+            for (PendingWrite w : writes) {
+                if (w.before != null) {
+                    log.logWrite(w.dirtier, w.before, w.page);
+                    logged = true;
+                }
+            }
+            if (logged) {
+                log.force();
+            }
+            int start = 0;
+            while (start < writes.size()) {
+                int tableId = writes.get(start).page.getId().getTableId();
+                List<Page> pages = new ArrayList<Page>();
+                int end = start;
+                while (end < writes.size()
+                        && writes.get(end).page.getId().getTableId() == tableId) {
+                    pages.add(writes.get(end).page);
+                    end++;
+                }
+                DbFile file = Database.getCatalog().getDbFile(tableId);
+                if (file instanceof HeapFile) {
+                    ((HeapFile) file).writePages(pages);
+                } else {
+                    for (Page page : pages) {
+                        file.writePage(page);
+                    }
+                }
+                for (int i = start; i < end; i++) {
+                    writes.get(i).written = true;
+                }
+                start = end;
+            }
+        } finally {
+            for (PendingWrite w : writes) {
+                endWrite(w);
+            }
+        }
+    }
+
+    /** A page being written out of its frame; see {@link #beginWrite}. */
+    private static class PendingWrite {
+        /** The frame of the page. */
+        int loc;
+        /** The page, marked clean while it is written. */
+        Page page;
+        /** The before image to log first in STEAL mode, or null. */
+        Page before;
+        /** The transaction which had dirtied the page, or null. */
+        TransactionId dirtier;
+        /** Whether the frame held committed changes which were not on disk. */
+        boolean committed;
+        /** Set once the page is on disk. */
+        boolean written;
+    }
+
+    /**
+     * Marks the page held by the specified frame clean and pins the frame,
+     * if the page is dirty or holds committed changes which are not on disk
+     * yet. The write must be completed by {@link #endWrite}.
+     *
+     * @param loc the frame to flush
+     * @param pid the page the frame is expected to hold, or null for any page
+     * @return the write to make, or null if the page need not be written
+     */
+    private PendingWrite beginWrite(int loc, PageId pid) {
+        synchronized (latches[loc]) {
+            Page page = bufferedPages[loc];
+            if (page == null || (pid != null && !pid.equals(frameIds[loc]))) {
+                return null;
+            }
+            TransactionId dirtier = page.isDirty();
+            if (dirtier == null && !committedDirty[loc]) {
+                updateEvictable(loc);
+                return null;
+            }
+            PendingWrite w = new PendingWrite();
+            w.loc = loc;
+            w.page = page;
+            w.dirtier = dirtier;
+            w.committed = committedDirty[loc];
+            if (steal && dirtier != null) {
+                w.before = page.getBeforeImage();
+            }
             page.markDirty(false, null);
+            committedDirty[loc] = false;
+            pin(loc);
+            return w;
+        }
+    }
+
+    /**
+     * Unpins the frame of the specified write. If the page was not written,
+     * it is marked dirty again, unless it was dirtied during the write.
+     */
+    private void endWrite(PendingWrite w) {
+        synchronized (latches[w.loc]) {
+            if (!w.written) {
+                if (w.dirtier != null && w.page.isDirty() == null) {
+                    w.page.markDirty(true, w.dirtier);
+                }
+                committedDirty[w.loc] = w.committed;
+            }
+            unpin(w.loc);
         }
-        cleanPages.add(i);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
+        List<PageId> pids = new ArrayList<PageId>();
         for (PageId pid : lockManager.getAllLockingPages(tid)) {
-            flushPage(pid);
+            pids.add(pid);
         }
+        flushPages(pids);
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Logs the before and after images of the pages dirtied by the specified
+     * transaction, without forcing the log or writing the pages, so that the
+     * commit record makes them durable. Pages appended to a HeapFile are
+     * still written, as by {@link #flushPages}, since the length of the file
+     * gives its number of pages.
      */
-    private synchronized void evictPage() throws DbException {
-        // For simplicity, only implement random eviction policy;
-        if (cleanPages.size() == 0) {
-            throw new DbException("All pages in the bufferpool are dirty.");
-        }
-        int i = rnd.nextInt(cleanPages.size());
-        int j = 0;
-        int evictLoc = 0;
-        for (int k : cleanPages) {
-            if (j == i) {
-                evictLoc = k;
-                break;
+    private void logPages(TransactionId tid) throws IOException {
+        LogFile log = Database.getLogFile();
+        for (PageId pid : lockManager.getAllLockingPages(tid)) {
+            Integer i = pageLookupTable.get(pid);
+            if (i == null) {
+                continue;
             }
-            j++;
+            DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+            if (file instanceof HeapFile
+                    && pid.pageNumber() >= ((HeapFile) file).getDiskFileNumPages()) {
+                flushFrame(i, pid);
+                continue;
+            }
+            Page page;
+            Page before;
+            synchronized (latches[i]) {
+                page = bufferedPages[i];
+                if (page == null || !pid.equals(frameIds[i])
+                        || !tid.equals(page.isDirty())) {
+                    continue;
+                }
+                before = page.getBeforeImage();
+            }
+            // the transaction holds a write lock on the page, so the page
+            // does not change while it is logged
+            log.logWrite(tid, before, page);
         }
-        
-        PageId pid = bufferedPages[evictLoc].getId();
-        discardPage(pid);
     }
-    
+
     /**
-     * Inform the buffer pool that a specified page will be modified to avoid
-     * the page being evicted.
-     * 
-     * @param pid
-     *            the id of the specified page.
-     *            Require the page to be in the buffer pool.
+     * Marks the specified page, which must have been returned by
+     * {@link #getPage} with {@link Permissions#READ_WRITE}, as dirtied by the
+     * specified transaction, so that it is not evicted before it is flushed.
+     * The page may have been evicted between getPage and this call, in which
+     * case changes made to it would be lost; the caller must then fetch the
+     * page again and retry.
+     *
+     * @param page
+     *            the page which will be modified
+     * @param tid
+     *            the transaction modifying the page
+     * @return true if the page is resident and was marked dirty, false if it
+     *         has been evicted
      */
-    synchronized void markDirty(PageId pid) {
-        Integer i = pageLookupTable.get(pid);
-        cleanPages.remove(i);
+    boolean markDirty(Page page, TransactionId tid) {
+        Integer i = pageLookupTable.get(page.getId());
+        if (i == null) {
+            return false;
+        }
+        synchronized (latches[i]) {
+            if (bufferedPages[i] != page) {
+                return false;
+            }
+            page.markDirty(true, tid);
+            arenaStale[i] = true;
+            updateEvictable(i);
+            return true;
+        }
     }
 }
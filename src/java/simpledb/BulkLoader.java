@@ -0,0 +1,554 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * BulkLoader writes the tuples of a text file, in the format read by
+ * {@link HeapFileEncoder#convert(java.io.File, java.io.File, int, int, Type[], char)},
+ * to the HeapPages of a file.
+ * <p>
+ * The text is read in chunks of whole lines. Each chunk is parsed on a
+ * fork-join pool, split at line boundaries into pieces parsed in parallel,
+ * while the next chunks are read. The fields are encoded straight into the
+ * on-disk format of the tuples, without Tuple or Field objects. The calling
+ * thread then packs the tuples of the chunks, in order, into pages, and
+ * writes the pages in batches of about {@link #WRITE_SIZE} bytes, ending each
+ * with its checksum if the files written have checksums.
+ * <p>
+ * As in HeapFileEncoder, blank lines are skipped, missing fields are empty,
+ * int fields which cannot be parsed are 0, and strings are truncated to
+ * {@link Type#STRING_LEN} bytes.
+ *
+ * @see HeapPage
+ */
+public class BulkLoader {
+
+    /** Number of bytes of text read at once. */
+    public static final int CHUNK_SIZE = 8 << 20;
+    /** Text of at most this many bytes is parsed by a single task. */
+    public static final int SPLIT_SIZE = 256 << 10;
+    /** Number of bytes of pages written at once. */
+    public static final int WRITE_SIZE = 1 << 20;
+    /** Number of chunks parsed ahead of the chunk whose pages are written. */
+    private static final int MAX_IN_FLIGHT = 3;
+
+    private final TupleDesc td;
+    private final byte separator;
+    private final int pageSize;
+    private final boolean checksums;
+    /** Number of bytes of the contents of a page, before its checksum. */
+    private final int dataSize;
+    private final ForkJoinPool pool;
+    private final int recordSize;
+    private final int recordsPerPage;
+    private final int headerBytes;
+    /** The offset in a record of each int field, in field order. */
+    private final int[] intOffsets;
+    private int chunkSize = CHUNK_SIZE;
+    private int splitSize = SPLIT_SIZE;
+
+    /**
+     * Creates a loader of tables with the specified TupleDesc, parsing on the
+     * common fork-join pool.
+     *
+     * @param separator
+     *            the ASCII character separating the fields of a line
+     * @param pageSize
+     *            the page size of the files written
+     */
+    public BulkLoader(TupleDesc td, char separator, int pageSize) {
+        this(td, separator, pageSize, false, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a loader of tables with the specified TupleDesc, parsing on the
+     * specified pool.
+     *
+     * @see #BulkLoader(TupleDesc, char, int)
+     */
+    public BulkLoader(TupleDesc td, char separator, int pageSize, ForkJoinPool pool) {
+        this(td, separator, pageSize, false, pool);
+    }
+
+    /**
+     * Creates a loader of tables with the specified TupleDesc, whose pages
+     * end with checksums if so specified, parsing on the specified pool.
+     *
+     * @param checksums
+     *            whether the pages of the files written end with checksums
+     * @see #BulkLoader(TupleDesc, char, int)
+     * @see HeapFile#hasChecksums
+     */
+    public BulkLoader(TupleDesc td, char separator, int pageSize, boolean checksums,
+            ForkJoinPool pool) {
+        HeapFile.checkPageSize(pageSize);
+        if (separator > 127 || separator == '\n' || separator == '\r') {
+            throw new IllegalArgumentException("Invalid separator " + separator);
+        }
+        this.td = td;
+        this.separator = (byte) separator;
+        this.pageSize = pageSize;
+        this.checksums = checksums;
+        this.dataSize = checksums ? pageSize - HeapFile.CHECKSUM_SIZE : pageSize;
+        this.pool = pool;
+        this.recordSize = td.getSize();
+        this.recordsPerPage = HeapPage.getNumTuples(td, dataSize);
+        this.headerBytes = HeapPage.getHeaderSize(recordsPerPage);
+        int numInts = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                numInts++;
+            }
+        }
+        this.intOffsets = new int[numInts];
+        int offset = 0;
+        for (int i = 0, k = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                intOffsets[k++] = offset;
+            }
+            offset += td.getFieldType(i).getLen();
+        }
+    }
+
+    /**
+     * Sets the number of bytes of text read at once and parsed by a single
+     * task; small sizes exercise the splitting in tests.
+     */
+    void setChunkSizes(int chunkSize, int splitSize) {
+        this.chunkSize = chunkSize;
+        this.splitSize = splitSize;
+    }
+
+    /**
+     * Writes the tuples of the specified text file to a new HeapFile. A table
+     * with no tuples gets a single empty page.
+     *
+     * @return the number of tuples written
+     */
+    public long convert(File inFile, File outFile) throws IOException {
+        FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            byte[] header = HeapFile.createHeader(pageSize, checksums);
+            write(out, ByteBuffer.wrap(header), 0);
+            PageSink sink = new PageSink(out, header.length, 0, null);
+            load(inFile, sink);
+            sink.finish(true);
+            return sink.numRecords;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Appends the tuples of the specified text file to the specified table,
+     * on new pages after its last page. The pages are written directly to
+     * the file, bypassing the buffer pool and the log, and become visible
+     * at once when all are written and forced to disk; the free-space map
+     * and the zone map of the table are updated as they are. Like
+     * {@link Compactor}, the load runs in its own transaction, which holds
+     * an exclusive lock on the page after the last page throughout, so that
+     * no transaction appends a page meanwhile. The pages are not logged, so
+     * a crash during the load may leave some of them in the table.
+     *
+     * @return the number of tuples appended
+     * @throws DbException
+     *             if the table does not have this loader's TupleDesc, page
+     *             size and checksums setting or does not store HeapPages, if
+     *             it has new pages which are not written yet, or if the
+     *             transaction of the load is aborted
+     */
+    public long append(File inFile, HeapFile hf) throws IOException, DbException {
+        if (!td.equals(hf.getTupleDesc()) || pageSize != hf.getPageSize()
+                || checksums != hf.hasChecksums() || hf instanceof SlottedHeapFile) {
+            throw new DbException("the table does not match the loader.");
+        }
+        int first = hf.getDiskFileNumPages();
+        if (hf.numPages() != first) {
+            throw new DbException("the table has new pages which are not written yet.");
+        }
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            Database.getBufferPool().getPage(t.getId(), new HeapPageId(hf.getId(), first),
+                    Permissions.READ_WRITE);
+            if (hf.numPages() != first || hf.getDiskFileNumPages() != first) {
+                // a page was appended before the lock was granted
+                throw new DbException("the table has new pages which are not written yet.");
+            }
+            long n = appendPages(inFile, hf, first);
+            t.commit();
+            return n;
+        } catch (TransactionAbortedException e) {
+            t.abort();
+            throw new DbException("the load was aborted.");
+        } catch (DbException | IOException | RuntimeException e) {
+            t.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the pages of the text file from the specified page on, while
+     * the page is locked, and removes them again if the load fails.
+     */
+    private long appendPages(File inFile, HeapFile hf, int first) throws IOException {
+        // load the maps before the file changes, so they are not rebuilt
+        hf.getFreeSpaceMap();
+        hf.getZoneMap();
+        PageSink sink = new PageSink(hf.getChannel(), hf.getPageOffset(first), first, hf);
+        try {
+            load(inFile, sink);
+            sink.finish(false);
+            hf.getChannel().force(false);
+        } catch (IOException | RuntimeException e) {
+            hf.truncate(first);
+            throw e;
+        }
+        // the locked page past the end is in the buffer pool
+        for (int i = first; i < first + sink.numPages; i++) {
+            Database.getBufferPool().discardPage(new HeapPageId(hf.getId(), i));
+        }
+        hf.resetNumPages();
+        return sink.numRecords;
+    }
+
+    private static void write(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf, pos + buf.position());
+        }
+    }
+
+    /**
+     * Reads the text file in chunks of whole lines, parses them on the pool
+     * and hands the tuples of each chunk to the sink in order.
+     */
+    private void load(File inFile, PageSink sink) throws IOException {
+        ArrayDeque<ForkJoinTask<List<Records>>> parsing = new ArrayDeque<ForkJoinTask<List<Records>>>();
+        InputStream in = new FileInputStream(inFile);
+        try {
+            byte[] carry = new byte[0];
+            boolean eof = false;
+            while (!eof) {
+                byte[] buf = Arrays.copyOf(carry, Math.max(chunkSize, 2 * carry.length));
+                int len = carry.length;
+                while (len < buf.length) {
+                    int n = in.read(buf, len, buf.length - len);
+                    if (n < 0) {
+                        eof = true;
+                        break;
+                    }
+                    len += n;
+                }
+                int end = eof ? len : lastLineEnd(buf, len);
+                carry = Arrays.copyOfRange(buf, end, len);
+                if (end > 0) {
+                    parsing.add(pool.submit(new ParseTask(buf, 0, end)));
+                }
+                if (parsing.size() > MAX_IN_FLIGHT) {
+                    sink.add(parsing.poll().join());
+                }
+            }
+            while (!parsing.isEmpty()) {
+                sink.add(parsing.poll().join());
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the position after the last newline among the first len bytes,
+     *         or 0 if there is none
+     */
+    private static int lastLineEnd(byte[] buf, int len) {
+        for (int i = len - 1; i >= 0; i--) {
+            if (buf[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /** The encoded tuples of a piece of text. */
+    private static class Records {
+        final byte[] data;
+        final int count;
+
+        Records(byte[] data, int count) {
+            this.data = data;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Parses the lines between two positions of a chunk, splitting them in
+     * halves at a line boundary until they are at most splitSize bytes.
+     */
+    private class ParseTask extends RecursiveTask<List<Records>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] text;
+        private final int from;
+        private final int to;
+
+        ParseTask(byte[] text, int from, int to) {
+            this.text = text;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Records> compute() {
+            int mid = to - from > splitSize ? nextLineEnd(from + (to - from) / 2) : to;
+            if (mid >= to) {
+                return Collections.singletonList(parse());
+            }
+            ParseTask left = new ParseTask(text, from, mid);
+            left.fork();
+            List<Records> right = new ParseTask(text, mid, to).compute();
+            List<Records> result = new ArrayList<Records>(left.join());
+            result.addAll(right);
+            return result;
+        }
+
+        private int nextLineEnd(int pos) {
+            while (pos < to && text[pos] != '\n') {
+                pos++;
+            }
+            return pos + 1;
+        }
+
+        private Records parse() {
+            int lines = 1;
+            for (int i = from; i < to; i++) {
+                if (text[i] == '\n') {
+                    lines++;
+                }
+            }
+            byte[] data = new byte[lines * recordSize];
+            int count = 0;
+            for (int start = from; start < to; ) {
+                int end = start;
+                while (end < to && text[end] != '\n') {
+                    end++;
+                }
+                int next = end + 1;
+                if (end > start && text[end - 1] == '\r') {
+                    end--;
+                }
+                if (!isBlank(start, end)) {
+                    encode(start, end, data, count * recordSize);
+                    count++;
+                }
+                start = next;
+            }
+            return new Records(data, count);
+        }
+
+        private boolean isBlank(int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (text[i] != ' ' && text[i] != '\t') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Encodes the fields of a line into a record in the format of a
+         * tuple slot of a HeapPage.
+         */
+        private void encode(int start, int end, byte[] out, int offset) {
+            int pos = start;
+            for (int i = 0; i < td.numFields(); i++) {
+                int fieldEnd = pos;
+                while (fieldEnd < end && text[fieldEnd] != separator) {
+                    fieldEnd++;
+                }
+                int s = pos, e = fieldEnd;
+                while (s < e && (text[s] == ' ' || text[s] == '\t')) {
+                    s++;
+                }
+                while (e > s && (text[e - 1] == ' ' || text[e - 1] == '\t')) {
+                    e--;
+                }
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    putInt(out, offset, parseInt(s, e));
+                } else {
+                    int len = Math.min(e - s, Type.STRING_LEN);
+                    putInt(out, offset, len);
+                    System.arraycopy(text, s, out, offset + 4, len);
+                }
+                offset += td.getFieldType(i).getLen();
+                pos = Math.min(fieldEnd + 1, end);
+            }
+        }
+
+        private int parseInt(int s, int e) {
+            boolean negative = s < e && text[s] == '-';
+            int i = s < e && (text[s] == '-' || text[s] == '+') ? s + 1 : s;
+            long value = 0;
+            boolean valid = i < e && e - i <= 10;
+            for (; valid && i < e; i++) {
+                int digit = text[i] - '0';
+                valid = digit >= 0 && digit <= 9;
+                value = value * 10 + digit;
+            }
+            value = negative ? -value : value;
+            if (!valid || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                System.out.println("BAD LINE : " + new String(text, s, e - s));
+                return 0;
+            }
+            return (int) value;
+        }
+    }
+
+    private static void putInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >>> 24);
+        b[pos + 1] = (byte) (v >>> 16);
+        b[pos + 2] = (byte) (v >>> 8);
+        b[pos + 3] = (byte) v;
+    }
+
+    private static int getInt(byte[] b, int pos) {
+        return (b[pos] << 24) | ((b[pos + 1] & 0xff) << 16) | ((b[pos + 2] & 0xff) << 8)
+                | (b[pos + 3] & 0xff);
+    }
+
+    /**
+     * Packs records into full pages, in order, and writes the pages in
+     * batches. For a table which is appended to, it also records the free
+     * space and the bounds of the int fields of each page written.
+     */
+    private class PageSink {
+        private final FileChannel out;
+        /** The position of the first page of the batch in the file. */
+        private long pos;
+        /** The page number of the first page of the batch. */
+        private int pageNo;
+        private final FreeSpaceMap fsm;
+        private final ZoneMap zm;
+        private final byte[] batch;
+        /** Number of complete pages in the batch. */
+        private int batchPages = 0;
+        /** Number of records on the page being filled. */
+        private int slot = 0;
+        /** Number of records on each page of the batch. */
+        private final int[] counts;
+        /** Bounds of the int fields of each page of the batch, or null. */
+        private final int[][] bounds;
+        long numRecords = 0;
+        int numPages = 0;
+
+        PageSink(FileChannel out, long pos, int pageNo, HeapFile target) throws IOException {
+            this.out = out;
+            this.pos = pos;
+            this.pageNo = pageNo;
+            this.fsm = target == null ? null : target.getFreeSpaceMap();
+            this.zm = target == null ? null : target.getZoneMap();
+            int pages = Math.max(1, WRITE_SIZE / pageSize);
+            this.batch = new byte[pages * pageSize];
+            this.counts = new int[pages];
+            this.bounds = zm == null ? null : new int[pages][2 * intOffsets.length];
+            clearBounds();
+        }
+
+        void add(List<Records> parsed) throws IOException {
+            for (Records r : parsed) {
+                for (int i = 0; i < r.count; i++) {
+                    if (slot == recordsPerPage) {
+                        finishPage();
+                    }
+                    int page = batchPages * pageSize;
+                    int offset = i * recordSize;
+                    System.arraycopy(r.data, offset, batch,
+                            page + headerBytes + slot * recordSize, recordSize);
+                    batch[page + slot / 8] |= 1 << (slot % 8);
+                    if (bounds != null) {
+                        int[] b = bounds[batchPages];
+                        for (int k = 0; k < intOffsets.length; k++) {
+                            int v = getInt(r.data, offset + intOffsets[k]);
+                            b[2 * k] = Math.min(b[2 * k], v);
+                            b[2 * k + 1] = Math.max(b[2 * k + 1], v);
+                        }
+                    }
+                    slot++;
+                    numRecords++;
+                }
+            }
+        }
+
+        private void clearBounds() {
+            if (bounds != null) {
+                for (int k = 0; k < intOffsets.length; k++) {
+                    bounds[batchPages][2 * k] = Integer.MAX_VALUE;
+                    bounds[batchPages][2 * k + 1] = Integer.MIN_VALUE;
+                }
+            }
+        }
+
+        private void finishPage() throws IOException {
+            counts[batchPages++] = slot;
+            numPages++;
+            slot = 0;
+            if (batchPages == counts.length) {
+                flush();
+            }
+            clearBounds();
+        }
+
+        /**
+         * Writes the last page and any pages not written yet.
+         *
+         * @param atLeastOne
+         *            whether to write an empty page if there are no records
+         */
+        void finish(boolean atLeastOne) throws IOException {
+            if (slot > 0 || (atLeastOne && numPages == 0)) {
+                finishPage();
+            }
+            flush();
+        }
+
+        private void flush() throws IOException {
+            int length = batchPages * pageSize;
+            if (checksums) {
+                for (int i = 0; i < batchPages; i++) {
+                    int page = i * pageSize;
+                    putInt(batch, page + dataSize,
+                            HeapFile.checksum(ByteBuffer.wrap(batch, page, dataSize)));
+                }
+            }
+            write(out, ByteBuffer.wrap(batch, 0, length), pos);
+            for (int i = 0; i < batchPages; i++) {
+                if (fsm != null) {
+                    fsm.pageWritten(pageNo + i, Math.min(recordsPerPage - counts[i],
+                            FreeSpaceMap.MAX_FREE_SPACE));
+                }
+                if (zm != null) {
+                    zm.pageWritten(pageNo + i, bounds[i]);
+                }
+            }
+            Arrays.fill(batch, 0, length, (byte) 0);
+            pos += length;
+            pageNo += batchPages;
+            batchPages = 0;
+        }
+    }
+}
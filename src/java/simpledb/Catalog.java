@@ -155,6 +155,13 @@ public class Catalog {
     /**
      * Reads the schema from a file and creates the appropriate tables in the
      * database.
+     * <p>
+     * Each line describes one table as <tt>name (field type, field type,
+     * ...)</tt>, optionally followed by <tt>mmap</tt> to read the pages of the
+     * table from a memory mapping of its file (see {@link MappedHeapFile}), or
+     * by <tt>slotted</tt> for a table stored in slotted pages (see
+     * {@link SlottedHeapFile}), or by <tt>columnar</tt> for a read-only table
+     * stored column by column (see {@link ColumnFile}).
      * 
      * @param catalogFile
      */
@@ -173,6 +180,7 @@ public class Catalog {
                 // System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1,
                         line.indexOf(")")).trim();
+                String option = line.substring(line.indexOf(")") + 1).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -200,8 +208,21 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + name
-                        + ".dat"), t);
+                File tabFile = new File(baseFolder + name + ".dat");
+                DbFile tabHf;
+                if (option.isEmpty()) {
+                    tabHf = new HeapFile(tabFile, t);
+                } else if (option.toLowerCase().equals("mmap")) {
+                    tabHf = new MappedHeapFile(tabFile, t);
+                } else if (option.toLowerCase().equals("slotted")) {
+                    tabHf = new SlottedHeapFile(tabFile, t);
+                } else if (option.toLowerCase().equals("columnar")) {
+                    tabHf = new ColumnFile(tabFile, t);
+                } else {
+                    System.out.println("Unknown table option " + option);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema "
                         + t);
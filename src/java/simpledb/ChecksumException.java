@@ -0,0 +1,15 @@
+package simpledb;
+
+/**
+ * Thrown when a page read from disk does not match the checksum stored with
+ * it, because it was torn by a crash or corrupted on disk.
+ *
+ * @see HeapFile#readPage
+ */
+public class ChecksumException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public ChecksumException(String s) {
+        super(s);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * ClockEvictionPolicy implements the CLOCK (second chance) approximation of
+ * LRU. Each frame has a reference bit which is set when the frame is accessed;
+ * the clock hand sweeps over the frames, clearing reference bits, and evicts
+ * the first evictable frame whose reference bit is already clear.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private final boolean[] occupied;
+    private final boolean[] evictable;
+    private final boolean[] referenced;
+    /** Number of frames which are both occupied and evictable. */
+    private int numEvictable;
+    private int hand;
+
+    /**
+     * @param numFrames
+     *            the number of frames in the buffer pool
+     */
+    public ClockEvictionPolicy(int numFrames) {
+        occupied = new boolean[numFrames];
+        evictable = new boolean[numFrames];
+        referenced = new boolean[numFrames];
+        numEvictable = 0;
+        hand = 0;
+    }
+
+    @Override
+    public synchronized void frameLoaded(int frame, PageId pid) {
+        occupied[frame] = true;
+        evictable[frame] = false;
+        referenced[frame] = true;
+    }
+
+    @Override
+    public void frameAccessed(int frame) {
+        // not synchronized, so hits never contend on the policy; a racing
+        // sweep can at worst cost the frame its second chance
+        referenced[frame] = true;
+    }
+
+    @Override
+    public synchronized void frameRemoved(int frame) {
+        setEvictable(frame, false);
+        occupied[frame] = false;
+        referenced[frame] = false;
+    }
+
+    @Override
+    public synchronized void setEvictable(int frame, boolean value) {
+        if (!occupied[frame] || evictable[frame] == value) {
+            return;
+        }
+        evictable[frame] = value;
+        numEvictable += value ? 1 : -1;
+    }
+
+    @Override
+    public synchronized int victim() {
+        if (numEvictable == 0) {
+            return -1;
+        }
+        // Every evictable frame has its reference bit cleared within the
+        // first sweep, so two sweeps always find a victim.
+        for (int i = 0; i < 2 * occupied.length; i++) {
+            int frame = hand;
+            hand = (hand + 1) % occupied.length;
+            if (!evictable[frame]) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+            } else {
+                return frame;
+            }
+        }
+        // should never reach here.
+        return -1;
+    }
+
+    @Override
+    public synchronized int[] rankFrames() {
+        // referenced frames survive the next sweep; within each group, the
+        // frames the hand has just passed are reached last
+        int[] frames = new int[occupied.length];
+        int n = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 1; i <= occupied.length; i++) {
+                int frame = (hand - i + occupied.length) % occupied.length;
+                if (occupied[frame] && referenced[frame] == (pass == 0)) {
+                    frames[n++] = frame;
+                }
+            }
+        }
+        return Arrays.copyOf(frames, n);
+    }
+}
@@ -0,0 +1,529 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+
+/**
+ * ColumnFile is a read-only DbFile which stores a table column by column, for
+ * analytic queries which read a few columns of wide tables. Scans which only
+ * need some of the columns read only the pages of those columns.
+ * <p>
+ * The rows of the table are split into row groups of
+ * {@link #getRowsPerGroup()} rows. Each row group is stored as one chunk of
+ * pages per column, in column order; a chunk holds the values of its column
+ * for the rows of the group, in row order, {@link ColumnPage#getNumValues}
+ * values per page. Page 0 of the file is a header holding {@link #MAGIC}, the
+ * page size, the number of rows per group, the number of rows, the number
+ * and the types of the columns, the flags of the file and the page of the
+ * chunk directory, as ints.
+ * <p>
+ * In a file with the {@link #COMPRESSED} flag, the row groups have
+ * {@link #getCompressedRowsPerGroup()} rows, and the chunks of int columns
+ * are stored in {@link CompressedColumnPage}s, which hold varying numbers of
+ * values. The pages of such a file are followed by the chunk directory: the
+ * first page of each chunk, and the number of pages before the directory.
+ * <p>
+ * ColumnFiles are written by {@link HeapFileEncoder#convertColumnar} and
+ * loaded with the <tt>columnar</tt> table option of Catalog.loadSchema.
+ *
+ * @see ColumnPage
+ * @see SeqScan
+ * @see Catalog#loadSchema
+ */
+public class ColumnFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** First int of the header page of a ColumnFile. */
+    public static final int MAGIC = 0x53444243;
+    /** Flag of the header of a file whose int columns are compressed. */
+    public static final int COMPRESSED = 1;
+
+    private final File file;
+    private final TupleDesc td;
+    private int numRows;
+    private int rowsPerGroup;
+    private boolean compressed;
+    /**
+     * The first page of the chunk of each column of each row group, in file
+     * order, followed by the number of pages of the file.
+     */
+    private int[] directory;
+    /** Channel used for all reads of the file, opened on first use. */
+    private transient volatile FileChannel channel;
+
+    /**
+     * Constructs a column file backed by the specified file. A missing or
+     * empty file is an empty table.
+     *
+     * @throws IllegalArgumentException
+     *             if the file is not a column file with the specified schema
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        if (f.length() == 0) {
+            this.numRows = 0;
+            this.rowsPerGroup = getRowsPerGroup();
+            this.directory = new int[] { 1 };
+        } else {
+            readHeader();
+        }
+    }
+
+    /**
+     * @return the number of rows of each row group of an uncompressed file
+     */
+    public static int getRowsPerGroup() {
+        return ColumnPage.getNumValues(Type.INT_TYPE);
+    }
+
+    /**
+     * @return the number of rows of each row group of a compressed file,
+     *         large enough for the int chunks to take several pages before
+     *         compression
+     */
+    public static int getCompressedRowsPerGroup() {
+        return 64 * getRowsPerGroup();
+    }
+
+    /**
+     * @return the number of pages of an uncompressed chunk of a column of the
+     *         specified type
+     */
+    static int getChunkPages(Type type, int rowsPerGroup) {
+        int perPage = ColumnPage.getNumValues(type);
+        return (rowsPerGroup + perPage - 1) / perPage;
+    }
+
+    private static int[] readInts(FileChannel ch, long pos, int n) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4 * n);
+        while (buf.hasRemaining() && ch.read(buf, pos + buf.position()) >= 0) {
+        }
+        if (buf.hasRemaining()) {
+            return null;
+        }
+        buf.flip();
+        int[] ints = new int[n];
+        buf.asIntBuffer().get(ints);
+        return ints;
+    }
+
+    /**
+     * Reads the header page and the chunk directory, and checks them against
+     * the schema of the table.
+     */
+    private void readHeader() {
+        int n = td.numFields();
+        try {
+            FileChannel ch = getChannel();
+            int[] header = readInts(ch, 0, 7 + n);
+            if (header == null || header[0] != MAGIC || header[1] != BufferPool.PAGE_SIZE
+                    || header[2] <= 0) {
+                throw new IllegalArgumentException(file + " is not a column file.");
+            }
+            rowsPerGroup = header[2];
+            numRows = header[3];
+            if (header[4] != n) {
+                throw new IllegalArgumentException(file + " does not match the schema.");
+            }
+            for (int i = 0; i < n; i++) {
+                if (header[5 + i] != td.getFieldType(i).ordinal()) {
+                    throw new IllegalArgumentException(file + " does not match the schema.");
+                }
+            }
+            compressed = (header[5 + n] & COMPRESSED) != 0;
+            int groups = numGroups();
+            if (compressed) {
+                directory = readInts(ch, header[6 + n] * (long) BufferPool.PAGE_SIZE, groups * n + 1);
+                if (directory == null) {
+                    throw new IllegalArgumentException(file + " is truncated.");
+                }
+            } else {
+                directory = new int[groups * n + 1];
+                int page = 1;
+                for (int g = 0; g < groups; g++) {
+                    for (int c = 0; c < n; c++) {
+                        directory[g * n + c] = page;
+                        page += getChunkPages(td.getFieldType(c), rowsPerGroup);
+                    }
+                }
+                directory[groups * n] = page;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Returns the File backing this ColumnFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile, the hash code of
+     * the absolute file name like for HeapFile.
+     */
+    public int getId() {
+        return file.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of rows of the table
+     */
+    public int numRows() {
+        return numRows;
+    }
+
+    /**
+     * @return true if the int columns of the file are compressed
+     * @see CompressedColumnPage
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    private int numGroups() {
+        return (numRows + rowsPerGroup - 1) / rowsPerGroup;
+    }
+
+    /**
+     * @return the number of pages of the file, including the header page
+     */
+    public int numPages() {
+        return directory[directory.length - 1];
+    }
+
+    /**
+     * @return the number of pages a scan of the specified columns reads
+     */
+    public int numPages(int[] columns) {
+        int n = td.numFields();
+        int pages = 0;
+        for (int g = 0; g < numGroups(); g++) {
+            for (int c : columns) {
+                pages += directory[g * n + c + 1] - directory[g * n + c];
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return the first page of the chunk of the specified column in the
+     *         specified row group
+     */
+    private int getChunkStart(int group, int column) {
+        return directory[group * td.numFields() + column];
+    }
+
+    /**
+     * @return the number of rows of the specified row group
+     */
+    private int getGroupRows(int group) {
+        return Math.min(rowsPerGroup, numRows - group * rowsPerGroup);
+    }
+
+    private FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pageNo = pid.pageNumber();
+        if (pageNo < 1 || pageNo >= numPages()) {
+            throw new IllegalArgumentException("The page doesn't exist in this file.");
+        }
+        int chunk = Arrays.binarySearch(directory, pageNo);
+        if (chunk < 0) {
+            chunk = -chunk - 2;
+        }
+        Type type = td.getFieldType(chunk % td.numFields());
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+            long pos = pageNo * (long) BufferPool.PAGE_SIZE;
+            FileChannel ch = getChannel();
+            while (buf.hasRemaining() && ch.read(buf, pos + buf.position()) >= 0) {
+            }
+            if (compressed && type == Type.INT_TYPE) {
+                return new CompressedColumnPage((HeapPageId) pid, buf.array());
+            }
+            return new ColumnPage((HeapPageId) pid, type, buf.array());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        // should never reach here.
+        return null;
+    }
+
+    /**
+     * ColumnFiles are read-only.
+     *
+     * @throws IOException always
+     */
+    public void writePage(Page page) throws IOException {
+        throw new IOException("ColumnFile is read-only.");
+    }
+
+    /**
+     * ColumnFiles are read-only.
+     *
+     * @throws DbException always
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("ColumnFile is read-only.");
+    }
+
+    /**
+     * ColumnFiles are read-only.
+     *
+     * @throws DbException always
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("ColumnFile is read-only.");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, getAllColumns());
+    }
+
+    /**
+     * @return the indices of all the columns of the table
+     */
+    int[] getAllColumns() {
+        int[] columns = new int[td.numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = i;
+        }
+        return columns;
+    }
+
+    /**
+     * Returns an iterator over the specified columns of all the tuples of the
+     * file, which reads only the pages of those columns. The tuples returned
+     * have only the specified fields, in the specified order.
+     *
+     * @param columns
+     *            the indices of the columns to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return iterator(tid, columns, null);
+    }
+
+    /**
+     * Returns an iterator over the specified columns of the tuples of the
+     * file which satisfy the specified predicate. The predicate is evaluated
+     * on the pages of its column first, on the encoded values of compressed
+     * pages, and the other columns are only read for the rows which match.
+     *
+     * @param columns
+     *            the indices of the columns to read
+     * @param predicate
+     *            a predicate on a field of the table, or null to return all
+     *            the tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, Predicate predicate) {
+        return new ColumnFileIterator(tid, columns.clone(), predicate);
+    }
+
+    /**
+     * @return the TupleDesc of the tuples of a scan of the specified columns
+     */
+    public TupleDesc getTupleDesc(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = td.getFieldType(columns[i]);
+            names[i] = td.getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    private class ColumnFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private final int[] columns;
+        private final Predicate predicate;
+        private final TupleDesc projected;
+        /** The page of each projected column last read. */
+        private final ColumnPage[] pages;
+        /** The row of the group of the first value of each page. */
+        private final int[] pageStart;
+        private int group;
+        private int groupRows;
+        /** The rows of the group matching the predicate, if there is one. */
+        private BitSet matches;
+        /** The first row of the group not returned yet. */
+        private int row;
+        /** The row of the next tuple, or -1 if not known yet. */
+        private int nextRow;
+        private boolean open = false;
+        /** The ring the pages are read through if this file is large. */
+        private BufferPool.ScanRing ring = null;
+
+        public ColumnFileIterator(TransactionId tid, int[] columns, Predicate predicate) {
+            this.tid = tid;
+            this.columns = columns;
+            this.predicate = predicate;
+            this.projected = getTupleDesc(columns);
+            this.pages = new ColumnPage[columns.length];
+            this.pageStart = new int[columns.length];
+        }
+
+        @Override
+        public void open() {
+            open = true;
+            group = -1;
+            groupRows = 0;
+            row = 0;
+            nextRow = -1;
+            int pages = numPages(columns);
+            if (predicate != null) {
+                pages += numPages(new int[] { predicate.getField() });
+            }
+            ring = Database.getBufferPool().getScanRing(pages);
+        }
+
+        private ColumnPage getPage(int pageNo) throws DbException, TransactionAbortedException {
+            return (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), pageNo), Permissions.READ_ONLY, ring);
+        }
+
+        /**
+         * Moves to the specified row group, and evaluates the predicate on
+         * its rows.
+         */
+        private void startGroup(int g) throws DbException, TransactionAbortedException {
+            group = g;
+            groupRows = getGroupRows(g);
+            row = 0;
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = null;
+            }
+            if (predicate == null) {
+                return;
+            }
+            matches = new BitSet(groupRows);
+            int column = predicate.getField();
+            int start = 0;
+            for (int pageNo = getChunkStart(g, column); start < groupRows; pageNo++) {
+                ColumnPage page = getPage(pageNo);
+                int count = Math.min(page.getNumValues(), groupRows - start);
+                page.matches(predicate.getOp(), predicate.getOperand(), count, matches, start);
+                start += count;
+            }
+        }
+
+        /**
+         * @return the value of the specified projected column in the
+         *         specified row of the current group
+         */
+        private Field getValue(int i, int r) throws DbException, TransactionAbortedException {
+            Type type = projected.getFieldType(i);
+            if (!compressed || type != Type.INT_TYPE) {
+                int perPage = ColumnPage.getNumValues(type);
+                int pageNo = getChunkStart(group, columns[i]) + r / perPage;
+                if (pages[i] == null || pages[i].getId().pageNumber() != pageNo) {
+                    pages[i] = getPage(pageNo);
+                    pageStart[i] = r - r % perPage;
+                }
+            } else {
+                // the pages of a compressed chunk hold varying numbers of values
+                if (pages[i] == null) {
+                    pages[i] = getPage(getChunkStart(group, columns[i]));
+                    pageStart[i] = 0;
+                }
+                while (r >= pageStart[i] + pages[i].getNumValues()) {
+                    pageStart[i] += pages[i].getNumValues();
+                    pages[i] = getPage(pages[i].getId().pageNumber() + 1);
+                }
+            }
+            return pages[i].getField(r - pageStart[i]);
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open) {
+                return false;
+            }
+            while (nextRow < 0) {
+                int r = row;
+                if (predicate != null && row < groupRows) {
+                    r = matches.nextSetBit(row);
+                }
+                if (r >= 0 && r < groupRows) {
+                    nextRow = r;
+                } else if (group + 1 < numGroups()) {
+                    startGroup(group + 1);
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more tuples.");
+            }
+            Tuple t = new Tuple(projected);
+            for (int i = 0; i < columns.length; i++) {
+                t.setField(i, getValue(i, nextRow));
+            }
+            row = nextRow + 1;
+            nextRow = -1;
+            return t;
+        }
+
+        @Override
+        public void rewind() throws DbException {
+            if (!open) {
+                throw new DbException("iterator not open yet.");
+            }
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            ring = null;
+            matches = null;
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = null;
+            }
+        }
+    }
+}
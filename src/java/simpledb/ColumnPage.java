@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * ColumnPage is a page of a ColumnFile. It holds consecutive values of a
+ * single column, each stored in the format written by
+ * {@link Field#serialize}, and decodes a value only when it is requested.
+ * <p>
+ * Column pages are read-only: ColumnFiles are written in bulk by
+ * {@link HeapFileEncoder#convertColumnar} and never modified through the
+ * buffer pool.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    private final HeapPageId pid;
+    private final Type type;
+    private final byte[] data;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * page keeps the array, which callers must not modify afterwards.
+     *
+     * @param type
+     *            the type of the column the page belongs to
+     */
+    public ColumnPage(HeapPageId id, Type type, byte[] data) {
+        this.pid = id;
+        this.type = type;
+        this.data = data;
+    }
+
+    /**
+     * @return the number of values of the specified type which fit on a page
+     */
+    public static int getNumValues(Type type) {
+        return BufferPool.PAGE_SIZE / type.getLen();
+    }
+
+    /**
+     * @return the number of values the page holds; the last page of a chunk
+     *         may hold fewer valid values
+     */
+    public int getNumValues() {
+        return getNumValues(type);
+    }
+
+    /**
+     * Evaluates a predicate on the first values of the page.
+     *
+     * @param op
+     *            the operation of the predicate
+     * @param operand
+     *            the value the values of the page are compared to
+     * @param count
+     *            the number of values to evaluate the predicate on
+     * @param result
+     *            the set in which the predicate sets bit offset + i for each
+     *            matching value i
+     */
+    public void matches(Predicate.Op op, Field operand, int count, BitSet result, int offset) {
+        for (int i = 0; i < count; i++) {
+            if (getField(i).compare(op, operand)) {
+                result.set(offset + i);
+            }
+        }
+    }
+
+    /**
+     * @return the value in the specified position of the page
+     */
+    public Field getField(int i) {
+        return type.parse(data, i * type.getLen());
+    }
+
+    @Override
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    @Override
+    public TransactionId isDirty() {
+        return null;
+    }
+
+    @Override
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            throw new UnsupportedOperationException("column pages are read-only");
+        }
+    }
+
+    @Override
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    @Override
+    public Page getBeforeImage() {
+        return this;
+    }
+
+    @Override
+    public void setBeforeImage() {
+    }
+}
@@ -0,0 +1,223 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Compactor moves the tuples of the last pages of a HeapFile into the free
+ * slots of earlier pages, and then truncates the empty pages at the end of
+ * the file, while other transactions keep using the table.
+ * <p>
+ * The work is done in many small transactions, which lock pages through
+ * the buffer pool like any other: each move empties one page into pages
+ * before it, and the final truncation write-locks the empty pages at the
+ * end of the file and the page after the last one, which transactions
+ * appending a page must lock. A moved tuple is deleted from its page and
+ * inserted into another, which gives it its new RecordId; no other
+ * structure refers to RecordIds. Between transactions the compactor pauses,
+ * and after a transaction aborts, for instance because it waited for a lock
+ * held by a query, it backs off for longer before trying again, so that
+ * foreground queries are not starved.
+ *
+ * @see HeapFile#truncate
+ */
+public class Compactor {
+
+    /** Default pause between two transactions of the compaction. */
+    public static final long DEFAULT_PAUSE_MILLIS = 10;
+    /** Longest pause after repeated aborts. */
+    public static final long MAX_PAUSE_MILLIS = 1000;
+    /** Number of aborts in a row after which the compaction gives up. */
+    public static final int MAX_ABORTS = 10;
+
+    private final HeapFile hf;
+    private final long pauseMillis;
+    private int tuplesMoved = 0;
+    private int pagesFreed = 0;
+
+    /**
+     * Creates a compactor of the specified table which pauses for
+     * {@link #DEFAULT_PAUSE_MILLIS} between transactions.
+     */
+    public Compactor(HeapFile hf) {
+        this(hf, DEFAULT_PAUSE_MILLIS);
+    }
+
+    /**
+     * Creates a compactor of the specified table.
+     *
+     * @param pauseMillis
+     *            the pause between two transactions of the compaction, which
+     *            doubles after each abort
+     */
+    public Compactor(HeapFile hf, long pauseMillis) {
+        this.hf = hf;
+        this.pauseMillis = pauseMillis;
+    }
+
+    /**
+     * @return the number of tuples moved by {@link #compact}
+     */
+    public int getTuplesMoved() {
+        return tuplesMoved;
+    }
+
+    /**
+     * @return the number of pages truncated by {@link #compact}
+     */
+    public int getPagesFreed() {
+        return pagesFreed;
+    }
+
+    /**
+     * Compacts the table: moves the tuples of its last pages into free slots
+     * of earlier pages, one page per transaction, for as long as there are
+     * free slots before the page, and then truncates the empty pages at the
+     * end of the file.
+     *
+     * @throws DbException
+     *             if the transactions of the compaction keep aborting
+     */
+    public void compact() throws DbException, IOException {
+        int source = hf.numPages() - 1;
+        long pause = pauseMillis;
+        int aborts = 0;
+        boolean moving = true;
+        while (true) {
+            Transaction t = new Transaction();
+            t.start();
+            boolean done;
+            try {
+                if (moving) {
+                    source = moveLastPage(t.getId(), Math.min(source, hf.numPages() - 1));
+                    moving = source > 0;
+                    done = false;
+                } else {
+                    truncate(t.getId());
+                    done = true;
+                }
+                t.commit();
+                pause = pauseMillis;
+                aborts = 0;
+            } catch (TransactionAbortedException e) {
+                t.abort();
+                if (++aborts == MAX_ABORTS) {
+                    throw new DbException("compaction aborted " + aborts + " times in a row.");
+                }
+                pause = Math.min(2 * Math.max(pause, 1), MAX_PAUSE_MILLIS);
+                done = false;
+            } catch (DbException | RuntimeException e) {
+                t.abort();
+                throw e;
+            }
+            if (done) {
+                return;
+            }
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                System.exit(-1);
+            }
+        }
+    }
+
+    /**
+     * Moves the tuples of the last page at or before the specified page which
+     * has tuples into free slots of earlier pages.
+     *
+     * @return the page to move next, or 0 if there is no page to move, or
+     *         the page could not be emptied
+     */
+    private int moveLastPage(TransactionId tid, int source)
+            throws TransactionAbortedException, DbException, IOException {
+        BufferPool pool = Database.getBufferPool();
+        FreeSpaceMap fsm = hf.getFreeSpaceMap();
+        ZoneMap zm = hf.getZoneMap();
+        TuplePage src = null;
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (; source > 0; source--) {
+            src = (TuplePage) pool.getPage(tid, new HeapPageId(hf.getId(), source),
+                    Permissions.READ_WRITE);
+            for (Iterator<Tuple> it = src.iterator(); it.hasNext(); ) {
+                tuples.add(it.next());
+            }
+            if (!tuples.isEmpty()) {
+                break;
+            }
+        }
+        if (source <= 0) {
+            return 0;
+        }
+        src = markDirty(tid, src);
+        int target = 0;
+        for (Tuple t : tuples) {
+            TuplePage dst = null;
+            int needed = hf.getFreeSpaceNeeded(t);
+            for (target = fsm.nextPageWithRoom(target, needed); target >= 0 && target < source;
+                    target = fsm.nextPageWithRoom(target + 1, needed)) {
+                dst = (TuplePage) pool.getPage(tid, new HeapPageId(hf.getId(), target),
+                        Permissions.READ_WRITE);
+                if (dst.hasRoomFor(t)) {
+                    break;
+                }
+                fsm.update(target, dst.getFreeSpace());
+                dst = null;
+            }
+            if (dst == null) {
+                // no room before the page; the rest of the file is dense
+                return 0;
+            }
+            dst = markDirty(tid, dst);
+            src.deleteTuple(t);
+            dst.insertTuple(t);
+            hf.updateFreeSpace(dst);
+            zm.tupleInserted(target, t);
+            tuplesMoved++;
+        }
+        hf.updateFreeSpace(src);
+        return source - 1;
+    }
+
+    /**
+     * Marks a page dirty, refetching it if it was evicted in between.
+     */
+    private static TuplePage markDirty(TransactionId tid, TuplePage page)
+            throws TransactionAbortedException, DbException {
+        while (!Database.getBufferPool().markDirty(page, tid)) {
+            page = (TuplePage) Database.getBufferPool().getPage(tid, page.getId(),
+                    Permissions.READ_WRITE);
+        }
+        return page;
+    }
+
+    /**
+     * Truncates the empty pages at the end of the file. The page after the
+     * last page is locked first, so that no transaction is appending a page
+     * meanwhile, and then the last pages while they are empty.
+     */
+    private void truncate(TransactionId tid)
+            throws TransactionAbortedException, DbException, IOException {
+        BufferPool pool = Database.getBufferPool();
+        int end = hf.numPages();
+        pool.getPage(tid, new HeapPageId(hf.getId(), end), Permissions.READ_WRITE);
+        if (hf.numPages() != end) {
+            // a page was appended before the lock was granted
+            throw new TransactionAbortedException();
+        }
+        int newEnd = end;
+        while (newEnd > 1) {
+            TuplePage page = (TuplePage) pool.getPage(tid,
+                    new HeapPageId(hf.getId(), newEnd - 1), Permissions.READ_WRITE);
+            if (page.isDirty() != null || page.iterator().hasNext()) {
+                break;
+            }
+            newEnd--;
+        }
+        if (newEnd < end) {
+            hf.truncate(newEnd);
+            pagesFreed += end - newEnd;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * CompressedColumnPage is a page of int values of a compressed ColumnFile.
+ * Each page holds a variable number of consecutive values of its column,
+ * stored in whichever of the following encodings takes the least space for
+ * them:
+ * <ul>
+ * <li>{@link #PLAIN}: the values as 4 byte ints;</li>
+ * <li>{@link #RLE}: the number of runs, followed by the value and the length
+ * of each run of equal values, as ints;</li>
+ * <li>{@link #DICTIONARY}: the number of distinct values and the sorted
+ * distinct values as ints, the bit width of a code as an int, followed by the
+ * code of each value, its index in the dictionary, bit-packed;</li>
+ * <li>{@link #FRAME_OF_REFERENCE}: the minimum value and the bit width of an
+ * offset as ints, followed by the offset of each value from the minimum,
+ * bit-packed.</li>
+ * </ul>
+ * The page starts with the encoding and the number of values, as ints.
+ * Bit-packed values are stored least significant bit first.
+ * <p>
+ * Predicates are evaluated on the encoded values where possible: once per
+ * dictionary entry or run, and on the offsets of a frame of reference.
+ *
+ * @see ColumnFile
+ */
+public class CompressedColumnPage extends ColumnPage {
+
+    public static final int PLAIN = 0;
+    public static final int RLE = 1;
+    public static final int DICTIONARY = 2;
+    public static final int FRAME_OF_REFERENCE = 3;
+
+    /** Size of the header at the start of the page. */
+    public static final int HEADER_SIZE = 8;
+
+    private final byte[] data;
+    private final int encoding;
+    private final int numValues;
+    /** The distinct values, or the base value of a frame of reference. */
+    private int[] dictionary;
+    private int bits;
+    /** Byte offset of the encoded values. */
+    private int body;
+    /** The row after the end of each run of an RLE page. */
+    private int[] runEnds;
+
+    /**
+     * Create a CompressedColumnPage from a set of bytes of data read from
+     * disk. The page keeps the array, which callers must not modify
+     * afterwards.
+     */
+    public CompressedColumnPage(HeapPageId id, byte[] data) {
+        super(id, Type.INT_TYPE, data);
+        this.data = data;
+        this.encoding = Type.readInt(data, 0);
+        this.numValues = Type.readInt(data, 4);
+        switch (encoding) {
+        case PLAIN:
+            body = HEADER_SIZE;
+            break;
+        case RLE:
+            int runs = Type.readInt(data, HEADER_SIZE);
+            runEnds = new int[runs];
+            dictionary = new int[runs];
+            int end = 0;
+            for (int i = 0; i < runs; i++) {
+                dictionary[i] = Type.readInt(data, HEADER_SIZE + 4 + 8 * i);
+                end += Type.readInt(data, HEADER_SIZE + 8 + 8 * i);
+                runEnds[i] = end;
+            }
+            break;
+        case DICTIONARY:
+            int size = Type.readInt(data, HEADER_SIZE);
+            dictionary = new int[size];
+            for (int i = 0; i < size; i++) {
+                dictionary[i] = Type.readInt(data, HEADER_SIZE + 4 + 4 * i);
+            }
+            bits = Type.readInt(data, HEADER_SIZE + 4 + 4 * size);
+            body = HEADER_SIZE + 8 + 4 * size;
+            break;
+        case FRAME_OF_REFERENCE:
+            dictionary = new int[] { Type.readInt(data, HEADER_SIZE) };
+            bits = Type.readInt(data, HEADER_SIZE + 4);
+            body = HEADER_SIZE + 8;
+            break;
+        default:
+            throw new IllegalArgumentException("unknown encoding " + encoding
+                    + " of page " + id.pageNumber());
+        }
+    }
+
+    /**
+     * @return the encoding of the values of the page
+     */
+    public int getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public int getNumValues() {
+        return numValues;
+    }
+
+    /**
+     * Reads the bit-packed value of the specified width at the specified
+     * index.
+     */
+    private static long unpack(byte[] data, int body, int bits, int i) {
+        if (bits == 0) {
+            return 0;
+        }
+        long bitPos = (long) i * bits;
+        int pos = body + (int) (bitPos >>> 3);
+        long word = 0;
+        for (int b = 0; b < 5 && pos + b < data.length; b++) {
+            word |= (data[pos + b] & 0xffL) << (8 * b);
+        }
+        return (word >>> (bitPos & 7)) & ((1L << bits) - 1);
+    }
+
+    private static void pack(byte[] data, int body, int bits, int i, long value) {
+        long bitPos = (long) i * bits;
+        int pos = body + (int) (bitPos >>> 3);
+        long word = value << (bitPos & 7);
+        for (int b = 0; b < 5 && (word >>> (8 * b)) != 0; b++) {
+            data[pos + b] |= (byte) (word >>> (8 * b));
+        }
+    }
+
+    private int getInt(int i) {
+        switch (encoding) {
+        case PLAIN:
+            return Type.readInt(data, body + 4 * i);
+        case RLE:
+            int run = Arrays.binarySearch(runEnds, i + 1);
+            return dictionary[run >= 0 ? run : -run - 1];
+        case DICTIONARY:
+            return dictionary[(int) unpack(data, body, bits, i)];
+        default:
+            return (int) (dictionary[0] + unpack(data, body, bits, i));
+        }
+    }
+
+    @Override
+    public Field getField(int i) {
+        if (i < 0 || i >= numValues) {
+            throw new IndexOutOfBoundsException("no value " + i + " on this page");
+        }
+        return new IntField(getInt(i));
+    }
+
+    private static boolean compare(long value, Predicate.Op op, long operand) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return value == operand;
+        case NOT_EQUALS:
+            return value != operand;
+        case GREATER_THAN:
+            return value > operand;
+        case GREATER_THAN_OR_EQ:
+            return value >= operand;
+        case LESS_THAN:
+            return value < operand;
+        case LESS_THAN_OR_EQ:
+            return value <= operand;
+        }
+        return false;
+    }
+
+    @Override
+    public void matches(Predicate.Op op, Field operand, int count, BitSet result, int offset) {
+        long c = ((IntField) operand).getValue();
+        count = Math.min(count, numValues);
+        switch (encoding) {
+        case PLAIN:
+            for (int i = 0; i < count; i++) {
+                if (compare(Type.readInt(data, body + 4 * i), op, c)) {
+                    result.set(offset + i);
+                }
+            }
+            break;
+        case RLE:
+            int start = 0;
+            for (int run = 0; run < runEnds.length && start < count; run++) {
+                if (compare(dictionary[run], op, c)) {
+                    result.set(offset + start, offset + Math.min(runEnds[run], count));
+                }
+                start = runEnds[run];
+            }
+            break;
+        case DICTIONARY:
+            boolean[] hits = new boolean[dictionary.length];
+            boolean any = false;
+            for (int code = 0; code < dictionary.length; code++) {
+                hits[code] = compare(dictionary[code], op, c);
+                any |= hits[code];
+            }
+            if (!any) {
+                break;
+            }
+            for (int i = 0; i < count; i++) {
+                if (hits[(int) unpack(data, body, bits, i)]) {
+                    result.set(offset + i);
+                }
+            }
+            break;
+        default:
+            // compare the offsets with the offset of the operand
+            long o = c - dictionary[0];
+            for (int i = 0; i < count; i++) {
+                if (compare(unpack(data, body, bits, i), op, o)) {
+                    result.set(offset + i);
+                }
+            }
+        }
+    }
+
+    private static int bitWidth(long range) {
+        return 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    /**
+     * Returns the number of bytes the specified values take in each
+     * encoding, header included.
+     */
+    private static int[] encodedSizes(int[] values, int from, int count) {
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE, runs = 0;
+        for (int i = from; i < from + count; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+            if (i == from || values[i] != values[i - 1]) {
+                runs++;
+            }
+        }
+        int[] sorted = Arrays.copyOfRange(values, from, from + count);
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinct++;
+            }
+        }
+        int[] sizes = new int[4];
+        sizes[PLAIN] = HEADER_SIZE + 4 * count;
+        sizes[RLE] = HEADER_SIZE + 4 + 8 * runs;
+        sizes[DICTIONARY] = HEADER_SIZE + 8 + 4 * distinct
+                + (int) (((long) count * bitWidth(distinct - 1) + 7) / 8);
+        sizes[FRAME_OF_REFERENCE] = HEADER_SIZE + 8
+                + (int) (((long) count * bitWidth((long) max - min) + 7) / 8);
+        return sizes;
+    }
+
+    /**
+     * Encodes the specified values into as few pages as possible, choosing
+     * the smallest encoding for the values of each page.
+     *
+     * @return the data of the pages, in order
+     */
+    public static ArrayList<byte[]> encode(int[] values, int count) {
+        ArrayList<byte[]> pages = new ArrayList<byte[]>();
+        int from = 0;
+        int last = 0;
+        while (from < count) {
+            // find the most values which fit on a page, halving and then
+            // bisecting the number of values, starting from twice as many as
+            // on the previous page
+            int n = pages.isEmpty() ? count : Math.min(count - from, 2 * last);
+            int tooMany = n + 1;
+            while (!fits(values, from, n)) {
+                tooMany = n;
+                n = (n + 1) / 2;
+            }
+            while (tooMany - n > 1) {
+                int mid = (n + tooMany) >>> 1;
+                if (fits(values, from, mid)) {
+                    n = mid;
+                } else {
+                    tooMany = mid;
+                }
+            }
+            pages.add(encodePage(values, from, n, smallest(encodedSizes(values, from, n))));
+            from += n;
+            last = n;
+        }
+        return pages;
+    }
+
+    private static boolean fits(int[] values, int from, int count) {
+        int[] sizes = encodedSizes(values, from, count);
+        return sizes[smallest(sizes)] <= BufferPool.PAGE_SIZE;
+    }
+
+    private static int smallest(int[] sizes) {
+        int best = PLAIN;
+        for (int e = 0; e < sizes.length; e++) {
+            if (sizes[e] < sizes[best]) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    private static void putInt(byte[] data, int pos, int v) {
+        data[pos] = (byte) (v >>> 24);
+        data[pos + 1] = (byte) (v >>> 16);
+        data[pos + 2] = (byte) (v >>> 8);
+        data[pos + 3] = (byte) v;
+    }
+
+    /**
+     * Encodes the specified values, which must fit, into a page in the
+     * specified encoding.
+     */
+    static byte[] encodePage(int[] values, int from, int count, int encoding) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        putInt(data, 0, encoding);
+        putInt(data, 4, count);
+        switch (encoding) {
+        case PLAIN:
+            for (int i = 0; i < count; i++) {
+                putInt(data, HEADER_SIZE + 4 * i, values[from + i]);
+            }
+            break;
+        case RLE:
+            int runs = 0;
+            int pos = HEADER_SIZE + 4;
+            for (int i = 0; i < count; ) {
+                int j = i + 1;
+                while (j < count && values[from + j] == values[from + i]) {
+                    j++;
+                }
+                putInt(data, pos, values[from + i]);
+                putInt(data, pos + 4, j - i);
+                pos += 8;
+                runs++;
+                i = j;
+            }
+            putInt(data, HEADER_SIZE, runs);
+            break;
+        case DICTIONARY:
+            int[] sorted = Arrays.copyOfRange(values, from, from + count);
+            Arrays.sort(sorted);
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || sorted[i] != sorted[size - 1]) {
+                    sorted[size++] = sorted[i];
+                }
+            }
+            int[] dictionary = Arrays.copyOf(sorted, size);
+            int bits = bitWidth(size - 1);
+            putInt(data, HEADER_SIZE, size);
+            for (int i = 0; i < size; i++) {
+                putInt(data, HEADER_SIZE + 4 + 4 * i, dictionary[i]);
+            }
+            putInt(data, HEADER_SIZE + 4 + 4 * size, bits);
+            int body = HEADER_SIZE + 8 + 4 * size;
+            for (int i = 0; i < count; i++) {
+                pack(data, body, bits, i, Arrays.binarySearch(dictionary, values[from + i]));
+            }
+            break;
+        case FRAME_OF_REFERENCE:
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int i = from; i < from + count; i++) {
+                min = Math.min(min, values[i]);
+                max = Math.max(max, values[i]);
+            }
+            bits = bitWidth((long) max - min);
+            putInt(data, HEADER_SIZE, min);
+            putInt(data, HEADER_SIZE + 4, bits);
+            for (int i = 0; i < count; i++) {
+                pack(data, HEADER_SIZE + 8, bits, i, (long) values[from + i] - min);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("unknown encoding " + encoding);
+        }
+        return data;
+    }
+}
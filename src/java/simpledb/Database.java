@@ -50,12 +50,26 @@ public class Database {
         buffer pool and return it
     */
     public static BufferPool resetBufferPool(int pages) {
+        // the old pool's writer must not write its pages after this
+        _instance._bufferpool.retire();
         _instance._bufferpool = new BufferPool(pages);
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- install the specified buffer pool,
+        e.g. one with another eviction policy or off the heap, and return it
+    */
+    public static BufferPool resetBufferPool(BufferPool pool) {
+        if (pool != _instance._bufferpool) {
+            _instance._bufferpool.retire();
+        }
+        _instance._bufferpool = pool;
+        return pool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
+        _instance._bufferpool.retire();
     	_instance = new Database();
     }
 
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single double, such as the result of an
+ * AVG aggregate.
+ */
+public class DoubleField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private double value;
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param d The value of this field.
+     */
+    public DoubleField(double d) {
+        value = d;
+    }
+
+    public String toString() {
+        return Double.toString(value);
+    }
+
+    public int hashCode() {
+        return Double.hashCode(value);
+    }
+
+    /**
+     * Two DoubleFields are equal if their values are the same double, as
+     * Double.equals defines it.
+     */
+    public boolean equals(Object field) {
+        return field instanceof DoubleField
+                && Double.compare(((DoubleField) field).value, value) == 0;
+    }
+
+    public void serialize(DataOutputStream dos) throws IOException {
+        dos.writeDouble(value);
+    }
+
+    /**
+     * Compare the specified field to the value of this Field.
+     * Return semantics are as specified by Field.compare
+     *
+     * @throws IllegalCastException if val is not numeric
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+
+        if (!(val instanceof DoubleField)) {
+            return Predicate.compareNumbers(this, op, val);
+        }
+        DoubleField dVal = (DoubleField) val;
+
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return value == dVal.value;
+        case NOT_EQUALS:
+            return value != dVal.value;
+        case GREATER_THAN:
+            return value > dVal.value;
+        case GREATER_THAN_OR_EQ:
+            return value >= dVal.value;
+        case LESS_THAN:
+            return value < dVal.value;
+        case LESS_THAN_OR_EQ:
+            return value <= dVal.value;
+        }
+
+        return false;
+    }
+
+    /**
+     * Return the Type of this field.
+     * @return Type.DOUBLE_TYPE
+     */
+    public Type getType() {
+        return Type.DOUBLE_TYPE;
+    }
+}
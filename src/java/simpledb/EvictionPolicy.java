@@ -0,0 +1,76 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which frame of the BufferPool is replaced when a
+ * page has to be read in and no frame is free. Frames are identified by their
+ * index in the buffer pool. The BufferPool informs the policy whenever a frame
+ * is filled, accessed or emptied, and whether the page held by a frame may
+ * currently be evicted (e.g. dirty pages may not be evicted under NO-STEAL).
+ * <p>
+ * Implementations must be thread safe. {@link #frameAccessed(int)} is called
+ * on every buffer pool hit without any buffer pool latch held, so it should be
+ * cheap. Calls which change whether a frame is evictable are made while the
+ * BufferPool holds the latch of that frame, and the BufferPool checks a victim
+ * again under its latch before evicting it.
+ *
+ * @see BufferPool
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Notify the policy that a page has been read into the specified frame.
+     * A newly loaded frame is not evictable until
+     * {@link #setEvictable(int, boolean)} says so.
+     *
+     * @param frame
+     *            the index of the frame
+     * @param pid
+     *            the id of the page now held by the frame
+     */
+    public void frameLoaded(int frame, PageId pid);
+
+    /**
+     * Notify the policy that the page held by the specified frame has been
+     * requested again.
+     *
+     * @param frame
+     *            the index of the frame
+     */
+    public void frameAccessed(int frame);
+
+    /**
+     * Notify the policy that the specified frame has been emptied, either
+     * because it was chosen as a victim or because its page was discarded.
+     *
+     * @param frame
+     *            the index of the frame
+     */
+    public void frameRemoved(int frame);
+
+    /**
+     * Mark whether the page held by the specified frame may be evicted.
+     *
+     * @param frame
+     *            the index of the frame
+     * @param evictable
+     *            true if the frame may be chosen as a victim
+     */
+    public void setEvictable(int frame, boolean evictable);
+
+    /**
+     * Choose a frame to evict. The frame is not removed from the policy until
+     * {@link #frameRemoved(int)} is called.
+     *
+     * @return the index of the frame to evict, or -1 if no frame is evictable
+     */
+    public int victim();
+
+    /**
+     * Rank the occupied frames, evictable or not, by how long the policy
+     * would keep them, e.g. so that the BufferPool can record its hot pages.
+     *
+     * @return the occupied frames, the one which would be evicted last first
+     * @see BufferPool#saveHotPages
+     */
+    public int[] rankFrames();
+}
@@ -48,7 +48,7 @@ public class Filter extends Operator {
         while (child.hasNext()) {
             Tuple t = child.next();
             if (pred.filter(t)) {
-                tupList.add(t);
+                tupList.add(t.keep());
             }
         }
         itr = tupList.iterator();
@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records how much room each page of a HeapFile has left, so
+ * that HeapFile.insertTuple can go straight to a page with room instead of
+ * locking and reading every page from the start of the file.
+ * <p>
+ * The free space of a page is measured by {@link TuplePage#getFreeSpace} (for
+ * a HeapPage, its number of empty slots) and is at most
+ * {@link #MAX_FREE_SPACE}. The map is persisted next to the table in a file
+ * with the suffix {@link #SUFFIX}, one byte per page. The entry of a page is
+ * written to the map file whenever the page is written to the table, so the
+ * map file describes the pages on disk. If the map file is missing, or the
+ * table was modified after it, the map is rebuilt from the page headers of
+ * the table.
+ * <p>
+ * The map is only a hint: HeapFile.insertTuple checks the page it is sent to,
+ * and corrects the entry of a page which turns out to be full.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    /** Suffix appended to the name of a table to name its map file. */
+    public static final String SUFFIX = ".fsm";
+
+    /** The largest free space recorded for a page. */
+    public static final int MAX_FREE_SPACE = 255;
+
+    private final HeapFile hf;
+    private final File file;
+    /** Free space of a page which is not in the file yet. */
+    private final int emptyPageSpace;
+    /** Free space of each page; may be longer than the table. */
+    private int[] freeSpace;
+    /** Pages whose free space is not 0. */
+    private final BitSet withRoom;
+    /** Channel of the map file, opened when the first entry is written. */
+    private FileChannel channel;
+
+    /**
+     * Loads the map of the specified table from its map file, rebuilding the
+     * map if the map file is missing or out of date.
+     */
+    FreeSpaceMap(HeapFile hf) throws IOException {
+        this.hf = hf;
+        this.file = getMapFile(hf.getFile());
+        int headerSize = hf.getFreeSpaceHeaderSize();
+        this.emptyPageSpace = hf.getFreeSpace(new byte[headerSize]);
+        this.withRoom = new BitSet();
+        int numPages = hf.getDiskFileNumPages();
+        this.freeSpace = new int[Math.max(numPages, 16)];
+        Arrays.fill(freeSpace, emptyPageSpace);
+
+        int loaded = 0;
+        if (file.exists() && Files.getLastModifiedTime(file.toPath()).compareTo(
+                Files.getLastModifiedTime(hf.getFile().toPath())) >= 0) {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            loaded = Math.min(bytes.length, numPages);
+            for (int i = 0; i < loaded; i++) {
+                set(i, bytes[i] & 0xff);
+            }
+        }
+        // pages the map file does not cover are read from the table
+        FileChannel ch = hf.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        for (int i = loaded; i < numPages; i++) {
+            header.clear();
+            long pos = hf.getPageOffset(i);
+            while (header.hasRemaining() && ch.read(header, pos + header.position()) >= 0) {
+            }
+            set(i, hf.getFreeSpace(header.array()));
+        }
+        if (loaded < numPages && file.exists()) {
+            writeAll(numPages);
+        }
+    }
+
+    /**
+     * @return the map file of the table stored in the specified file
+     */
+    public static File getMapFile(File tableFile) {
+        return new File(tableFile.getPath() + SUFFIX);
+    }
+
+    private void set(int pageNo, int space) {
+        if (pageNo >= freeSpace.length) {
+            int length = freeSpace.length;
+            freeSpace = Arrays.copyOf(freeSpace, Math.max(pageNo + 1, 2 * length));
+            Arrays.fill(freeSpace, length, freeSpace.length, emptyPageSpace);
+        }
+        freeSpace[pageNo] = space;
+        withRoom.set(pageNo, space > 0);
+    }
+
+    /**
+     * Returns the first page at or after the specified page whose free space
+     * is at least the specified amount.
+     *
+     * @param from
+     *            the page to start from
+     * @param space
+     *            the free space needed, at least 1
+     * @return the page number, or -1 if no page has room
+     */
+    public synchronized int nextPageWithRoom(int from, int space) {
+        int i = withRoom.nextSetBit(from);
+        while (i >= 0 && freeSpace[i] < space) {
+            i = withRoom.nextSetBit(i + 1);
+        }
+        return i;
+    }
+
+    /**
+     * @return the free space the map records for the page
+     */
+    public synchronized int getFreeSpace(int pageNo) {
+        return pageNo < freeSpace.length ? freeSpace[pageNo] : emptyPageSpace;
+    }
+
+    /**
+     * Records the free space of a page which has been modified in the buffer
+     * pool. The map file is not changed.
+     */
+    public synchronized void update(int pageNo, int space) {
+        set(pageNo, space);
+    }
+
+    /**
+     * Records the free space of a page which has been written to the table,
+     * and writes its entry to the map file.
+     */
+    public synchronized void pageWritten(int pageNo, int space) throws IOException {
+        set(pageNo, space);
+        if (channel == null) {
+            // the first write creates the map file with all entries
+            writeAll(Math.max(pageNo + 1, hf.getDiskFileNumPages()));
+            return;
+        }
+        channel.write(ByteBuffer.wrap(new byte[] { (byte) freeSpace[pageNo] }), pageNo);
+    }
+
+    /**
+     * Forgets the pages from the specified page on, which have been removed
+     * from the end of the table.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        if (numPages < freeSpace.length) {
+            Arrays.fill(freeSpace, numPages, freeSpace.length, emptyPageSpace);
+        }
+        withRoom.clear(numPages, Math.max(numPages, withRoom.length()));
+        if (channel != null) {
+            channel.truncate(numPages);
+        }
+    }
+
+    private void writeAll(int numPages) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE);
+        }
+        byte[] bytes = new byte[numPages];
+        for (int i = 0; i < numPages; i++) {
+            bytes[i] = (byte) getFreeSpace(i);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) {
+            channel.write(buf, buf.position());
+        }
+        channel.truncate(numPages);
+    }
+}
@@ -53,17 +53,29 @@ public class HashEquiJoin extends Operator {
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
     public final static int MAP_SIZE = 20000;
 
+    /**
+     * The type both join fields are converted to when they are numeric fields
+     * of different types, so that equal numbers are equal keys; null if the
+     * fields are used as keys as they are.
+     */
+    transient private Type keyType = null;
+
+    private Field key(Field f) {
+        return keyType == null ? f : keyType.convert(f);
+    }
+
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
         while (child1.hasNext()) {
             t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
+            Field key = key(t1.getField(pred.getField1()));
+            ArrayList<Tuple> list = map.get(key);
             if (list == null) {
                 list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+                map.put(key, list);
             }
-            list.add(t1);
+            list.add(t1.keep());
             if (cnt++ == MAP_SIZE)
                 return true;
         }
@@ -74,9 +86,19 @@ public class HashEquiJoin extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        Type type1 = child1.getTupleDesc().getFieldType(pred.getField1());
+        Type type2 = child2.getTupleDesc().getFieldType(pred.getField2());
+        if (type1 == type2 || !type1.isNumeric() || !type2.isNumeric()) {
+            keyType = null;
+        } else if (type1 == Type.DOUBLE_TYPE || type2 == Type.DOUBLE_TYPE) {
+            keyType = Type.DOUBLE_TYPE;
+        } else {
+            keyType = Type.LONG_TYPE;
+        }
         child1.open();
         child2.open();
         loadMap();
+        super.open();
     }
 
     public void close() {
@@ -117,16 +139,8 @@ public class HashEquiJoin extends Operator {
     private Tuple processList() throws TransactionAbortedException, DbException {
         t1 = listIt.next();
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        // copy the bytes of both tuples into the combined tuple
+        return Tuple.merge(comboTD, t1, t2);
 
     }
 
@@ -142,7 +156,7 @@ public class HashEquiJoin extends Operator {
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
+            ArrayList<Tuple> l = map.get(key(t2.getField(pred.getField2())));
             if (l == null)
                 continue;
             listIt = l.iterator();
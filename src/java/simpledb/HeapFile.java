@@ -1,12 +1,16 @@
 package simpledb;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -14,6 +18,18 @@ import java.util.NoSuchElementException;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Pages are {@link BufferPool#PAGE_SIZE} bytes unless the file starts with a
+ * header giving another page size: the long {@link #MAGIC} followed by the
+ * page size as an int and an int of flags, padded with zeros to the page size
+ * so that the pages after it stay aligned. Files of the default page size
+ * without checksums have no header.
+ * <p>
+ * If the flags of the header say so, the last {@link #CHECKSUM_SIZE} bytes of
+ * each page hold a CRC-32C of the bytes before them, written by
+ * {@link #writePage} and checked by {@link #readPage}, so that a page torn by
+ * a crash or corrupted on disk is detected instead of read as tuples. The
+ * pages of the file then hold {@link #getPageDataSize} bytes of contents.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -21,17 +37,51 @@ import java.util.NoSuchElementException;
 public class HeapFile implements DbFile {
 
     private static final long serialVersionUID = 1L;
+
+    /** Marks a file which starts with a header giving its page size. */
+    public static final long MAGIC = 0x53696d706c654442L;
+    /** Smallest and largest page sizes a file may have. */
+    public static final int MIN_PAGE_SIZE = 1024, MAX_PAGE_SIZE = 65536;
+    /** Number of bytes of the checksum ending each page of a file with checksums. */
+    public static final int CHECKSUM_SIZE = 4;
+    /** Flag of the header of a file whose pages end with checksums. */
+    private static final int CHECKSUMS_FLAG = 1;
     
     private TupleDesc td;
     private File file;
+    /** Bytes per page of this file. */
+    private final int pageSize;
+    /** Bytes before the first page: 0, or pageSize if there is a header. */
+    private final int headerSize;
+    /** Whether the pages of this file end with checksums. */
+    private final boolean checksums;
     // In order to support NO-STEAL policy, we need a variable to record
     // current number of pages of the HeapFile.
     // When a new page is added to the HeapFile, the actual number of pages
     // on the disk and the true number of pages are different.
     private int numPages;
+    /**
+     * Channel used for all reads and writes of the file, opened on first use.
+     * Reads and writes are positional, so threads do not share a file pointer
+     * and do not serialize on the channel.
+     */
+    private transient volatile FileChannel channel;
+    /** Free space of each page, loaded by the first insert or write. */
+    private transient volatile FreeSpaceMap freeSpaceMap;
+    /** Bounds of the int fields of each page, loaded by the first insert or scan. */
+    private transient volatile ZoneMap zoneMap;
+
+    /**
+     * Per-thread buffer pages are read into before they are decoded,
+     * replaced when a page of another size is read.
+     */
+    private static final ThreadLocal<ByteBuffer> readBuffer = new ThreadLocal<ByteBuffer>();
+    /** Per-thread buffer pages are checksummed into before they are written. */
+    private static final ThreadLocal<ByteBuffer> writeBuffer = new ThreadLocal<ByteBuffer>();
     
     /**
-     * Constructs a heap file backed by the specified file.
+     * Constructs a heap file backed by the specified file, whose page size is
+     * given by the header of the file.
      * 
      * @param f
      *            the file that stores the on-disk backing store for this heap
@@ -40,7 +90,210 @@ public class HeapFile implements DbFile {
     public HeapFile(File f, TupleDesc td) {
         this.file = f;
         this.td = td;
-        this.numPages = (int) (file.length() / BufferPool.PAGE_SIZE);
+        ByteBuffer header = readHeader(f);
+        this.pageSize = header == null ? BufferPool.PAGE_SIZE : header.getInt();
+        this.checksums = header != null && (header.getInt() & CHECKSUMS_FLAG) != 0;
+        this.headerSize = header == null ? 0 : pageSize;
+        this.numPages = getDiskFileNumPages();
+    }
+
+    /**
+     * Constructs a heap file with the specified page size backed by the
+     * specified file. If the file is empty, the header giving the page size
+     * is written to it.
+     *
+     * @param pageSize
+     *            the number of bytes per page, a power of two between
+     *            {@link #MIN_PAGE_SIZE} and {@link #MAX_PAGE_SIZE}
+     * @throws IllegalArgumentException
+     *             if the page size is invalid, or the file is not empty and
+     *             has another page size or has checksums
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        this(f, td, pageSize, false);
+    }
+
+    /**
+     * Constructs a heap file with the specified page size backed by the
+     * specified file, whose pages end with checksums if so specified. If the
+     * file is empty, the header giving the page size and whether pages have
+     * checksums is written to it.
+     *
+     * @param checksums
+     *            whether the pages of the file end with checksums
+     * @throws IllegalArgumentException
+     *             if the page size is invalid, or the file is not empty and
+     *             has another page size or checksums setting
+     * @see #HeapFile(File, TupleDesc, int)
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize, boolean checksums) {
+        checkPageSize(pageSize);
+        if (f.length() == 0 && (pageSize != BufferPool.PAGE_SIZE || checksums)) {
+            try {
+                RandomAccessFile raf = new RandomAccessFile(f, "rw");
+                raf.write(createHeader(pageSize, checksums));
+                raf.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+        this.file = f;
+        this.td = td;
+        ByteBuffer header = readHeader(f);
+        this.pageSize = header == null ? BufferPool.PAGE_SIZE : header.getInt();
+        this.checksums = header != null && (header.getInt() & CHECKSUMS_FLAG) != 0;
+        if (this.pageSize != pageSize) {
+            throw new IllegalArgumentException("The file has pages of "
+                    + this.pageSize + " bytes.");
+        }
+        if (this.checksums != checksums) {
+            throw new IllegalArgumentException(checksums ? "The file has no checksums."
+                    : "The file has checksums.");
+        }
+        this.headerSize = header == null ? 0 : pageSize;
+        this.numPages = getDiskFileNumPages();
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if files cannot have pages of the specified size
+     */
+    static void checkPageSize(int pageSize) {
+        if (!isValidPageSize(pageSize)) {
+            throw new IllegalArgumentException("Invalid page size " + pageSize);
+        }
+    }
+
+    private static boolean isValidPageSize(int pageSize) {
+        return pageSize >= MIN_PAGE_SIZE && pageSize <= MAX_PAGE_SIZE
+                && Integer.bitCount(pageSize) == 1;
+    }
+
+    /**
+     * Returns the header starting a file with the specified page size and
+     * checksums setting, or an empty array for the default page size without
+     * checksums.
+     */
+    static byte[] createHeader(int pageSize, boolean checksums) {
+        checkPageSize(pageSize);
+        if (pageSize == BufferPool.PAGE_SIZE && !checksums) {
+            return new byte[0];
+        }
+        ByteBuffer header = ByteBuffer.allocate(pageSize);
+        header.putLong(MAGIC).putInt(pageSize).putInt(checksums ? CHECKSUMS_FLAG : 0);
+        return header.array();
+    }
+
+    /**
+     * @return the page size and the flags given by the header of the
+     *         specified file, or null if it has none
+     */
+    private static ByteBuffer readHeader(File f) {
+        if (f.length() < 16) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                // a page of a file without header is very unlikely to start
+                // with the magic number and a valid page size
+                if (raf.readLong() != MAGIC) {
+                    return null;
+                }
+                ByteBuffer header = ByteBuffer.allocate(8);
+                raf.readFully(header.array());
+                return isValidPageSize(header.getInt(0)) ? header : null;
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        // should never reach here.
+        return null;
+    }
+
+    /**
+     * Returns the page size of the specified table: that of its file if it is
+     * a HeapFile, and the default page size otherwise.
+     */
+    static int getPageSize(int tableId) {
+        DbFile f = Database.getCatalog().getDbFile(tableId);
+        return f instanceof HeapFile ? ((HeapFile) f).getPageSize() : BufferPool.PAGE_SIZE;
+    }
+
+    /**
+     * Returns the number of bytes of the contents of each page of the
+     * specified table: that of its file if it is a HeapFile, and the default
+     * page size otherwise.
+     */
+    static int getPageDataSize(int tableId) {
+        DbFile f = Database.getCatalog().getDbFile(tableId);
+        return f instanceof HeapFile ? ((HeapFile) f).getPageDataSize() : BufferPool.PAGE_SIZE;
+    }
+
+    /**
+     * @return the number of bytes per page of this file
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return whether the pages of this file end with checksums
+     */
+    public boolean hasChecksums() {
+        return checksums;
+    }
+
+    /**
+     * @return the number of bytes of the contents of each page, which is the
+     *         page size less the checksum, if the file has checksums
+     */
+    public int getPageDataSize() {
+        return checksums ? pageSize - CHECKSUM_SIZE : pageSize;
+    }
+
+    /**
+     * @return the CRC-32C of the bytes between the position and the limit of
+     *         the specified buffer, whose position is moved to its limit
+     */
+    static int checksum(ByteBuffer data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Checks the checksum of a page of this file, if it has checksums.
+     *
+     * @param page
+     *            the bytes of the page, between the position and the limit
+     *            of the buffer, which are not modified
+     * @throws ChecksumException
+     *             if the checksum does not match the contents of the page
+     */
+    void verifyChecksum(PageId pid, ByteBuffer page) {
+        if (!checksums) {
+            return;
+        }
+        ByteBuffer data = page.duplicate();
+        int end = data.position() + getPageDataSize();
+        int stored = data.getInt(end);
+        data.limit(end);
+        if (checksum(data) != stored) {
+            throw new ChecksumException("The checksum of page " + pid.pageNumber()
+                    + " of " + file + " does not match its contents.");
+        }
+    }
+
+    /**
+     * @return the position of the specified page in the file
+     */
+    long getPageOffset(int pageNo) {
+        return headerSize + pageNo * (long) pageSize;
     }
 
     /**
@@ -74,18 +327,148 @@ public class HeapFile implements DbFile {
         return td;
     }
 
-    // see DbFile.java for javadocs
+    /**
+     * Returns the channel of the file, opening it if this is the first access
+     * or if it has been closed.
+     */
+    FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Returns the free-space map of the file, loading it if this is the
+     * first access.
+     */
+    FreeSpaceMap getFreeSpaceMap() throws IOException {
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm == null) {
+            synchronized (this) {
+                fsm = freeSpaceMap;
+                if (fsm == null) {
+                    fsm = new FreeSpaceMap(this);
+                    freeSpaceMap = fsm;
+                }
+            }
+        }
+        return fsm;
+    }
+
+    /**
+     * Returns the zone map of the file, loading it if this is the first
+     * access.
+     */
+    ZoneMap getZoneMap() throws IOException {
+        ZoneMap zm = zoneMap;
+        if (zm == null) {
+            synchronized (this) {
+                zm = zoneMap;
+                if (zm == null) {
+                    zm = new ZoneMap(this);
+                    zoneMap = zm;
+                }
+            }
+        }
+        return zm;
+    }
+
+    /**
+     * Records the free space of a page of this file which has been modified
+     * or restored in the buffer pool, if the free-space map has been loaded.
+     */
+    void updateFreeSpace(Page page) {
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm != null && page instanceof TuplePage) {
+            fsm.update(page.getId().pageNumber(), ((TuplePage) page).getFreeSpace());
+        }
+    }
+
+    /**
+     * Records the free space of a page of this file which was modified in the
+     * buffer pool while an older image of it was being written, and widens
+     * its zone map bounds to cover it, since writing the image set the maps
+     * from the image. The bounds are only widened, because the page may
+     * still be changing.
+     */
+    void pageChanged(Page page) {
+        updateFreeSpace(page);
+        ZoneMap zm = zoneMap;
+        if (zm != null && page instanceof TuplePage) {
+            zm.pageChanged((TuplePage) page);
+        }
+    }
+
+    /**
+     * Creates a page of this file from its bytes. Subclasses storing pages in
+     * another format override this together with the free space methods
+     * below.
+     */
+    TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data, getPageDataSize());
+    }
+
+    /**
+     * Creates a page of this file from the bytes between the position and
+     * the limit of the specified buffer, which is not modified.
+     */
+    TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * @return the number of bytes at the start of a page from which
+     *         {@link #getFreeSpace(byte[])} computes its free space
+     */
+    int getFreeSpaceHeaderSize() {
+        return HeapPage.getHeaderSize(HeapPage.getNumTuples(td, getPageDataSize()));
+    }
+
+    /**
+     * Computes the free space of a page, as returned by
+     * {@link TuplePage#getFreeSpace}, from the start of its bytes.
+     */
+    int getFreeSpace(byte[] header) {
+        int slots = HeapPage.getNumEmptySlots(header, 0,
+                HeapPage.getNumTuples(td, getPageDataSize()));
+        return Math.min(slots, FreeSpaceMap.MAX_FREE_SPACE);
+    }
+
+    /**
+     * @return the free space a page needs to be sure to hold the specified
+     *         tuple
+     */
+    int getFreeSpaceNeeded(Tuple t) {
+        return 1;
+    }
+
+    /**
+     * Reads the specified page from the file.
+     *
+     * @throws ChecksumException
+     *             if the file has checksums and that of the page does not
+     *             match its contents
+     * @see DbFile#readPage
+     */
     public Page readPage(PageId pid) {
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-            long pos = pid.pageNumber() * (long) BufferPool.PAGE_SIZE;
-            if (pos < 0 || pos >= file.length()) {
-                throw new IllegalArgumentException("The page doesn't exist in this file.");
+        try {
+            ByteBuffer buf = readBuffer.get();
+            if (buf == null || buf.capacity() != pageSize) {
+                buf = ByteBuffer.allocate(pageSize);
+                readBuffer.set(buf);
             }
-            
-            raf.seek(pos);
-            byte[] buf = new byte[BufferPool.PAGE_SIZE];
-            raf.read(buf);
-            return new HeapPage((HeapPageId) pid, buf);
+            buf.clear();
+            readPageBytes(pid, buf);
+            return createPage((HeapPageId) pid, buf.array());
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
@@ -94,16 +477,137 @@ public class HeapFile implements DbFile {
         return null;
     }
 
+    /**
+     * Reads the bytes of the specified page, as they are on disk, into the
+     * specified buffer, which is flipped so that they lie between its position
+     * and its limit.
+     *
+     * @param buf a buffer with {@link #getPageSize} bytes remaining from
+     *            position 0
+     * @throws ChecksumException
+     *             if the file has checksums and that of the page does not
+     *             match its contents
+     */
+    void readPageBytes(PageId pid, ByteBuffer buf) throws IOException {
+        if (pid.pageNumber() < 0) {
+            throw new IllegalArgumentException("The page doesn't exist in this file.");
+        }
+        long pos = getPageOffset(pid.pageNumber());
+        FileChannel ch = getChannel();
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + buf.position());
+            if (n < 0) {
+                break;
+            }
+        }
+        if (buf.position() == 0) {
+            throw new IllegalArgumentException("The page doesn't exist in this file.");
+        }
+        // a short last page is padded with zeros
+        while (buf.hasRemaining()) {
+            buf.put((byte) 0);
+        }
+        buf.flip();
+        verifyChecksum(pid, buf);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        RandomAccessFile raf = new RandomAccessFile(file, "rw");
-        
         PageId pid = page.getId();
-        long pos = pid.pageNumber() * (long) BufferPool.PAGE_SIZE;
+        long pos = getPageOffset(pid.pageNumber());
+        // load the map before the file changes, so it is not rebuilt
+        FreeSpaceMap fsm = getFreeSpaceMap();
         // if pos is beyond the end of file => new pages need to be appended to the file
-        raf.seek(pos);
-        raf.write(page.getPageData());
-        raf.close();
+        FileChannel ch = getChannel();
+        ByteBuffer buf = null;
+        if (checksums) {
+            buf = writeBuffer.get();
+            if (buf == null || buf.capacity() != pageSize) {
+                buf = ByteBuffer.allocate(pageSize);
+                writeBuffer.set(buf);
+            }
+        }
+        buf = toDiskPage(page, buf);
+        while (buf.hasRemaining()) {
+            ch.write(buf, pos + buf.position());
+        }
+        pageWritten(fsm, page);
+    }
+
+    /**
+     * Writes the specified pages of this file, which must be sorted by page
+     * number, and forces the file to disk. Each run of consecutive pages is
+     * written by a single gathering write, so that flushing many neighbouring
+     * pages takes one system call per run rather than one per page, and one
+     * fsync in all.
+     *
+     * @param pages the pages to write, sorted by page number
+     * @see BufferPool#flushPages
+     */
+    public void writePages(List<? extends Page> pages) throws IOException {
+        // load the map before the file changes, so it is not rebuilt
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        FileChannel ch = getChannel();
+        int start = 0;
+        while (start < pages.size()) {
+            int end = start + 1;
+            while (end < pages.size() && pages.get(end).getId().pageNumber()
+                    == pages.get(end - 1).getId().pageNumber() + 1) {
+                end++;
+            }
+            ByteBuffer[] bufs = new ByteBuffer[end - start];
+            for (int i = start; i < end; i++) {
+                bufs[i - start] = toDiskPage(pages.get(i),
+                        checksums ? ByteBuffer.allocate(pageSize) : null);
+            }
+            // gathering writes go to the position of the channel, which the
+            // positional reads and writes used elsewhere neither use nor move
+            synchronized (ch) {
+                ch.position(getPageOffset(pages.get(start).getId().pageNumber()));
+                while (bufs[bufs.length - 1].hasRemaining()) {
+                    ch.write(bufs);
+                }
+            }
+            start = end;
+        }
+        ch.force(false);
+        for (Page page : pages) {
+            pageWritten(fsm, page);
+        }
+    }
+
+    /**
+     * Returns the bytes the specified page takes on disk: its data, followed
+     * by their checksum if this file has checksums.
+     *
+     * @param buf a buffer of {@link #getPageSize} bytes to build the page in
+     *            if this file has checksums, or null if it has none
+     */
+    private ByteBuffer toDiskPage(Page page, ByteBuffer buf) {
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        if (!checksums) {
+            return data;
+        }
+        buf.clear();
+        buf.put(data).putInt(checksum(buf.duplicate().flip()));
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Updates the free-space map and the zone map after the specified page
+     * was written.
+     */
+    private void pageWritten(FreeSpaceMap fsm, Page page) throws IOException {
+        if (page instanceof TuplePage) {
+            fsm.pageWritten(page.getId().pageNumber(), ((TuplePage) page).getFreeSpace());
+            // if the zone map is not loaded, the map file is now older than
+            // the table and is rebuilt when it is
+            ZoneMap zm = zoneMap;
+            if (zm != null) {
+                zm.pageWritten((TuplePage) page);
+            }
+        }
     }
 
     /**
@@ -129,14 +633,40 @@ public class HeapFile implements DbFile {
      * transactions which add new pages do not have actual effects on the heapfile.
      */
     public synchronized void resetNumPages() {
-        numPages = (int) (file.length() / BufferPool.PAGE_SIZE);
+        numPages = getDiskFileNumPages();
+    }
+
+    /**
+     * Removes the pages from the specified page on from the end of the file,
+     * and from the buffer pool. The caller must hold write locks on these
+     * pages, which must be empty, and on the page after the last one, so
+     * that no transaction is using them or appending a page meanwhile.
+     *
+     * @param newNumPages
+     *            the number of pages left
+     * @see Compactor
+     */
+    synchronized void truncate(int newNumPages) throws IOException {
+        for (int i = newNumPages; i <= numPages; i++) {
+            Database.getBufferPool().discardPage(new HeapPageId(getId(), i));
+        }
+        getChannel().truncate(getPageOffset(newNumPages));
+        numPages = newNumPages;
+        FreeSpaceMap fsm = freeSpaceMap;
+        if (fsm != null) {
+            fsm.truncate(newNumPages);
+        }
+        ZoneMap zm = zoneMap;
+        if (zm != null) {
+            zm.truncate(newNumPages);
+        }
     }
 
     /**
      * @return the actual number of pages of the heapfile on disk 
      */
     public int getDiskFileNumPages() {
-        return (int) (file.length() / BufferPool.PAGE_SIZE);
+        return (int) (Math.max(file.length() - headerSize, 0) / pageSize);
     }
     
     // see DbFile.java for javadocs
@@ -144,26 +674,54 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         
         ArrayList<Page> pages = new ArrayList<Page>();
+        FreeSpaceMap fsm = getFreeSpaceMap();
+        // the zone map must know of the tuples on pages not written yet
+        ZoneMap zm = getZoneMap();
         
-        for (int i = 0; ; i++) {
+        // only visit the pages the free-space map says have room, and
+        // append a new page if there are none
+        int needed = getFreeSpaceNeeded(t);
+        for (int i = fsm.nextPageWithRoom(0, needed); ; i = fsm.nextPageWithRoom(i + 1, needed)) {
+            boolean newPage = i < 0 || i >= numPages();
+            if (newPage) {
+                i = numPages();
+            }
             HeapPageId pid = new HeapPageId(getId(), i);
             // acquire READ_ONLY lock first
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+            boolean held = Database.getBufferPool().holdsLock(tid, pid);
+            TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid,
                     pid, Permissions.READ_ONLY);
-            if (page.getNumEmptySlots() == 0) {
-                Database.getBufferPool().releasePage(tid, pid);
+            if (i > numPages()) {
+                // the file was truncated while the lock was awaited
+                if (!held) {
+                    Database.getBufferPool().releasePage(tid, pid);
+                }
                 continue;
             }
-            
-            synchronized (Database.getBufferPool()) {
-                page = (HeapPage) Database.getBufferPool().getPage(tid,
-                        pid, Permissions.READ_WRITE);
-                // Must first inform buffer pool that the page will be modified to avoid being evicted
-                Database.getBufferPool().markDirty(pid);
+            if (!page.hasRoomFor(t)) {
+                if (newPage && page.isDirty() == null) {
+                    throw new DbException("the tuple does not fit on an empty page.");
+                }
+                fsm.update(i, page.getFreeSpace());
+                // only give up a lock taken just now; the transaction may
+                // have filled the page itself, and must keep its lock on it
+                if (!held) {
+                    Database.getBufferPool().releasePage(tid, pid);
+                }
+                continue;
             }
             
-            page.markDirty(true, tid);
+            page = (TuplePage) Database.getBufferPool().getPage(tid, pid,
+                    Permissions.READ_WRITE);
+            // Must first inform buffer pool that the page will be modified to
+            // avoid being evicted; refetch it if it was evicted in between
+            while (!Database.getBufferPool().markDirty(page, tid)) {
+                page = (TuplePage) Database.getBufferPool().getPage(tid, pid,
+                        Permissions.READ_WRITE);
+            }
             page.insertTuple(t);
+            updateFreeSpace(page);
+            zm.tupleInserted(i, t);
             pages.add(page);
             
             if (i == numPages()) {
@@ -183,16 +741,16 @@ public class HeapFile implements DbFile {
             throw new DbException("The tuple is not a member of the file");
         }
         
-        HeapPage page;
-        // ensure that between getPage() and markDirty(), 
-        // the page will not be evicted
-        synchronized (Database.getBufferPool()) {
-            page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
-            // Must first inform buffer pool that the page will be modified to avoid being evicted
-            Database.getBufferPool().markDirty(pid);Database.getBufferPool().markDirty(pid);
-        }
-        page.markDirty(true, tid);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_WRITE);
+        // Must first inform buffer pool that the page will be modified to
+        // avoid being evicted; refetch it if it was evicted in between
+        while (!Database.getBufferPool().markDirty(page, tid)) {
+            page = (TuplePage) Database.getBufferPool().getPage(tid, pid,
+                    Permissions.READ_WRITE);
+        }
         page.deleteTuple(t);
+        updateFreeSpace(page);
         return page;
     }
 
@@ -203,32 +761,126 @@ public class HeapFile implements DbFile {
         private int curPage = 0;
         private Iterator<Tuple> curItr = null;
         private TransactionId tid;
+        /** The predicate the tuples returned satisfy, or null. */
+        private final Predicate predicate;
+        private ZoneMap zm = null;
         private boolean open = false;;
+        /** The ring the pages are read through if this file is large. */
+        private BufferPool.ScanRing ring = null;
+        /** Pages before this page number have been read ahead or read. */
+        private int readAheadEnd = 0;
         
-        public HeapFileIterator(TransactionId tid) {
+        public HeapFileIterator(TransactionId tid, Predicate predicate) {
             this.tid = tid;
+            this.predicate = predicate;
         }
         
         @Override
         public void open() throws DbException, TransactionAbortedException {
             open = true;
-            curPage = 0;
+            if (predicate != null) {
+                try {
+                    zm = getZoneMap();
+                } catch (IOException e) {
+                    throw new DbException("could not load the zone map: " + e);
+                }
+            }
+            curPage = nextPage(0);
             if (curPage >= numPages()) {
                 return;
             }
-            curItr = ((HeapPage) Database.getBufferPool().getPage(tid,
-                    new HeapPageId(getId(), curPage), Permissions.READ_ONLY))
-                    .iterator();
+            // the pool holds fewer pages of a file with larger pages
+            ring = Database.getBufferPool().getScanRing((int) Math.min(Integer.MAX_VALUE,
+                    (long) numPages() * pageSize / BufferPool.PAGE_SIZE));
+            readAheadEnd = curPage + 1;
+            readAhead();
+            curItr = pageIterator();
             advance();
         }
 
+        /**
+         * @return the first page at or after the specified page which may
+         *         hold tuples satisfying the predicate. The pages skipped are
+         *         locked before the zone map is checked, so that a change to
+         *         them is either seen by the map or waits for the scan.
+         */
+        private int nextPage(int pageNo) throws TransactionAbortedException {
+            if (zm != null) {
+                int n = numPages();
+                for (; pageNo < n; pageNo++) {
+                    Database.getBufferPool().lockPage(tid, new HeapPageId(getId(), pageNo),
+                            Permissions.READ_ONLY);
+                    if (zm.mayMatch(pageNo, predicate)) {
+                        break;
+                    }
+                }
+            }
+            return pageNo;
+        }
+
+        /**
+         * @return an iterator over the tuples of curPage satisfying the
+         *         predicate
+         */
+        private Iterator<Tuple> pageIterator() throws TransactionAbortedException, DbException {
+            final Iterator<Tuple> it = ((TuplePage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), curPage), Permissions.READ_ONLY, ring)).iterator();
+            if (predicate == null) {
+                return it;
+            }
+            return new Iterator<Tuple>() {
+                private Tuple next = null;
+
+                @Override
+                public boolean hasNext() {
+                    while (next == null && it.hasNext()) {
+                        Tuple t = it.next();
+                        if (predicate.filter(t)) {
+                            next = t;
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public Tuple next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException("no more tuples.");
+                    }
+                    Tuple t = next;
+                    next = null;
+                    return t;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        /**
+         * Asks the buffer pool to read the pages following curPage in the
+         * background, up to the read-ahead window, so that they are in the
+         * pool by the time the scan gets to them.
+         */
+        private void readAhead() {
+            BufferPool pool = Database.getBufferPool();
+            int end = Math.min(numPages(), curPage + 1 + pool.getReadAheadPages(ring));
+            for (; readAheadEnd < end; readAheadEnd++) {
+                if (zm == null || zm.mayMatch(readAheadEnd, predicate)) {
+                    pool.prefetchPage(new HeapPageId(getId(), readAheadEnd), ring);
+                }
+            }
+        }
+
         private void advance() throws TransactionAbortedException, DbException {
             while (!curItr.hasNext()) {
-                curPage++;
+                curPage = nextPage(curPage + 1);
                 if (curPage < numPages()) {
-                    curItr = ((HeapPage) Database.getBufferPool().getPage(tid,
-                            new HeapPageId(getId(), curPage),
-                            Permissions.READ_ONLY)).iterator();
+                    readAheadEnd = Math.max(readAheadEnd, curPage + 1);
+                    readAhead();
+                    curItr = pageIterator();
                 } else {
                     break;
                 }
@@ -271,6 +923,9 @@ public class HeapFile implements DbFile {
         public void close() {
             curItr = null;
             curPage = 0;
+            ring = null;
+            readAheadEnd = 0;
+            zm = null;
             open = false;
         }
 
@@ -278,7 +933,21 @@ public class HeapFile implements DbFile {
     
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the file which satisfy the
+     * specified predicate. Pages which the zone map of the file shows hold no
+     * such tuple are skipped without being read, but are still locked, so
+     * the scan is isolated from changes to them as a full scan is.
+     *
+     * @param predicate
+     *            a predicate on a field of the table
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate predicate) {
+        return new HeapFileIterator(tid, predicate);
     }
 
 }
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -76,13 +78,15 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile. The file is parsed in parallel and written by a BulkLoader.
     *
     * @see HeapPage
     * @see HeapFile
+    * @see BulkLoader
     * @param inFile The input file to read data from
     * @param outFile The output file to write data to
-    * @param npagebytes The number of bytes per page in the output file
+    * @param npagebytes The number of bytes per page in the output file, a
+    *   page size accepted by {@link HeapFile#HeapFile(File, TupleDesc, int)}
     * @param numFields the number of fields in each input line/output tuple
     * @throws IOException if the input/output file can't be opened or a
     *   malformed input line is encountered
@@ -90,137 +94,209 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, false);
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
+  /** Convert the specified input text file, in the same format as for
+   * {@link #convert(File, File, int, int, Type[], char)}, into a HeapFile
+   * whose pages end with checksums if so specified.
+   *
+   * @see HeapFile#hasChecksums
+   * @param checksums whether the pages of the output file end with checksums
+   */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, boolean checksums)
+      throws IOException {
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      new BulkLoader(td, fieldSeparator, npagebytes, checksums,
+              ForkJoinPool.commonPool()).convert(inFile, outFile);
+  }
 
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
+  /** Convert the specified input text file, in the same format as for
+   * {@link #convert(File, File, int, int, Type[], char)}, into a file of
+   * SlottedPages, which store strings with their actual length.
+   *
+   * @see SlottedPage
+   * @see SlottedHeapFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param typeAr the types of the fields of each input line/output tuple
+   * @param fieldSeparator the character separating the fields of a line
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertSlotted(File inFile, File outFile, Type[] typeAr,
+                 char fieldSeparator) throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      HeapPageId pid = new HeapPageId(0, 0);
+      SlottedPage page = new SlottedPage(pid, td, HeapPage.createEmptyPageData(),
+              BufferPool.PAGE_SIZE);
+      int npages = 0;
 
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      try {
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty()) {
+                  continue;
+              }
+              Tuple t = parseLine(line, td, fieldSeparator);
+              if (!page.hasRoomFor(t)) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = new SlottedPage(pid, td, HeapPage.createEmptyPageData(),
+                          BufferPool.PAGE_SIZE);
+              }
+              try {
+                  page.insertTuple(t);
+              } catch (DbException e) {
+                  throw new IOException("tuple does not fit on a page: " + line);
+              }
+          }
+          // write the last page, or an empty page if the file is empty
+          if (page.getNumSlots() > 0 || npages == 0) {
+              os.write(page.getPageData());
+          }
+      } finally {
+          br.close();
+          os.close();
+      }
+  }
+  /** Parses a line of an input text file into a tuple. Missing fields are
+   * empty, and int fields which cannot be parsed are 0.
+   */
+  private static Tuple parseLine(String line, TupleDesc td, char fieldSeparator) {
+      String[] values = line.split(java.util.regex.Pattern.quote(
+              String.valueOf(fieldSeparator)), -1);
+      Tuple t = new Tuple(td);
+      for (int i = 0; i < td.numFields(); i++) {
+          String s = i < values.length ? values[i].trim() : "";
+          if (td.getFieldType(i) == Type.INT_TYPE) {
+              int v = 0;
+              try {
+                  v = Integer.parseInt(s);
+              } catch (NumberFormatException e) {
+                  System.out.println ("BAD LINE : " + s);
+              }
+              t.setField(i, new IntField(v));
+          } else {
+              t.setField(i, new StringField(s, Type.STRING_LEN));
+          }
+      }
+      return t;
+  }
 
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
+  /** Convert the specified input text file, in the same format as for
+   * {@link #convert(File, File, int, int, Type[], char)}, into a ColumnFile,
+   * which stores the table column by column.
+   *
+   * @see ColumnFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param typeAr the types of the fields of each input line/output tuple
+   * @param fieldSeparator the character separating the fields of a line
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertColumnar(File inFile, File outFile, Type[] typeAr,
+                 char fieldSeparator) throws IOException {
+      convertColumnar(inFile, outFile, typeAr, fieldSeparator, false);
+  }
 
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+  /** Convert the specified input text file into a ColumnFile, optionally
+   * compressing its int columns.
+   *
+   * @see CompressedColumnPage
+   * @param compress whether to compress the int columns of the file
+   */
+  public static void convertColumnar(File inFile, File outFile, Type[] typeAr,
+                 char fieldSeparator, boolean compress) throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      int rowsPerGroup = compress ? ColumnFile.getCompressedRowsPerGroup()
+              : ColumnFile.getRowsPerGroup();
+      // the chunks of the row group being filled, one per column; the int
+      // columns of a compressed file are kept as values until encoded
+      byte[][] chunks = new byte[typeAr.length][];
+      int[][] ints = new int[typeAr.length][];
+      for (int i = 0; i < typeAr.length; i++) {
+          if (compress && typeAr[i] == Type.INT_TYPE) {
+              ints[i] = new int[rowsPerGroup];
+          } else {
+              chunks[i] = new byte[ColumnFile.getChunkPages(typeAr[i], rowsPerGroup)
+                      * BufferPool.PAGE_SIZE];
+          }
+      }
+      ArrayList<Integer> directory = new ArrayList<Integer>();
+      int numRows = 0;
+      int numPages = 1;
 
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      RandomAccessFile os = new RandomAccessFile(outFile, "rw");
+      try {
+          os.setLength(0);
+          // the header is written once the number of rows is known
+          os.write(new byte[BufferPool.PAGE_SIZE]);
+          String line;
+          int row = 0;
+          while (true) {
+              line = br.readLine();
+              if (line != null && line.trim().isEmpty()) {
+                  continue;
+              }
+              if (line == null ? row > 0 : row == rowsPerGroup) {
+                  for (int i = 0; i < typeAr.length; i++) {
+                      directory.add(numPages);
+                      if (ints[i] != null) {
+                          for (byte[] page : CompressedColumnPage.encode(ints[i], row)) {
+                              os.write(page);
+                              numPages++;
+                          }
+                      } else {
+                          os.write(chunks[i]);
+                          numPages += chunks[i].length / BufferPool.PAGE_SIZE;
+                          Arrays.fill(chunks[i], (byte) 0);
+                      }
+                  }
+                  row = 0;
+              }
+              if (line == null) {
+                  break;
+              }
+              Tuple t = parseLine(line, td, fieldSeparator);
+              for (int i = 0; i < typeAr.length; i++) {
+                  if (ints[i] != null) {
+                      ints[i][row] = ((IntField) t.getField(i)).getValue();
+                      continue;
+                  }
+                  int perPage = ColumnPage.getNumValues(typeAr[i]);
+                  int pos = (row / perPage) * BufferPool.PAGE_SIZE + (row % perPage) * typeAr[i].getLen();
+                  ByteArrayOutputStream baos = new ByteArrayOutputStream(typeAr[i].getLen());
+                  t.getField(i).serialize(new DataOutputStream(baos));
+                  System.arraycopy(baos.toByteArray(), 0, chunks[i], pos, typeAr[i].getLen());
+              }
+              numRows++;
+              row++;
+          }
+          directory.add(numPages);
+          if (compress) {
+              for (int page : directory) {
+                  os.writeInt(page);
+              }
+          }
 
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+          os.seek(0);
+          os.writeInt(ColumnFile.MAGIC);
+          os.writeInt(BufferPool.PAGE_SIZE);
+          os.writeInt(rowsPerGroup);
+          os.writeInt(numRows);
+          os.writeInt(typeAr.length);
+          for (Type type : typeAr) {
+              os.writeInt(type.ordinal());
+          }
+          os.writeInt(compress ? ColumnFile.COMPRESSED : 0);
+          os.writeInt(compress ? numPages : 0);
+      } finally {
+          br.close();
+          os.close();
+      }
   }
 }
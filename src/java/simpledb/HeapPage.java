@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -11,14 +12,30 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
-    Tuple tuples[];
+    /**
+     * The bytes of the page, in the on-disk format: the header bitmap followed
+     * by the tuple slots. This is the only copy of the contents of the page;
+     * tuples are decoded from it on demand.
+     */
+    byte[] data;
+    int headerSize;
     int numSlots;
+    /**
+     * The contents of the page before the transaction which dirtied it made
+     * any change, or null if they are the current contents. Captured when
+     * the page is first marked dirty, so pages which are only read never
+     * copy their data.
+     */
     byte[] oldData;
+    /**
+     * Whether tuples referring to data have been handed out. Their slots must
+     * not be overwritten, so data is copied before the next insertion.
+     */
+    private boolean shared;
     
     private TransactionId lastDirtyTid;
     
@@ -27,49 +44,82 @@ public class HeapPage implements Page {
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the size of the contents of the pages of its
+     * HeapFile, which excludes their checksums.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The page keeps a private copy of the data, which callers may reuse.
+     * Tuples are not decoded until they are requested.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see HeapFile#getPageDataSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
-        this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        this.lastDirtyTid = null;
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this(id, data, HeapFile.getPageDataSize(id.getTableId()));
+    }
 
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+    /**
+     * Create a HeapPage of the specified size from a set of bytes of data.
+     */
+    HeapPage(HeapPageId id, byte[] data, int pageSize) throws IOException {
+        this(id, pageSize);
+        System.arraycopy(data, 0, this.data, 0, Math.min(data.length, pageSize));
+    }
 
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+    /**
+     * Create a HeapPage from the bytes between the position and the limit of
+     * the specified buffer, which is not modified. The bytes are copied out
+     * of the buffer in bulk into the page's own array, so a page can be built
+     * from a mapped file without an intermediate read buffer, though not
+     * without this one copy.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, HeapFile.getPageDataSize(id.getTableId()));
+        ByteBuffer src = data.duplicate();
+        src.get(this.data, 0, Math.min(src.remaining(), this.data.length));
+    }
 
-        setBeforeImage();
+    private HeapPage(HeapPageId id, int pageSize) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = getNumTuples(td, pageSize);
+        this.headerSize = getHeaderSize();
+        this.data = new byte[pageSize];
+        this.shared = false;
+        this.oldData = null;
+        this.lastDirtyTid = null;
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-        return (int) Math.floor((BufferPool.PAGE_SIZE * 8) / 
-                (td.getSize() * 8 + 1.0));
+        return numSlots;
+    }
+
+    /**
+     * @return the number of slots on a page of the default size of a HeapFile
+     *         with the specified TupleDesc
+     */
+    static int getNumTuples(TupleDesc td) {
+        return getNumTuples(td, BufferPool.PAGE_SIZE);
+    }
 
+    /**
+     * @return the number of slots on a page of the specified size of a
+     *         HeapFile with the specified TupleDesc
+     */
+    static int getNumTuples(TupleDesc td, int pageSize) {
+        return (int) Math.floor((pageSize * 8) / 
+                (td.getSize() * 8 + 1.0));
     }
 
     /**
@@ -77,14 +127,22 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {        
-        return (int) Math.ceil(getNumTuples() / 8.0);         
+        return getHeaderSize(getNumTuples());
+    }
+
+    /**
+     * @return the number of bytes in the header of a page with the specified
+     *         number of slots
+     */
+    static int getHeaderSize(int numSlots) {
+        return (int) Math.ceil(numSlots / 8.0);
     }
     
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            return new HeapPage(pid,oldData);
+            return new HeapPage(pid, oldData != null ? oldData : data, data.length);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -93,8 +151,12 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * The before image becomes the current contents of the page. No copy is
+     * made until the page is next marked dirty.
+     */
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = null;
     }
 
     /**
@@ -105,37 +167,19 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot. Its fields are decoded from
+     * the bytes of the page when they are first accessed.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    private Tuple getTuple(int slotId) {
+        shared = true;
+        return new Tuple(td, new RecordId(pid, slotId), data, slotOffset(slotId));
+    }
 
-        return t;
+    /**
+     * @return the offset in data of the specified slot
+     */
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
     }
 
     /**
@@ -150,64 +194,7 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data.clone();
     }
 
     /**
@@ -220,8 +207,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @return a byte array corresponding to an empty HeapPage of the
+     *         specified size
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -243,7 +237,6 @@ public class HeapPage implements Page {
             throw new DbException("tuple slot is already empty");
         }
         
-        tuples[tno] = null;
         markSlotUsed(tno, false);
     }
 
@@ -267,18 +260,29 @@ public class HeapPage implements Page {
         for (; es < numSlots && isSlotUsed(es); es++) {
         }
         
+        if (shared) {
+            // tuples handed out may refer to the slot being overwritten
+            data = data.clone();
+            shared = false;
+        }
+        t.copyTo(data, slotOffset(es));
+
         RecordId rid = new RecordId(pid, es);
         t.setRecordId(rid);
-        tuples[es] = t;
         markSlotUsed(es, true);
     }
 
     /**
      * Marks this page as dirty/not dirty and record that transaction
-     * that did the dirtying
+     * that did the dirtying. The first time the page is marked dirty since
+     * its before image was set, the before image is copied from the current
+     * contents, so the page must be marked dirty before it is modified.
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         if (dirty) {
+            if (oldData == null) {
+                oldData = data.clone();
+            }
             lastDirtyTid = tid;
         } else {
             lastDirtyTid = null;
@@ -296,21 +300,45 @@ public class HeapPage implements Page {
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        int count = 0;
-        int result = 0;
-        
-        for (int i = 0; i < header.length; i++) {
-            byte b = header[i];
-            for (int j = 0; j < 8; j++) {
-                int tmp = 1 << j;
-                result += ((tmp & b) == 0) ? 1 : 0;
-                if (++count == numSlots) {
-                    return result;
-                }
-            }
+        return getNumEmptySlots(data, 0, numSlots);
+    }
+
+    /**
+     * Counts the empty slots of a page from its header, without decoding
+     * the page.
+     *
+     * @param header
+     *            a buffer holding the header of the page
+     * @param offset
+     *            the offset of the header in the buffer
+     * @param numSlots
+     *            the number of slots of the page
+     */
+    static int getNumEmptySlots(byte[] header, int offset, int numSlots) {
+        int used = 0;
+        int fullBytes = numSlots / 8;
+        for (int i = 0; i < fullBytes; i++) {
+            used += Integer.bitCount(header[offset + i] & 0xff);
+        }
+        int rest = numSlots % 8;
+        if (rest != 0) {
+            used += Integer.bitCount(header[offset + fullBytes] & ((1 << rest) - 1));
         }
-        // should never reach here.
-        return result;
+        return numSlots - used;
+    }
+
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * @return the number of empty slots on this page, up to
+     *         {@link FreeSpaceMap#MAX_FREE_SPACE}
+     */
+    @Override
+    public int getFreeSpace() {
+        return Math.min(getNumEmptySlots(), FreeSpaceMap.MAX_FREE_SPACE);
     }
 
     /**
@@ -320,7 +348,7 @@ public class HeapPage implements Page {
         int loc = i / 8;
         int offset = i % 8;
         int tmp = 1 << offset;
-        return (header[loc] & tmp) != 0;
+        return (data[loc] & tmp) != 0;
     }
 
     /**
@@ -331,10 +359,10 @@ public class HeapPage implements Page {
         int offset = i % 8;
         if (value) {
             int tmp = 1 << offset;
-            header[loc] |= tmp;
+            data[loc] |= tmp;
         } else {
             int tmp = ~(1 << offset);
-            header[loc] &= tmp;
+            data[loc] &= tmp;
         }
     }
 
@@ -350,7 +378,7 @@ public class HeapPage implements Page {
         private void advance() {
             do {
                 cur++;
-            } while (cur < numSlots && tuples[cur] == null);
+            } while (cur < numSlots && !isSlotUsed(cur));
         }
         
         @Override
@@ -361,7 +389,7 @@ public class HeapPage implements Page {
         @Override
         public Tuple next() {
             if (hasNext()) {
-                Tuple result = tuples[cur];
+                Tuple result = getTuple(cur);
                 advance();
                 return result;
             } else {
@@ -378,6 +406,4 @@ public class HeapPage implements Page {
     public Iterator<Tuple> iterator() {
         return new InnerIterator();
     }
-
 }
-
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * HotPageSaver is the background thread of a {@link BufferPool} which
+ * periodically saves the IDs of its hot pages, so that a restart after a
+ * crash can warm the pool up from a recent list. It saves them a last time
+ * when it is stopped, which a clean shutdown does.
+ *
+ * @see BufferPool#startHotPageSaver
+ * @see BufferPool#warmUp
+ */
+class HotPageSaver extends PeriodicTask {
+
+    /** Default time between two saves. */
+    static final long DEFAULT_INTERVAL_MILLIS = 60 * 1000;
+
+    private final BufferPool pool;
+    private final File file;
+
+    /**
+     * @param pool the pool whose hot pages to save
+     * @param file the file to save them to
+     * @param intervalMillis the time between two saves
+     */
+    HotPageSaver(BufferPool pool, File file, long intervalMillis) {
+        super("simpledb-hot-page-saver", intervalMillis);
+        this.pool = pool;
+        this.file = file;
+    }
+
+    /**
+     * Stops the saver, waiting for the save in progress to finish, and saves
+     * the hot pages a last time.
+     */
+    @Override
+    void shutdown() {
+        super.shutdown();
+        runOnce();
+    }
+
+    @Override
+    void runOnce() {
+        try {
+            pool.saveHotPages(file);
+        } catch (IOException e) {
+            // the previous list is kept, and the next save replaces it
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            // likewise
+            e.printStackTrace();
+        }
+    }
+}
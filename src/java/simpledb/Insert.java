@@ -17,6 +17,11 @@ public class Insert extends Operator {
     private TransactionId tid;
     private TupleDesc td;
     private boolean called;
+    /**
+     * The TupleDesc of the table, if numeric fields of the child have other
+     * types and must be converted; null otherwise.
+     */
+    private TupleDesc convertTo;
     
     /**
      * Constructor.
@@ -29,7 +34,9 @@ public class Insert extends Operator {
      *            The table in which to insert tuples.
      * @throws DbException
      *             if TupleDesc of child differs from table into which we are to
-     *             insert.
+     *             insert, other than in the types of numeric fields, such as
+     *             the LONG_TYPE result of a COUNT inserted into an INT_TYPE
+     *             field.
      */
     public Insert(TransactionId t,DbIterator child, int tableid)
             throws DbException {
@@ -38,12 +45,41 @@ public class Insert extends Operator {
         this.tid = t;
         this.td = Utility.getTupleDesc(1);
         called = false;
-        if (!child.getTupleDesc().equals(
-                Database.getCatalog().getTupleDesc(tableid))) {
-            throw new DbException("TupleDesc mismatch");
+        TupleDesc childTd = child.getTupleDesc();
+        TupleDesc tableTd = Database.getCatalog().getTupleDesc(tableid);
+        if (!childTd.equals(tableTd)) {
+            if (childTd.numFields() != tableTd.numFields()) {
+                throw new DbException("TupleDesc mismatch");
+            }
+            for (int i = 0; i < tableTd.numFields(); i++) {
+                Type from = childTd.getFieldType(i);
+                Type to = tableTd.getFieldType(i);
+                if (from != to && !(from.isNumeric() && to.isNumeric())) {
+                    throw new DbException("TupleDesc mismatch");
+                }
+            }
+            convertTo = tableTd;
         }
     }
 
+    /**
+     * @return the specified tuple of the child with its fields converted to
+     *         the types of the table.
+     * @throws DbException
+     *             if a value does not fit in the type of its field.
+     */
+    private Tuple convert(Tuple t) throws DbException {
+        Tuple converted = new Tuple(convertTo);
+        for (int i = 0; i < convertTo.numFields(); i++) {
+            try {
+                converted.setField(i, convertTo.getFieldType(i).convert(t.getField(i)));
+            } catch (IllegalArgumentException e) {
+                throw new DbException(e.getMessage());
+            }
+        }
+        return converted;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -84,6 +120,9 @@ public class Insert extends Operator {
         BufferPool bp = Database.getBufferPool();
         while (child.hasNext()) {
             Tuple t = child.next();
+            if (convertTo != null) {
+                t = convert(t);
+            }
             try {
                 bp.insertTuple(tid, tableid, t);
                 count++;
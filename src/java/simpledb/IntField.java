@@ -44,11 +44,14 @@ public class IntField implements Field {
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
      *
-     * @throws IllegalCastException if val is not an IntField
+     * @throws IllegalCastException if val is not numeric
      * @see Field#compare
      */
     public boolean compare(Predicate.Op op, Field val) {
 
+        if (!(val instanceof IntField)) {
+            return Predicate.compareNumbers(this, op, val);
+        }
         IntField iVal = (IntField) val;
 
         switch (op) {
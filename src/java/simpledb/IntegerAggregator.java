@@ -1,11 +1,21 @@
 package simpledb;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * The aggregate of each group is kept as a long, together with the number of
+ * tuples of the group, and combined with the values of the tuples by an
+ * Accumulator chosen from the operator at construction. Groups with an INT
+ * group-by field are kept in an open-addressing table from the int keys to
+ * the aggregates, so merging a tuple allocates nothing; groups of other
+ * types are kept in a HashMap keyed by their Field. The results are of the
+ * type given by {@link Aggregator.Op#getResultType}: SUM and COUNT are
+ * LONG_TYPE, and AVG is a DOUBLE_TYPE computed from the exact sum.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -15,9 +25,16 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op op;
+    /** Combines the values of the tuples of a group, for op. */
+    private final Accumulator acc;
     
-    private int[] nogroup;
-    private HashMap<Field, int[]> group;
+    /** The aggregate of all tuples, and their number, if not grouping. */
+    private long nogroupValue;
+    private long nogroupCount;
+    /** The groups of an INT group-by field, or null. */
+    private IntGroupTable intGroups;
+    /** The aggregate and number of tuples of each group of another type, or null. */
+    private HashMap<Field, long[]> group;
     
     /**
      * Aggregate constructor
@@ -39,9 +56,15 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.op = what;
-        nogroup = null;
+        this.acc = Accumulator.valueOf(what.name());
+        nogroupValue = acc.initial();
+        nogroupCount = 0;
         if (this.gbfield != Aggregator.NO_GROUPING) {
-            group = new HashMap<Field, int[]>();
+            if (gbfieldtype == Type.INT_TYPE) {
+                intGroups = new IntGroupTable(acc.initial());
+            } else {
+                group = new HashMap<Field, long[]>();
+            }
         }
     }
 
@@ -53,71 +76,24 @@ public class IntegerAggregator implements Aggregator {
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        IntField v = (IntField) tup.getField(afield);
-            
-        if (op == Op.AVG) {
-            if (gbfield == Aggregator.NO_GROUPING) {
-                if (nogroup == null) {
-                    // (count, sum)
-                    nogroup = new int[] { 0, 0 };
-                }
-                nogroup[0] += 1;
-                nogroup[1] += v.getValue();
-            } else {
-                Field f = tup.getField(gbfield);
-                group.putIfAbsent(f, new int[] { 0, 0 });
-                int[] avg = group.get(f);
-                avg[0]++;
-                avg[1] += v.getValue();
-            }
-        } else if (op == Op.COUNT) {
-            if (gbfield == Aggregator.NO_GROUPING) {
-                if (nogroup == null) {
-                    nogroup = new int[] { 0 };
-                }
-                nogroup[0] += 1;
-            } else {
-                Field f = tup.getField(gbfield);
-                group.putIfAbsent(f, new int[] {0});
-                int[] count = group.get(f);
-                count[0]++;
-            }
-        } else if (op == Op.MAX) {
-            if (gbfield == Aggregator.NO_GROUPING) {
-                if (nogroup == null) {
-                    nogroup = new int[] { Integer.MIN_VALUE };
-                }
-                nogroup[0] = Math.max(nogroup[0], v.getValue());
-            } else {
-                Field f = tup.getField(gbfield);
-                group.putIfAbsent(f, new int[] {Integer.MIN_VALUE});
-                int[] max = group.get(f);
-                max[0] = Math.max(max[0], v.getValue());
-            }
-        } else if (op == Op.MIN) {
-            if (gbfield == Aggregator.NO_GROUPING) {
-                if (nogroup == null) {
-                    nogroup = new int[] { Integer.MAX_VALUE };
-                }
-                nogroup[0] = Math.min(nogroup[0], v.getValue());
-            } else {
-                Field f = tup.getField(gbfield);
-                group.putIfAbsent(f, new int[] {Integer.MAX_VALUE});
-                int[] min = group.get(f);
-                min[0] = Math.min(min[0], v.getValue());
-            }
-        } else if (op == Op.SUM) {
-            if (gbfield == Aggregator.NO_GROUPING) {
-                if (nogroup == null) {
-                    nogroup = new int[] { 0 };
-                }
-                nogroup[0] += v.getValue();
-            } else {
-                Field f = tup.getField(gbfield);
-                group.putIfAbsent(f, new int[] {0});
-                int[] sum = group.get(f);
-                sum[0] += v.getValue();
+        int v = tup.getInt(afield);
+        if (intGroups != null) {
+            IntGroupTable g = intGroups;
+            int slot = g.slot(tup.getInt(gbfield));
+            g.values[slot] = acc.merge(g.values[slot], v);
+            g.counts[slot]++;
+        } else if (group != null) {
+            Field f = tup.getField(gbfield);
+            long[] g = group.get(f);
+            if (g == null) {
+                g = new long[] { acc.initial(), 0 };
+                group.put(f, g);
             }
+            g[0] = acc.merge(g[0], v);
+            g[1]++;
+        } else {
+            nogroupValue = acc.merge(nogroupValue, v);
+            nogroupCount++;
         }
     }
 
@@ -134,30 +110,30 @@ public class IntegerAggregator implements Aggregator {
         TupleDesc td;
         
         if (gbfield == Aggregator.NO_GROUPING) {
-            td = Utility.getTupleDesc(1);
-            if (nogroup != null) {
-                int finalValue;
-                if (op == Op.AVG) {
-                    // Assume avg is still Type.INT_TYPE
-                    finalValue = nogroup[1] / nogroup[0];
-                } else {
-                    finalValue = nogroup[0];
+            td = new TupleDesc(new Type[] {op.getResultType()});
+            if (nogroupCount > 0) {
+                Tuple t = new Tuple(td);
+                t.setField(0, acc.result(nogroupValue, nogroupCount));
+                tuples.add(t);
+            }
+        } else if (intGroups != null) {
+            td = new TupleDesc(new Type[] {gbfieldtype, op.getResultType()});
+            IntGroupTable g = intGroups;
+            for (int slot = 0; slot < g.keys.length; slot++) {
+                if (g.used[slot]) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, new IntField(g.keys[slot]));
+                    t.setField(1, acc.result(g.values[slot], g.counts[slot]));
+                    tuples.add(t);
                 }
-                tuples.add(Utility.getTuple(new int[] {finalValue}, 1));
             }
         } else {
-            td = new TupleDesc(new Type[] {gbfieldtype, Type.INT_TYPE});
-            for (Map.Entry<Field, int[]> e : group.entrySet()) {
+            td = new TupleDesc(new Type[] {gbfieldtype, op.getResultType()});
+            for (Map.Entry<Field, long[]> e : group.entrySet()) {
                 Tuple t = new Tuple(td);
                 t.setField(0, e.getKey());
-                int[] tarr = e.getValue();
-                int finalValue;
-                if (op == Op.AVG) {
-                    finalValue = tarr[1] / tarr[0];
-                } else {
-                    finalValue = tarr[0];
-                }
-                t.setField(1, new IntField(finalValue));
+                long[] g = e.getValue();
+                t.setField(1, acc.result(g[0], g[1]));
                 tuples.add(t);
             }
         }
@@ -165,4 +141,155 @@ public class IntegerAggregator implements Aggregator {
         return new TupleIterator(td, tuples);
     }
 
+    /**
+     * Combines the values of the tuples of a group into its aggregate, for
+     * the operator of the same name.
+     */
+    private enum Accumulator {
+        MIN {
+            long initial() {
+                return Integer.MAX_VALUE;
+            }
+
+            long merge(long a, int v) {
+                return Math.min(a, v);
+            }
+
+            Field result(long a, long count) {
+                return new IntField((int) a);
+            }
+        },
+        MAX {
+            long initial() {
+                return Integer.MIN_VALUE;
+            }
+
+            long merge(long a, int v) {
+                return Math.max(a, v);
+            }
+
+            Field result(long a, long count) {
+                return new IntField((int) a);
+            }
+        },
+        SUM {
+            long merge(long a, int v) {
+                return a + v;
+            }
+        },
+        AVG {
+            long merge(long a, int v) {
+                return a + v;
+            }
+
+            Field result(long a, long count) {
+                return new DoubleField((double) a / count);
+            }
+        },
+        COUNT {
+            long merge(long a, int v) {
+                return a + 1;
+            }
+        };
+
+        /** @return the aggregate of a group with no tuples */
+        long initial() {
+            return 0;
+        }
+
+        /** @return the aggregate of a group after a tuple of value v */
+        abstract long merge(long a, int v);
+
+        /**
+         * @return the result of a group of count tuples with aggregate a, of
+         *         the result type of the operator
+         */
+        Field result(long a, long count) {
+            return new LongField(a);
+        }
+    }
+
+    /**
+     * Open-addressing hash table from int group keys to the aggregate and the
+     * number of tuples of each group, probed linearly. It is kept at most
+     * half full, doubling when it gets fuller.
+     */
+    private static class IntGroupTable implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        /** The aggregate a group starts with. */
+        private final long initial;
+        int[] keys;
+        boolean[] used;
+        long[] values;
+        long[] counts;
+        private int size = 0;
+
+        IntGroupTable(long initial) {
+            this.initial = initial;
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            keys = new int[capacity];
+            used = new boolean[capacity];
+            values = new long[capacity];
+            counts = new long[capacity];
+        }
+
+        /**
+         * @return the slot of the group of the specified key, which is added
+         *         if it is not in the table
+         */
+        int slot(int key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (used[slot]) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                return slot(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            values[slot] = initial;
+            counts[slot] = 0;
+            size++;
+            return slot;
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            boolean[] oldUsed = used;
+            long[] oldValues = values;
+            long[] oldCounts = counts;
+            allocate(2 * oldKeys.length);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (used[slot]) {
+                        slot = (slot + 1) & mask;
+                    }
+                    used[slot] = true;
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+    }
+
 }
@@ -77,65 +77,38 @@ public class Join extends Operator {
             ArrayList<Tuple> child1Tups = new ArrayList<Tuple>();
             ArrayList<Tuple> child2Tups = new ArrayList<Tuple>();
             while (child1.hasNext()) {
-                child1Tups.add(child1.next());
+                child1Tups.add(child1.next().keep());
             }
             while (child2.hasNext()) {
-                child2Tups.add(child2.next());
+                child2Tups.add(child2.next().keep());
             }
             Collections.sort(child1Tups, new Comparator<Tuple>() {
                 @Override
                 public int compare(Tuple t1, Tuple t2) {
-                    if (t1.getField(pred.getField1()).compare(
-                            Predicate.Op.LESS_THAN,
-                            t2.getField(pred.getField1()))) {
-                        return -1;
-                    } else if (t1.getField(pred.getField1()).compare(
-                            Predicate.Op.EQUALS, t2.getField(pred.getField1()))) {
-                        return 0;
-                    } else {
-                        return 1;
-                    }
+                    return Tuple.compare(t1, pred.getField1(), t2, pred.getField1());
                 }                
             });
             Collections.sort(child2Tups, new Comparator<Tuple>() {
                 @Override
                 public int compare(Tuple t1, Tuple t2) {
-                    if (t1.getField(pred.getField2()).compare(
-                            Predicate.Op.LESS_THAN,
-                            t2.getField(pred.getField2()))) {
-                        return -1;
-                    } else if (t1.getField(pred.getField2()).compare(
-                            Predicate.Op.EQUALS, t2.getField(pred.getField2()))) {
-                        return 0;
-                    } else {
-                        return 1;
-                    }
+                    return Tuple.compare(t1, pred.getField2(), t2, pred.getField2());
                 }
             });
             
             int i = 0;
             int j = 0;
             while (i < child1Tups.size() && j < child2Tups.size()) {
-                Field f1 = child1Tups.get(i).getField(pred.getField1());
-                Field f2 = child2Tups.get(j).getField(pred.getField2());
-                if (f1.compare(Predicate.Op.LESS_THAN, f2)) {
+                Tuple t1 = child1Tups.get(i);
+                int c = Tuple.compare(t1, pred.getField1(), child2Tups.get(j), pred.getField2());
+                if (c < 0) {
                     i++;
-                } else if (f1.compare(Predicate.Op.GREATER_THAN, f2)) {
+                } else if (c > 0) {
                     j++;
                 } else {
                     int backupJ = j;
-                    while (j < child2Tups.size()
-                            && child2Tups.get(j).getField(pred.getField2())
-                                    .compare(Predicate.Op.EQUALS, f2)) {
-                        Tuple newTuple = new Tuple(td);
-                        for (int k = 0; k < td.numFields(); k++) {
-                            if (k < td1.numFields()) {
-                                newTuple.setField(k, child1Tups.get(i).getField(k));
-                            } else {
-                                newTuple.setField(k, child2Tups.get(j).getField(k - td1.numFields()));
-                            }
-                        }
-                        tupList.add(newTuple);
+                    while (j < child2Tups.size() && Tuple.compare(t1, pred.getField1(),
+                            child2Tups.get(j), pred.getField2()) == 0) {
+                        tupList.add(Tuple.merge(td, t1, child2Tups.get(j)));
                         j++;
                     }
                     i++;
@@ -148,15 +121,7 @@ public class Join extends Operator {
                 for ( ;child2.hasNext(); ) {
                     Tuple t2 = child2.next();
                     if (pred.filter(t1, t2)) {
-                        Tuple newTuple = new Tuple(td);
-                        for (int i = 0; i < td.numFields(); i++) {
-                            if (i < td1.numFields()) {
-                                newTuple.setField(i, t1.getField(i));
-                            } else {
-                                newTuple.setField(i, t2.getField(i - td1.numFields()));
-                            }
-                        }
-                        tupList.add(newTuple);
+                        tupList.add(Tuple.merge(td, t1, t2));
                     }
                 }
                 child2.rewind();
@@ -228,6 +228,10 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
+        if (joins.isEmpty()) {
+            // a query over a single table
+            return joins;
+        }
         try {
             PlanCache pc = new PlanCache();
             for (int i = 1; i <= joins.size(); i++) {
@@ -59,8 +59,10 @@ public class LockManager {
             Set<ReadWriteLock> locks = holdingAndRuestignLocks.getOrDefault(tid,
                     new HashSet<ReadWriteLock>());
             locks.add(rwl);
-            rwl.lockRead(tid);
+            // record the request first, so that aborting the transaction
+            // cancels it if it times out
             holdingAndRuestignLocks.put(tid, locks);
+            rwl.lockRead(tid);
         }
     }
 
@@ -82,8 +84,10 @@ public class LockManager {
             Set<ReadWriteLock> locks = holdingAndRuestignLocks.getOrDefault(tid,
                     new HashSet<ReadWriteLock>());
             locks.add(rwl);
-            rwl.lockWrite(tid);
+            // record the request first, so that aborting the transaction
+            // cancels it if it times out
             holdingAndRuestignLocks.put(tid, locks);
+            rwl.lockWrite(tid);
         }
     }
 
@@ -207,6 +207,10 @@ public class LogFile {
            after page data
            start offset
         */
+        // transactions which did not log a BEGIN record start here
+        if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
+        }
         raf.writeInt(UPDATE_RECORD);
         raf.writeLong(tid.getId());
 
@@ -257,25 +261,28 @@ public class LogFile {
             Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
+            // pages and ids may have several constructors; use the ones
+            // taking the serialized id and the page data
             int numIdArgs = raf.readInt();
+            Class<?> idArgTypes[] = new Class<?>[numIdArgs];
             Object idArgs[] = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
+                idArgTypes[i] = int.class;
                 idArgs[i] = new Integer(raf.readInt());
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            pid = (PageId)idClass.getConstructor(idArgTypes).newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = pageClass.getConstructor(idClass, byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -290,6 +297,9 @@ public class LogFile {
         } catch (InvocationTargetException e) {
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         }
         return newPage;
 
@@ -397,6 +407,7 @@ public class LogFile {
         raf.seek(minLogRecord);
 
         //have to rewrite log records since offsets are different after truncation
+        Set<Long> remapped = new HashSet<Long>();
         while (true) {
             try {
                 int type = raf.readInt();
@@ -415,6 +426,11 @@ public class LogFile {
 
                     writePageData(logNew, before);
                     writePageData(logNew, after);
+                    // the first record of a transaction without a BEGIN record
+                    if (tidToFirstLogRecord.containsKey(record_tid)
+                            && remapped.add(record_tid)) {
+                        tidToFirstLogRecord.put(record_tid, newStart);
+                    }
                     break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
@@ -428,6 +444,7 @@ public class LogFile {
                     break;
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
+                    remapped.add(record_tid);
                     break;
                 }
 
@@ -466,9 +483,98 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null) {
+                    // the transaction wrote no page to disk
+                    return;
+                }
+                // the first before image of each page is its state before
+                // the transaction
+                Map<PageId, Page> beforeImages = new LinkedHashMap<PageId, Page>();
+                raf.seek(firstRecord);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long record_tid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        Page before = readPageData(raf);
+                        skipPageData(raf);
+                        if (record_tid == tid.getId()
+                                && !beforeImages.containsKey(before.getId())) {
+                            beforeImages.put(before.getId(), before);
+                        }
+                        break;
+                    case CHECKPOINT_RECORD:
+                        skipCheckpointData(raf);
+                        break;
+                    }
+                    raf.readLong();
+                }
+                raf.seek(currentOffset);
+                installPages(beforeImages.values());
+            }
+        }
+    }
+
+    /** Write the specified pages to their files, forcing the files to
+        disk, and remove any cached copies from the buffer pool.  Used
+        to undo and redo updates. */
+    void installPages(Collection<Page> pages) throws IOException {
+        Set<HeapFile> files = new HashSet<HeapFile>();
+        for (Page p : pages) {
+            DbFile file = Database.getCatalog().getDbFile(p.getId().getTableId());
+            file.writePage(p);
+            Database.getBufferPool().discardPage(p.getId());
+            if (file instanceof HeapFile) {
+                HeapFile hf = (HeapFile) file;
+                hf.updateFreeSpace(p);
+                files.add(hf);
             }
         }
+        for (HeapFile hf : files) {
+            hf.getChannel().force(false);
+        }
+    }
+
+    /** Skip the page data written by writePageData */
+    void skipPageData(RandomAccessFile raf) throws IOException {
+        raf.readUTF();
+        raf.readUTF();
+        int numIdArgs = raf.readInt();
+        raf.seek(raf.getFilePointer() + numIdArgs * INT_SIZE);
+        int pageSize = raf.readInt();
+        raf.seek(raf.getFilePointer() + pageSize);
+    }
+
+    /** Skip the list of transactions of a checkpoint record */
+    void skipCheckpointData(RandomAccessFile raf) throws IOException {
+        int numXactions = raf.readInt();
+        raf.seek(raf.getFilePointer() + numXactions * 2L * LONG_SIZE);
+    }
+
+    /** Return true if the specified transaction has log records which
+        are not followed by a commit or abort record, so that it must
+        be committed or rolled back through the log.
+        @param tid The transaction
+    */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /** Return the number of bytes logged since the last checkpoint
+        record, or since the start of the log if there is none.  Used
+        to pace the writing of committed pages.
+    */
+    public synchronized long getBytesSinceCheckpoint() throws IOException {
+        if (currentOffset < 0) {
+            // nothing logged yet
+            return 0;
+        }
+        long end = raf.getFilePointer();
+        raf.seek(0);
+        long cpLoc = raf.readLong();
+        raf.seek(end);
+        return currentOffset - (cpLoc == NO_CHECKPOINT_ID ? LONG_SIZE : cpLoc);
     }
 
     /** Shutdown the logging system, writing out whatever state
@@ -493,7 +599,78 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                Set<Long> committed = new HashSet<Long>();
+                Set<Long> aborted = new HashSet<Long>();
+                List<Long> updates = new ArrayList<Long>();
+                long cpLoc = NO_CHECKPOINT_ID;
+                if (raf.length() >= LONG_SIZE) {
+                    raf.seek(0);
+                    cpLoc = raf.readLong();
+                    try {
+                        while (true) {
+                            long start = raf.getFilePointer();
+                            int type = raf.readInt();
+                            long record_tid = raf.readLong();
+                            switch (type) {
+                            case UPDATE_RECORD:
+                                skipPageData(raf);
+                                skipPageData(raf);
+                                break;
+                            case COMMIT_RECORD:
+                                committed.add(record_tid);
+                                break;
+                            case ABORT_RECORD:
+                                aborted.add(record_tid);
+                                break;
+                            case CHECKPOINT_RECORD:
+                                skipCheckpointData(raf);
+                                break;
+                            }
+                            raf.readLong();
+                            if (type == UPDATE_RECORD) {
+                                updates.add(start);
+                            }
+                        }
+                    } catch (EOFException e) {
+                        // the log ends here, possibly with a record torn
+                        // by the crash
+                    }
+                }
+
+                // redo the updates of committed transactions in log order,
+                // and then undo those of transactions which neither
+                // committed nor rolled back, latest first. A checkpoint
+                // writes every page, so the updates before the last one are
+                // on disk, and pages committed after it may not have been
+                // logged at all if the pool was not logging at commit then.
+                Map<PageId, Page> pages = new LinkedHashMap<PageId, Page>();
+                for (long offset : updates) {
+                    if (offset < cpLoc) {
+                        continue;
+                    }
+                    raf.seek(offset + INT_SIZE);
+                    if (committed.contains(raf.readLong())) {
+                        skipPageData(raf);
+                        Page after = readPageData(raf);
+                        pages.put(after.getId(), after);
+                    }
+                }
+                for (int i = updates.size() - 1; i >= 0; i--) {
+                    raf.seek(updates.get(i) + INT_SIZE);
+                    long record_tid = raf.readLong();
+                    if (!committed.contains(record_tid) && !aborted.contains(record_tid)) {
+                        Page before = readPageData(raf);
+                        pages.put(before.getId(), before);
+                    }
+                }
+                installPages(pages.values());
+
+                // the pages are on disk, so the log starts afresh
+                raf.setLength(0);
+                raf.writeLong(NO_CHECKPOINT_ID);
+                currentOffset = raf.getFilePointer();
+                tidToFirstLogRecord.clear();
+                force();
             }
          }
     }
@@ -271,6 +271,66 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Compute the fields of the specified table which the query refers to,
+     *   so that the scan of the table need only read these fields from disk.
+     *  @return the indices of the needed fields in the table, in ascending
+     *   order, or null if all the fields are needed
+     */
+    int[] getNeededColumns(LogicalScanNode table) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        boolean[] needed = new boolean[td.numFields()];
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        names.add(aggField);
+        names.add(groupByField);
+        names.add(oByField);
+        for (LogicalFilterNode lf : filters) {
+            names.add(lf.tableAlias + "." + lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.t1Alias + "." + lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                names.add(lj.t2Alias + "." + lj.f2PureName);
+            }
+        }
+        for (String name : names) {
+            if (name == null) {
+                continue;
+            }
+            if (name.equals("null.*") || name.equals(table.alias + ".*")) {
+                return null;
+            }
+            if (name.startsWith(table.alias + ".")) {
+                try {
+                    needed[td.fieldNameToIndex(name.substring(table.alias.length() + 1))] = true;
+                } catch (NoSuchElementException e) {
+                    // reported when the plan is built
+                    return null;
+                }
+            }
+        }
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < needed.length; i++) {
+            if (needed[i]) {
+                columns.add(i);
+            }
+        }
+        if (columns.size() == needed.length) {
+            return null;
+        }
+        if (columns.isEmpty()) {
+            // the scan still has to return one tuple per row
+            columns.add(0);
+        }
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = columns.get(i);
+        }
+        return result;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -290,11 +350,15 @@ public class LogicalPlan {
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
 
+        HashMap<String,int[]> neededColumns = new HashMap<String,int[]>();
+
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 neededColumns.put(table.alias, getNeededColumns(table));
+                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias,
+                         neededColumns.get(table.alias));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -334,11 +398,29 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the statistics are over all the fields of the base table, which
+            // the scan may not return
+            int tableId = this.getTableId(lf.tableAlias);
+            int baseField = Database.getCatalog().getTupleDesc(tableId)
+                    .fieldNameToIndex(lf.fieldPureName);
+            DbFile file = Database.getCatalog().getDbFile(tableId);
+            if (subplan instanceof SeqScan && ((SeqScan) subplan).getPredicate() == null
+                    && (file instanceof ColumnFile
+                            || (file instanceof HeapFile && ftyp == Type.INT_TYPE))) {
+                // let the scan evaluate the predicate on the column pages, or
+                // skip the pages the zone map rules out; the Filter above it
+                // passes every tuple it returns, and keeps the selection in
+                // the plan shown and in its cardinality estimates
+                subplanMap.put(lf.tableAlias, new Filter(p, new SeqScan(t, tableId,
+                        lf.tableAlias, neededColumns.get(lf.tableAlias),
+                        new Predicate(baseField, lf.p, f))));
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
-            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            double sel= s.estimateSelectivity(baseField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -423,7 +505,7 @@ public class LogicalPlan {
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                outTypes.add(getAggOp(si.aggOp).getResultType());
 
             } else if (hasAgg) {
                     if (groupByField == null) {
@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * LruKEvictionPolicy implements the LRU-K replacement algorithm (O'Neil et
+ * al.). The victim is the frame whose K-th most recent access lies furthest in
+ * the past. Frames which have been accessed fewer than K times have an
+ * infinite backward K-distance and are evicted first, oldest first access
+ * first; this keeps pages touched once by a scan from pushing out pages that
+ * are used repeatedly.
+ * <p>
+ * Evictable frames are kept in a set ordered by backward K-distance, so a
+ * victim is found in O(log n) rather than by walking all frames.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    /** Default number of accesses remembered for each frame. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    /** The last k access times of each frame, used as a ring buffer. */
+    private final long[][] history;
+    /** Number of accesses recorded in history for each frame, at most k. */
+    private final int[] numAccesses;
+    /** Index in history of the most recent access of each frame. */
+    private final int[] latest;
+    private final boolean[] occupied;
+    private final boolean[] evictable;
+    /** Orders frames from the best victim to the worst. */
+    private final Comparator<Integer> order;
+    /** Evictable frames, in victim order. */
+    private final TreeSet<Integer> candidates;
+    /** Logical clock, incremented on every access. */
+    private long now;
+
+    /**
+     * Creates a LRU-K policy with {@link #DEFAULT_K}.
+     *
+     * @param numFrames
+     *            the number of frames in the buffer pool
+     */
+    public LruKEvictionPolicy(int numFrames) {
+        this(numFrames, DEFAULT_K);
+    }
+
+    /**
+     * @param numFrames
+     *            the number of frames in the buffer pool
+     * @param k
+     *            the number of accesses remembered for each frame
+     */
+    public LruKEvictionPolicy(int numFrames, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive.");
+        }
+        this.k = k;
+        history = new long[numFrames][k];
+        numAccesses = new int[numFrames];
+        latest = new int[numFrames];
+        occupied = new boolean[numFrames];
+        evictable = new boolean[numFrames];
+        order = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                boolean fullA = numAccesses[a] == LruKEvictionPolicy.this.k;
+                boolean fullB = numAccesses[b] == LruKEvictionPolicy.this.k;
+                if (fullA != fullB) {
+                    // infinite backward K-distance goes first
+                    return fullA ? 1 : -1;
+                }
+                // timestamps are unique, so this is a total order
+                return Long.compare(oldestAccess(a), oldestAccess(b));
+            }
+        };
+        candidates = new TreeSet<Integer>(order);
+        now = 0;
+    }
+
+    /**
+     * @return the oldest remembered access time of the frame, which is the
+     *         K-th most recent access once the frame has been accessed k times
+     */
+    private long oldestAccess(int frame) {
+        if (numAccesses[frame] < k) {
+            return history[frame][0];
+        }
+        return history[frame][(latest[frame] + 1) % k];
+    }
+
+    private void recordAccess(int frame) {
+        if (numAccesses[frame] == 0) {
+            latest[frame] = 0;
+        } else {
+            latest[frame] = (latest[frame] + 1) % k;
+        }
+        history[frame][latest[frame]] = now++;
+        if (numAccesses[frame] < k) {
+            numAccesses[frame]++;
+        }
+    }
+
+    @Override
+    public synchronized void frameLoaded(int frame, PageId pid) {
+        occupied[frame] = true;
+        evictable[frame] = false;
+        numAccesses[frame] = 0;
+        recordAccess(frame);
+    }
+
+    @Override
+    public synchronized void frameAccessed(int frame) {
+        // the ordering key changes, so re-insert the frame if it is a candidate
+        boolean wasCandidate = evictable[frame] && candidates.remove(frame);
+        recordAccess(frame);
+        if (wasCandidate) {
+            candidates.add(frame);
+        }
+    }
+
+    @Override
+    public synchronized void frameRemoved(int frame) {
+        setEvictable(frame, false);
+        occupied[frame] = false;
+        numAccesses[frame] = 0;
+    }
+
+    @Override
+    public synchronized void setEvictable(int frame, boolean value) {
+        if (!occupied[frame] || evictable[frame] == value) {
+            return;
+        }
+        evictable[frame] = value;
+        if (value) {
+            candidates.add(frame);
+        } else {
+            candidates.remove(frame);
+        }
+    }
+
+    @Override
+    public synchronized int victim() {
+        if (candidates.isEmpty()) {
+            return -1;
+        }
+        return candidates.first();
+    }
+
+    @Override
+    public synchronized int[] rankFrames() {
+        ArrayList<Integer> frames = new ArrayList<Integer>();
+        for (int i = 0; i < occupied.length; i++) {
+            if (occupied[i]) {
+                frames.add(i);
+            }
+        }
+        Collections.sort(frames, Collections.reverseOrder(order));
+        int[] ranked = new int[frames.size()];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = frames.get(i);
+        }
+        return ranked;
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedHeapFile is a HeapFile which reads its pages from a memory mapping of
+ * the file instead of with a read into a buffer. Each page read is still
+ * copied once, from the mapping into the byte[] of its HeapPage, which its
+ * tuples and its changes use; only the copy out of a read buffer is saved.
+ * It suits read-mostly tables whose pages are scanned repeatedly; writes
+ * still go through {@link HeapFile#writePage}, and are seen by the mapping
+ * because both share the operating system's page cache.
+ * <p>
+ * The file is mapped read-only in segments of {@link #SEGMENT_PAGES} pages,
+ * each mapped on first use. When the file grows past the end of a segment
+ * (e.g. after pages added by insertTuple are flushed), the segment is mapped
+ * again with its new length the next time one of the new pages is read.
+ *
+ * @see Catalog#loadSchema
+ */
+public class MappedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of pages mapped by each segment. */
+    public static final int SEGMENT_PAGES = 256;
+
+    /**
+     * Mapped segments, null where not yet mapped. The array is replaced
+     * rather than modified, so readers never need a lock.
+     */
+    private transient volatile MappedByteBuffer[] segments;
+
+    /**
+     * Constructs a memory mapped heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.pageNumber() < 0) {
+            throw new IllegalArgumentException("The page doesn't exist in this file.");
+        }
+        int segment = pid.pageNumber() / SEGMENT_PAGES;
+        int pageSize = getPageSize();
+        int offset = (pid.pageNumber() % SEGMENT_PAGES) * pageSize;
+        try {
+            MappedByteBuffer mapped = getSegment(segment, offset + pageSize);
+            if (mapped == null) {
+                // the page is beyond the end of the file or is a short last page
+                return super.readPage(pid);
+            }
+            ByteBuffer view = mapped.duplicate();
+            view.limit(offset + pageSize).position(offset);
+            verifyChecksum(pid, view);
+            return new HeapPage((HeapPageId) pid, view);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        // should never reach here.
+        return null;
+    }
+
+    /**
+     * Returns the specified segment, mapping it (again) if it is not mapped
+     * or is shorter than the specified length.
+     *
+     * @param segment the index of the segment
+     * @param length the number of bytes of the segment needed
+     * @return the segment, or null if the file is too short to map length
+     *         bytes of the segment
+     */
+    private MappedByteBuffer getSegment(int segment, int length) throws IOException {
+        MappedByteBuffer mapped = mappedSegment(segment, length);
+        if (mapped != null) {
+            return mapped;
+        }
+        synchronized (this) {
+            mapped = mappedSegment(segment, length);
+            if (mapped != null) {
+                return mapped;
+            }
+            FileChannel ch = getChannel();
+            long start = getPageOffset(segment * SEGMENT_PAGES);
+            long size = Math.min(ch.size() - start, (long) SEGMENT_PAGES * getPageSize());
+            if (size < length) {
+                return null;
+            }
+            mapped = ch.map(FileChannel.MapMode.READ_ONLY, start, size);
+            MappedByteBuffer[] segs = segments;
+            int numSegs = segs == null ? 0 : segs.length;
+            MappedByteBuffer[] newSegs = new MappedByteBuffer[Math.max(numSegs, segment + 1)];
+            if (segs != null) {
+                System.arraycopy(segs, 0, newSegs, 0, numSegs);
+            }
+            newSegs[segment] = mapped;
+            segments = newSegs;
+            return mapped;
+        }
+    }
+
+    /**
+     * @return the specified segment if it is mapped and at least length bytes
+     *         long, null otherwise
+     */
+    private MappedByteBuffer mappedSegment(int segment, int length) {
+        MappedByteBuffer[] segs = segments;
+        if (segs != null && segment < segs.length && segs[segment] != null
+                && segs[segment].capacity() >= length) {
+            return segs[segment];
+        }
+        return null;
+    }
+}
@@ -29,7 +29,9 @@ public interface Page {
     public TransactionId isDirty();
 
   /**
-   * Set the dirty state of this page as dirtied by a particular transaction
+   * Set the dirty state of this page as dirtied by a particular transaction.
+   * Pages must be marked dirty before they are modified, so that the before
+   * image can be captured lazily.
    */
     public void markDirty(boolean dirty, TransactionId tid);
 
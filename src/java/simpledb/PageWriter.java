@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * PageWriter is the background thread of a {@link BufferPool} which writes
+ * out the pages of committed transactions, so that commit only has to force
+ * the log. Every round it takes the committed pages which are not on disk
+ * yet, sorted by table and page number, and writes some of them in that
+ * order, continuing from where the previous round stopped, so that each file
+ * is swept sequentially.
+ * <p>
+ * How many pages a round writes depends on how close the log is to the next
+ * checkpoint: the share of the committed pages written grows with the number
+ * of bytes logged since the last checkpoint, reaching all of them once
+ * checkpointBytes have been logged, so that a checkpoint finds few pages left
+ * to write. The share also grows with the part of the pool the committed
+ * pages take up, all of them being written once they fill half the pool, so
+ * that transactions still find clean pages to evict.
+ *
+ * @see BufferPool#startPageWriter
+ */
+class PageWriter extends PeriodicTask {
+
+    /** Default time between two rounds. */
+    static final long DEFAULT_INTERVAL_MILLIS = 50;
+    /** Default number of bytes logged by which every committed page is written. */
+    static final long DEFAULT_CHECKPOINT_BYTES = 16L << 20;
+    /** Minimum number of pages a round writes, if there are that many. */
+    static final int MIN_PAGES_PER_ROUND = 8;
+
+    private final BufferPool pool;
+    private final long checkpointBytes;
+    /** The last page written, from which the next round continues. */
+    private PageId lastWritten;
+
+    /**
+     * @param pool the pool whose committed pages to write
+     * @param intervalMillis the time between two rounds
+     * @param checkpointBytes the number of bytes logged since the last
+     *            checkpoint by which every committed page should be written
+     */
+    PageWriter(BufferPool pool, long intervalMillis, long checkpointBytes) {
+        super("simpledb-page-writer", intervalMillis);
+        if (checkpointBytes <= 0) {
+            throw new IllegalArgumentException("The checkpoint distance must be positive.");
+        }
+        this.pool = pool;
+        this.checkpointBytes = checkpointBytes;
+    }
+
+    @Override
+    void runOnce() {
+        try {
+            writeRound();
+        } catch (IOException e) {
+            // the pages stay in the pool, and are written by a later
+            // round, a checkpoint or an eviction
+            e.printStackTrace();
+        } catch (RuntimeException e) {
+            // likewise, e.g. when the table of a page was removed from
+            // the catalog; the next round starts over
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the share of the committed pages given by the pacing policy.
+     *
+     * @return the number of pages written
+     */
+    int writeRound() throws IOException {
+        List<PageId> pids = pool.getCommittedDirtyPages();
+        if (pids.isEmpty()) {
+            return 0;
+        }
+        int toWrite = pagesToWrite(pids.size(), pool.getNumPages(),
+                Database.getLogFile().getBytesSinceCheckpoint(), checkpointBytes);
+        // continue the sweep after the last page written, wrapping around
+        int start = 0;
+        if (lastWritten != null) {
+            while (start < pids.size()
+                    && BufferPool.FILE_ORDER.compare(pids.get(start), lastWritten) <= 0) {
+                start++;
+            }
+        }
+        int written = 0;
+        for (int n = 0; n < pids.size() && written < toWrite; n++) {
+            PageId pid = pids.get((start + n) % pids.size());
+            if (pool.writeCommittedPage(pid)) {
+                lastWritten = pid;
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Returns the number of committed pages a round should write.
+     *
+     * @param committedPages the number of committed pages not on disk
+     * @param poolPages the maximum number of pages in the pool
+     * @param loggedBytes the number of bytes logged since the last checkpoint
+     * @param checkpointBytes the number of bytes logged by which every
+     *            committed page should be written
+     */
+    static int pagesToWrite(int committedPages, int poolPages, long loggedBytes,
+            long checkpointBytes) {
+        double share = Math.max((double) loggedBytes / checkpointBytes,
+                2.0 * committedPages / poolPages);
+        int pages = (int) Math.ceil(committedPages * Math.min(1.0, share));
+        return Math.min(committedPages, Math.max(MIN_PAGES_PER_ROUND, pages));
+    }
+}
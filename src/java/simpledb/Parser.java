@@ -4,6 +4,9 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -464,6 +467,94 @@ public class Parser {
         }
     }
 
+    /** COPY table FROM 'file' [DELIMITER 'c'], which Zql does not parse. */
+    private static final Pattern COPY_STATEMENT = Pattern.compile(
+            "\\s*copy\\s+(\\w+)\\s+from\\s+'([^']*)'(?:\\s+delimiter\\s+'(.)')?\\s*;?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Handles a COPY statement, which appends the tuples of a text file to a
+     * table with a BulkLoader. The pages are written directly to the table
+     * file rather than through the buffer pool, in a transaction of their
+     * own, so COPY may not run in a user transaction.
+     *
+     * @return false if the statement is not a COPY statement
+     * @see BulkLoader#append
+     */
+    public boolean handleCopyStatement(String s) {
+        Matcher m = COPY_STATEMENT.matcher(s);
+        if (!m.matches()) {
+            return false;
+        }
+        if (inUserTrans) {
+            System.out.println("COPY cannot run in a transaction.");
+            return true;
+        }
+        try {
+            int tableId = Database.getCatalog().getTableId(m.group(1));
+            DbFile f = Database.getCatalog().getDbFile(tableId);
+            if (!(f instanceof HeapFile)) {
+                throw new DbException("COPY only loads HeapFiles.");
+            }
+            HeapFile hf = (HeapFile) f;
+            char separator = m.group(3) == null ? ',' : m.group(3).charAt(0);
+            long n = new BulkLoader(hf.getTupleDesc(), separator, hf.getPageSize(),
+                    hf.hasChecksums(), ForkJoinPool.commonPool())
+                    .append(new File(m.group(2)), hf);
+            System.out.println(n + " tuples copied into " + m.group(1) + ".");
+            TableStats.setTableStats(m.group(1), new TableStats(tableId,
+                    TableStats.IOCOSTPERPAGE));
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown table " + m.group(1));
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
+    /** VACUUM table, which Zql does not parse. */
+    private static final Pattern VACUUM_STATEMENT = Pattern.compile(
+            "\\s*vacuum\\s+(\\w+)\\s*;?\\s*", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Handles a VACUUM statement, which compacts a table with a Compactor in
+     * transactions of its own, so it may not run in a user transaction.
+     *
+     * @return false if the statement is not a VACUUM statement
+     */
+    public boolean handleVacuumStatement(String s) {
+        Matcher m = VACUUM_STATEMENT.matcher(s);
+        if (!m.matches()) {
+            return false;
+        }
+        if (inUserTrans) {
+            System.out.println("VACUUM cannot run in a transaction.");
+            return true;
+        }
+        try {
+            int tableId = Database.getCatalog().getTableId(m.group(1));
+            DbFile f = Database.getCatalog().getDbFile(tableId);
+            if (!(f instanceof HeapFile)) {
+                throw new DbException("VACUUM only compacts HeapFiles.");
+            }
+            Compactor c = new Compactor((HeapFile) f);
+            c.compact();
+            System.out.println(c.getTuplesMoved() + " tuples moved, "
+                    + c.getPagesFreed() + " pages freed in " + m.group(1) + ".");
+            TableStats.setTableStats(m.group(1), new TableStats(tableId,
+                    TableStats.IOCOSTPERPAGE));
+        } catch (NoSuchElementException e) {
+            System.out.println("Unknown table " + m.group(1));
+        } catch (DbException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return true;
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
@@ -494,6 +585,9 @@ public class Parser {
     }
 
     public void processNextStatement(String s) {
+        if (handleCopyStatement(s) || handleVacuumStatement(s)) {
+            return;
+        }
         try {
             processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
         } catch (UnsupportedEncodingException e) {
@@ -582,11 +676,11 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "copy", "vacuum" };
 
     public static void main(String argv[]) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -596,19 +690,27 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [-warmup millis]";
+
+    /**
+     * @return the file the hot pages of the buffer pool are saved to, and
+     *         read back from at the next start, next to the catalog file
+     */
+    static File getHotPagesFile(File catalogFile) {
+        return new File(catalogFile.getPath() + ".hotpages");
+    }
+
+    /** Time budget for reading the hot pages of the previous run at start. */
+    protected long warmUpMillis = BufferPool.DEFAULT_WARM_UP_MILLIS;
 
     protected void shutdown() {
+        Database.getBufferPool().stopHotPageSaver();
         System.out.println("Bye");
     }
 
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
-        // first add tables to database
-        Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
-
         String queryFile = null;
 
         if (argv.length > 1) {
@@ -625,12 +727,33 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-warmup")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected milliseconds after -warmup\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    warmUpMillis = Long.parseLong(argv[i]);
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
                 }
             }
         }
+
+        // add tables to database
+        Database.getCatalog().loadSchema(argv[0]);
+
+        // read the pages which were hot when the previous run stopped, before
+        // the statistics scans fill the pool
+        File hotPages = getHotPagesFile(new File(argv[0]));
+        BufferPool pool = Database.getBufferPool();
+        int warm = pool.warmUp(hotPages, warmUpMillis);
+        if (warm > 0) {
+            System.out.println("Read " + warm + " hot pages of the previous run.");
+        }
+        TableStats.computeStatistics();
+        pool.startHotPageSaver(hotPages, HotPageSaver.DEFAULT_INTERVAL_MILLIS);
         if (!interactive) {
             try {
                 // curtrans = new Transaction();
@@ -677,8 +800,10 @@ public class Parser {
                     }
 
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
+                    if (!handleCopyStatement(cmd) && !handleVacuumStatement(cmd)) {
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
+                    }
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n",
                             ((double) time / 1000.0));
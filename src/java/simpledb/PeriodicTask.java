@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PeriodicTask runs {@link #runOnce} on a daemon thread of its own, a fixed
+ * interval after the previous run ended, until it is shut down. It is the
+ * base of the background threads of a {@link BufferPool}.
+ * <p>
+ * As with any periodic task of a ScheduledExecutorService, a runOnce which
+ * throws is never run again, so runOnce must report its own failures.
+ *
+ * @see PageWriter
+ * @see HotPageSaver
+ */
+abstract class PeriodicTask {
+
+    private final ScheduledExecutorService executor;
+    private final long intervalMillis;
+    /** The thread of the executor, once it has been created. */
+    private volatile Thread thread;
+
+    /**
+     * @param name the name of the thread
+     * @param intervalMillis the time between the end of a run and the start
+     *            of the next one
+     */
+    PeriodicTask(final String name, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("The interval must be positive.");
+        }
+        this.intervalMillis = intervalMillis;
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                thread = t;
+                return t;
+            }
+        });
+    }
+
+    void start() {
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                runOnce();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the task, waiting for the run in progress to finish. The thread
+     * is not interrupted, since an interrupt closes a channel it may be
+     * writing to. If the caller is interrupted while waiting, it returns
+     * early with its interrupt status set.
+     */
+    void shutdown() {
+        executor.shutdown();
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Does the work of one run.
+     */
+    abstract void runOnce();
+}
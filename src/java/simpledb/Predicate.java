@@ -112,6 +112,44 @@ public class Predicate implements Serializable {
         return t.getField(field).compare(op, operand);
     }
 
+    /**
+     * Compares two numeric fields which may have different types, as doubles
+     * if either is a DoubleField and as longs otherwise. IntField, LongField
+     * and DoubleField compare with fields of the other numeric types this way.
+     *
+     * @throws ClassCastException if either field is not numeric
+     */
+    static boolean compareNumbers(Field f1, Op op, Field f2) {
+        int c;
+        if (f1 instanceof DoubleField || f2 instanceof DoubleField) {
+            double d1 = Type.doubleValue(f1);
+            double d2 = Type.doubleValue(f2);
+            if (Double.isNaN(d1) || Double.isNaN(d2)) {
+                // as with the primitive operators, NaN is unequal to anything
+                return op == Op.NOT_EQUALS;
+            }
+            c = d1 < d2 ? -1 : (d1 > d2 ? 1 : 0);
+        } else {
+            c = Long.compare(Type.longValue(f1), Type.longValue(f2));
+        }
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return c == 0;
+        case NOT_EQUALS:
+            return c != 0;
+        case GREATER_THAN:
+            return c > 0;
+        case GREATER_THAN_OR_EQ:
+            return c >= 0;
+        case LESS_THAN:
+            return c < 0;
+        case LESS_THAN_OR_EQ:
+            return c <= 0;
+        }
+        return false;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
@@ -13,6 +13,9 @@ public class SeqScan implements DbIterator {
     
     private int tableid;
     private String tableAlias;
+    /** The columns read from a ColumnFile, or null to read all columns. */
+    private int[] columns;
+    private Predicate predicate;
     private DbFileIterator itr;
 
     /**
@@ -32,9 +35,61 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan which only needs the specified columns of
+     * the table. If the table is a {@link ColumnFile}, only these columns are
+     * read, and the returned tuples and tupleDesc have only these fields, in
+     * the specified order; other tables are scanned whole.
+     * 
+     * @param columns
+     *            the indices of the columns needed, or null for all columns
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias, columns, null);
+    }
+
+    /**
+     * Creates a sequential scan which only returns the tuples of the table
+     * which satisfy the specified predicate. The predicate refers to the
+     * fields of the table, not to those returned by the scan. Scans of a
+     * {@link ColumnFile} evaluate it on the column pages before reading the
+     * other columns, scans of a HeapFile skip the pages its {@link ZoneMap}
+     * rules out, and other tables are filtered tuple by tuple.
+     * 
+     * @param columns
+     *            the indices of the columns needed, or null for all columns
+     * @param predicate
+     *            the predicate the returned tuples satisfy, or null to
+     *            return all the tuples
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+            Predicate predicate) {
         this.tableid = tableid;
         this.tableAlias = tableAlias;
-        itr = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        this.predicate = predicate;
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        if (file instanceof ColumnFile && (columns != null || predicate != null)) {
+            ColumnFile cf = (ColumnFile) file;
+            this.columns = columns != null ? columns.clone()
+                    : cf.getAllColumns();
+            itr = cf.iterator(tid, this.columns, predicate);
+        } else if (predicate != null && file instanceof HeapFile) {
+            itr = ((HeapFile) file).iterator(tid, predicate);
+        } else if (predicate != null) {
+            itr = new FilterIterator(file.iterator(tid), predicate);
+        } else {
+            itr = file.iterator(tid);
+        }
+    }
+
+    /**
+     * @return the predicate pushed down into this scan, or null
+     */
+    public Predicate getPredicate() {
+        return predicate;
     }
 
     /**
@@ -90,6 +145,9 @@ public class SeqScan implements DbIterator {
      */
     public TupleDesc getTupleDesc() {
         TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        if (columns != null) {
+            td = ((ColumnFile) Database.getCatalog().getDbFile(tableid)).getTupleDesc(columns);
+        }
         
         Type[] typeArr = new Type[td.numFields()];
         String[] nameArr = new String[td.numFields()];
@@ -122,4 +180,61 @@ public class SeqScan implements DbIterator {
             TransactionAbortedException {
         itr.rewind();
     }
+
+    /**
+     * Returns the tuples of an iterator over all the tuples of a table which
+     * satisfy a predicate.
+     */
+    private static class FilterIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final DbFileIterator child;
+        private final Predicate predicate;
+        private Tuple next = null;
+
+        FilterIterator(DbFileIterator child, Predicate predicate) {
+            this.child = child;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        @Override
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (next == null && child.hasNext()) {
+                Tuple t = child.next();
+                if (predicate.filter(t)) {
+                    next = t;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more tuples.");
+            }
+            Tuple t = next;
+            next = null;
+            return t;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            next = null;
+            child.rewind();
+        }
+
+        @Override
+        public void close() {
+            next = null;
+            child.close();
+        }
+    }
 }
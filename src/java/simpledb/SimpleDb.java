@@ -1,6 +1,7 @@
 package simpledb;
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 public class SimpleDb {
     public static void main (String args[])
@@ -8,6 +9,34 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // a trailing "checksums" ends each heap page with a checksum
+            boolean checksums = args[args.length - 1].equals("checksums");
+            if (checksums) {
+                args = Arrays.copyOf(args, args.length - 1);
+            }
+            // a trailing "pagesize=<bytes>" writes heap pages of that size
+            int pageSize = BufferPool.PAGE_SIZE;
+            if (args[args.length - 1].startsWith("pagesize=")) {
+                pageSize = Integer.parseInt(args[args.length - 1].substring("pagesize=".length()));
+                args = Arrays.copyOf(args, args.length - 1);
+            }
+            // a trailing "slotted" writes slotted pages instead of heap pages,
+            // a trailing "columnar" a ColumnFile, and "compressed" a ColumnFile
+            // with compressed int columns
+            boolean slotted = args[args.length - 1].equals("slotted");
+            boolean compressed = args[args.length - 1].equals("compressed");
+            boolean columnar = compressed || args[args.length - 1].equals("columnar");
+            if (slotted || columnar) {
+                args = Arrays.copyOf(args, args.length - 1);
+            }
+            if ((slotted || columnar) && pageSize != BufferPool.PAGE_SIZE) {
+                System.err.println("Only heap pages may have another page size");
+                return;
+            }
+            if ((slotted || columnar) && checksums) {
+                System.err.println("Only heap pages may have checksums");
+                return;
+            }
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -44,8 +73,13 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
+            if (slotted)
+                HeapFileEncoder.convertSlotted(sourceTxtFile,targetDatFile,ts,fieldSeparator);
+            else if (columnar)
+                HeapFileEncoder.convertColumnar(sourceTxtFile,targetDatFile,ts,fieldSeparator,compressed);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        pageSize,numOfAttributes,ts,fieldSeparator,checksums);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -68,6 +102,107 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("scanbench")) {
+            // compare scans of a table read with read() and through a
+            // mapping; the page size is that of the file
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Usage: scanbench <file.dat> <columns> [warm scans]");
+                return;
+            }
+            File tableFile = new File(args[1]);
+            int columns = Integer.parseInt(args[2]);
+            int warmScans = args.length == 4 ? Integer.parseInt(args[3]) : 5;
+            HeapFile hf = new HeapFile(tableFile, Utility.getTupleDesc(columns));
+            System.out.println("page size: " + hf.getPageSize() + " bytes"
+                    + (hf.hasChecksums() ? ", with checksums" : ""));
+            benchScans(tableFile, columns, warmScans, true);
+        }
+        else if (args[0].equals("checksumbench")) {
+            // compare scans of a table of int columns written with and
+            // without page checksums
+            if (args.length < 3 || args.length > 4) {
+                System.err.println("Usage: checksumbench <file.txt> <columns> [warm scans]");
+                return;
+            }
+            File sourceTxtFile = new File(args[1]);
+            int columns = Integer.parseInt(args[2]);
+            int warmScans = args.length == 4 ? Integer.parseInt(args[3]) : 5;
+            Type[] ts = Utility.getTypes(columns);
+            File[] tableFiles = new File[2];
+            for (int i = 0; i < 2; i++) {
+                tableFiles[i] = File.createTempFile("checksumbench", ".dat");
+                tableFiles[i].deleteOnExit();
+                HeapFileEncoder.convert(sourceTxtFile, tableFiles[i], BufferPool.PAGE_SIZE,
+                        columns, ts, ',', i == 1);
+                // an unprinted round first, so that both are measured with
+                // the scan code compiled
+                benchScans(tableFiles[i], columns, warmScans, false);
+            }
+            double[][] rates = new double[2][];
+            for (int i = 0; i < 2; i++) {
+                System.out.println(i == 1 ? "with checksums:" : "without checksums:");
+                rates[i] = benchScans(tableFiles[i], columns, warmScans, true);
+            }
+            System.out.printf("warm scan overhead: read %5.1f%%   mmap %5.1f%%%n",
+                    100 * (rates[0][0] / rates[1][0] - 1), 100 * (rates[0][1] / rates[1][1] - 1));
+            // the checksums alone, over pages already in memory
+            byte[] pages = new byte[64 * BufferPool.PAGE_SIZE];
+            new Random(0).nextBytes(pages);
+            long start = System.nanoTime();
+            long bytes = 0;
+            while (System.nanoTime() - start < 1000000000L) {
+                for (int p = 0; p < pages.length; p += BufferPool.PAGE_SIZE) {
+                    HeapFile.checksum(ByteBuffer.wrap(pages, p,
+                            BufferPool.PAGE_SIZE - HeapFile.CHECKSUM_SIZE));
+                }
+                bytes += pages.length;
+            }
+            System.out.printf("CRC-32C of %d-byte pages: %8.1f MB/s%n", BufferPool.PAGE_SIZE,
+                    bytes * 1e9 / (System.nanoTime() - start) / (1024 * 1024));
+        }
+        else if (args[0].equals("aggbench")) {
+            // merge rows of (group, value) ints into IntegerAggregators
+            if (args.length > 4) {
+                System.err.println("Usage: aggbench [rows] [groups] [runs]");
+                return;
+            }
+            int rows = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+            int groups = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+            int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+            TupleDesc td = Utility.getTupleDesc(2);
+            byte[] data = new byte[rows * td.getSize()];
+            Tuple[] tuples = new Tuple[rows];
+            Random random = new Random(0);
+            for (int i = 0; i < rows; i++) {
+                int offset = i * td.getSize();
+                Type.writeInt(data, offset, random.nextInt(groups));
+                Type.writeInt(data, offset + 4, random.nextInt(1000));
+                tuples[i] = new Tuple(td, null, data, offset);
+            }
+            System.out.println(rows + " rows, " + groups + " groups");
+            for (int gbfield : new int[] { Aggregator.NO_GROUPING, 0 }) {
+                for (Aggregator.Op op : Aggregator.Op.values()) {
+                    // the first run is not counted, so that the merge is
+                    // measured compiled
+                    long best = Long.MAX_VALUE;
+                    for (int r = 0; r <= runs; r++) {
+                        long start = System.nanoTime();
+                        IntegerAggregator agg = new IntegerAggregator(gbfield,
+                                gbfield == 0 ? Type.INT_TYPE : null, 1, op);
+                        for (Tuple t : tuples) {
+                            agg.mergeTupleIntoGroup(t);
+                        }
+                        long nanos = System.nanoTime() - start;
+                        if (r > 0) {
+                            best = Math.min(best, nanos);
+                        }
+                    }
+                    System.out.printf("%-8s %-5s %8.1f M rows/s%n",
+                            gbfield == 0 ? "grouped" : "single", op,
+                            rows * 1000.0 / best);
+                }
+            }
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -97,4 +232,61 @@ public class SimpleDb {
         }
     }
 
+    /**
+     * Scans the table of the specified file once cold and then warm, read with
+     * read() and through a mapping, and prints the times and rates if so
+     * specified.
+     *
+     * @return the warm rates in MB/s, of reads and of the mapping
+     */
+    private static double[] benchScans(File tableFile, int columns, int warmScans,
+            boolean print)
+            throws DbException, TransactionAbortedException, IOException {
+        double mb = tableFile.length() / (1024.0 * 1024.0);
+        double[] rates = new double[2];
+        for (boolean mapped : new boolean[] { false, true }) {
+            TupleDesc td = Utility.getTupleDesc(columns);
+            HeapFile table = mapped ? new MappedHeapFile(tableFile, td)
+                    : new HeapFile(tableFile, td);
+            Database.getCatalog().addTable(table, UUID.randomUUID().toString());
+            // the buffer pool is reset before every scan so that every
+            // page is read from the file; the first scan also opens the
+            // file (and maps it), later ones reuse the open file
+            long cold = scanMillis(table);
+            long warm = 0;
+            for (int i = 0; i < warmScans; i++) {
+                warm += scanMillis(table);
+            }
+            rates[mapped ? 1 : 0] = mb * 1000 * warmScans / Math.max(warm, 1);
+            if (!print) {
+                continue;
+            }
+            System.out.printf("%-5s cold: %6d ms %8.1f MB/s   warm: %8.1f ms %8.1f MB/s%n",
+                    mapped ? "mmap" : "read", cold, mb * 1000 / Math.max(cold, 1),
+                    (double) warm / warmScans, rates[mapped ? 1 : 0]);
+        }
+        return rates;
+    }
+
+    /**
+     * Scans the table through a freshly reset buffer pool.
+     *
+     * @return the time the scan took, in milliseconds
+     */
+    private static long scanMillis(DbFile table)
+            throws DbException, TransactionAbortedException, IOException {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.currentTimeMillis();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+        long millis = System.currentTimeMillis() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return millis;
+    }
+
 }
@@ -0,0 +1,73 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are SlottedPages, which store
+ * strings with their actual length instead of padding them to
+ * Type.STRING_LEN. Tables with mostly short strings need an order of
+ * magnitude fewer pages than in a plain HeapFile, so scans read fewer pages
+ * and keep fewer pages in the buffer pool. Tables with only int fields gain
+ * nothing, as the slot directory takes more room than the header bitmap of a
+ * HeapPage.
+ * <p>
+ * Slotted files are created with {@link HeapFileEncoder#convertSlotted} and
+ * loaded with the <tt>slotted</tt> table option of Catalog.loadSchema.
+ *
+ * @see SlottedPage
+ * @see Catalog#loadSchema
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a slotted heap file with the specified page size backed by
+     * the specified file.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, int)
+     */
+    public SlottedHeapFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    @Override
+    TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedPage(pid, getTupleDesc(), data, getPageDataSize());
+    }
+
+    @Override
+    TuplePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        byte[] b = new byte[Math.min(data.remaining(), getPageDataSize())];
+        data.duplicate().get(b);
+        return createPage(pid, b);
+    }
+
+    @Override
+    int getFreeSpaceHeaderSize() {
+        return SlottedPage.HEADER_SIZE;
+    }
+
+    @Override
+    int getFreeSpace(byte[] header) {
+        return SlottedPage.getFreeSpace(header, getPageDataSize());
+    }
+
+    @Override
+    int getFreeSpaceNeeded(Tuple t) {
+        return SlottedPage.getFreeSpaceNeeded(t);
+    }
+}
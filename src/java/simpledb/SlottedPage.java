@@ -0,0 +1,395 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * SlottedPage is a page of a SlottedHeapFile. Unlike HeapPage, whose tuples
+ * all occupy a slot of the fixed size given by the TupleDesc, it stores
+ * strings with their actual length, so that tables of short strings fit many
+ * more tuples on a page.
+ * <p>
+ * The page starts with a header of two unsigned shorts: the number of slots,
+ * and the offset of the start of the tuple data (0 standing for the page
+ * size, so that a page of zeros is empty). The header is
+ * followed by the slot directory, which has for each slot the offset and the
+ * length of its tuple as two unsigned shorts, offset 0 marking an empty slot.
+ * Tuples are packed at the end of the page, growing towards the directory.
+ * <p>
+ * In a tuple, an int field takes 4 bytes, and a string field a 2 byte length
+ * followed by that many bytes of the string encoded in {@link #CHARSET}. Deleting a tuple compacts the tuple
+ * data, so the free space of a page is always contiguous. Slot numbers, and
+ * hence RecordIds, never change while the slot is used.
+ *
+ * @see SlottedHeapFile
+ * @see BufferPool
+ */
+public class SlottedPage implements TuplePage {
+
+    /** Size of the header at the start of the page. */
+    public static final int HEADER_SIZE = 4;
+    /** Size of an entry of the slot directory. */
+    public static final int SLOT_SIZE = 4;
+    /** Number of bytes of free space in one unit of the FreeSpaceMap. */
+    public static final int FREE_SPACE_UNIT = 16;
+    /** Charset with which strings are stored. */
+    public static final Charset CHARSET = StandardCharsets.UTF_8;
+
+    HeapPageId pid;
+    TupleDesc td;
+    /** The bytes of the page, in the on-disk format. */
+    byte[] data;
+    /**
+     * The contents of the page before the transaction which dirtied it made
+     * any change, or null if they are the current contents.
+     */
+    byte[] oldData;
+
+    private TransactionId lastDirtyTid;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk. The
+     * page keeps a private copy of the data, which callers may reuse.
+     *
+     * @see Catalog#getTupleDesc
+     * @see HeapFile#getPageDataSize
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data,
+                HeapFile.getPageDataSize(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedPage of the specified size of a table which need not
+     * be in the catalog.
+     */
+    SlottedPage(HeapPageId id, TupleDesc td, byte[] data, int pageSize) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.data = new byte[pageSize];
+        System.arraycopy(data, 0, this.data, 0, Math.min(data.length, pageSize));
+        if (getDataStart() < HEADER_SIZE + getNumSlots() * SLOT_SIZE) {
+            throw new IOException("corrupt slotted page " + id.pageNumber());
+        }
+    }
+
+    private int getShort(int pos) {
+        return ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+    }
+
+    private void putShort(int pos, int value) {
+        data[pos] = (byte) (value >>> 8);
+        data[pos + 1] = (byte) value;
+    }
+
+    /**
+     * @return the number of entries in the slot directory
+     */
+    public int getNumSlots() {
+        return getShort(0);
+    }
+
+    private int getDataStart() {
+        int start = getShort(2);
+        return start == 0 ? data.length : start;
+    }
+
+    private void setDataStart(int start) {
+        putShort(2, start == data.length ? 0 : start);
+    }
+
+    private int slotOffset(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private int slotLength(int slot) {
+        return getShort(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slot, int offset, int length) {
+        putShort(HEADER_SIZE + slot * SLOT_SIZE, offset);
+        putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, length);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int slot) {
+        return slot < getNumSlots() && slotOffset(slot) != 0;
+    }
+
+    /**
+     * @return the number of bytes between the slot directory and the tuple
+     *         data
+     */
+    public int getFreeBytes() {
+        return getDataStart() - HEADER_SIZE - getNumSlots() * SLOT_SIZE;
+    }
+
+    /**
+     * Computes the free space of a page, as recorded by the FreeSpaceMap,
+     * from its header.
+     *
+     * @param header
+     *            the first {@link #HEADER_SIZE} bytes of the page
+     * @param pageSize
+     *            the size of the page
+     */
+    static int getFreeSpace(byte[] header, int pageSize) {
+        int numSlots = ((header[0] & 0xff) << 8) | (header[1] & 0xff);
+        int start = ((header[2] & 0xff) << 8) | (header[3] & 0xff);
+        if (start == 0) {
+            start = pageSize;
+        }
+        return toFreeSpace(start - HEADER_SIZE - numSlots * SLOT_SIZE);
+    }
+
+    private static int toFreeSpace(int freeBytes) {
+        return Math.min(Math.max(freeBytes, 0) / FREE_SPACE_UNIT, FreeSpaceMap.MAX_FREE_SPACE);
+    }
+
+    /**
+     * Returns the free space a page needs to be sure to hold the specified
+     * tuple in a new slot.
+     */
+    static int getFreeSpaceNeeded(Tuple t) {
+        int bytes = getTupleLength(t) + SLOT_SIZE;
+        return Math.min((bytes + FREE_SPACE_UNIT - 1) / FREE_SPACE_UNIT,
+                FreeSpaceMap.MAX_FREE_SPACE);
+    }
+
+    @Override
+    public int getFreeSpace() {
+        return toFreeSpace(getFreeBytes());
+    }
+
+    /**
+     * @return the number of bytes the specified tuple takes on a page
+     */
+    static int getTupleLength(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int length = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                length += 4;
+            } else {
+                length += 2 + encode(t.getField(i)).length;
+            }
+        }
+        return length;
+    }
+
+    private static byte[] encode(Field f) {
+        return ((StringField) f).getValue().getBytes(CHARSET);
+    }
+
+    /**
+     * Returns the first empty slot, or the number of slots if there is none.
+     */
+    private int findEmptySlot() {
+        int numSlots = getNumSlots();
+        for (int i = 0; i < numSlots; i++) {
+            if (slotOffset(i) == 0) {
+                return i;
+            }
+        }
+        return numSlots;
+    }
+
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        int needed = getTupleLength(t);
+        if (findEmptySlot() == getNumSlots()) {
+            needed += SLOT_SIZE;
+        }
+        return needed <= getFreeBytes();
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the tuple does not fit on the page or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("TupleDesc is mismatch.");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("the page is full.");
+        }
+        int slot = findEmptySlot();
+        if (slot == getNumSlots()) {
+            putShort(0, slot + 1);
+        }
+        int length = getTupleLength(t);
+        int offset = getDataStart() - length;
+        int pos = offset;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                int v = ((IntField) t.getField(i)).getValue();
+                data[pos++] = (byte) (v >>> 24);
+                data[pos++] = (byte) (v >>> 16);
+                data[pos++] = (byte) (v >>> 8);
+                data[pos++] = (byte) v;
+            } else {
+                byte[] s = encode(t.getField(i));
+                putShort(pos, s.length);
+                System.arraycopy(s, 0, data, pos + 2, s.length);
+                pos += 2 + s.length;
+            }
+        }
+        setSlot(slot, offset, length);
+        setDataStart(offset);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Delete the specified tuple from the page, and move the tuples stored
+     * below it up so that the free space stays contiguous.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        if (!t.getRecordId().getPageId().equals(pid)) {
+            throw new DbException("this tuple is not on this page.");
+        }
+        int slot = t.getRecordId().tupleno();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        int offset = slotOffset(slot);
+        int length = slotLength(slot);
+        int start = getDataStart();
+        System.arraycopy(data, start, data, start + length, offset - start);
+        int numSlots = getNumSlots();
+        for (int i = 0; i < numSlots; i++) {
+            int o = slotOffset(i);
+            if (o != 0 && o < offset) {
+                setSlot(i, o + length, slotLength(i));
+            }
+        }
+        setSlot(slot, 0, 0);
+        setDataStart(start + length);
+        // trailing empty slots are not referred to by any RecordId
+        while (numSlots > 0 && slotOffset(numSlots - 1) == 0) {
+            numSlots--;
+        }
+        putShort(0, numSlots);
+    }
+
+    /**
+     * Decodes the tuple in the specified slot.
+     */
+    private Tuple getTuple(int slot) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        int pos = slotOffset(slot);
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                t.setField(i, new IntField(Type.readInt(data, pos)));
+                pos += 4;
+            } else {
+                int length = getShort(pos);
+                t.setField(i, new StringField(new String(data, pos + 2, length, CHARSET), Type.STRING_LEN));
+                pos += 2 + length;
+            }
+        }
+        return t;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    @Override
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed to the SlottedPage constructor.
+     */
+    @Override
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    @Override
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty) {
+            if (oldData == null) {
+                oldData = data.clone();
+            }
+            lastDirtyTid = tid;
+        } else {
+            lastDirtyTid = null;
+        }
+    }
+
+    @Override
+    public TransactionId isDirty() {
+        return lastDirtyTid;
+    }
+
+    @Override
+    public SlottedPage getBeforeImage() {
+        try {
+            return new SlottedPage(pid, td, oldData != null ? oldData : data, data.length);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    @Override
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, in slot order
+     */
+    @Override
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int cur = advance(0);
+
+            private int advance(int slot) {
+                while (slot < getNumSlots() && !isSlotUsed(slot)) {
+                    slot++;
+                }
+                return slot;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return cur < getNumSlots();
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("no more tuples.");
+                }
+                Tuple result = getTuple(cur);
+                cur = advance(cur + 1);
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -18,8 +18,8 @@ public class StringAggregator implements Aggregator {
     private int afield;
     private Op op;
     
-    private int nogroup;
-    private HashMap<Field, Integer> group;
+    private long nogroup;
+    private HashMap<Field, Long> group;
     
     /**
      * Aggregate constructor
@@ -40,7 +40,7 @@ public class StringAggregator implements Aggregator {
         this.op = what;
         nogroup = 0;
         if (this.gbfield != Aggregator.NO_GROUPING) {
-            group = new HashMap<Field, Integer>();
+            group = new HashMap<Field, Long>();
         }
     }
 
@@ -53,7 +53,7 @@ public class StringAggregator implements Aggregator {
             nogroup++; 
         } else {
             Field f = tup.getField(gbfield);
-            group.put(f, group.getOrDefault(f, 0) + 1);
+            group.put(f, group.getOrDefault(f, 0L) + 1);
         }
     }
 
@@ -70,18 +70,20 @@ public class StringAggregator implements Aggregator {
         TupleDesc td;
         
         if (gbfield == Aggregator.NO_GROUPING) {
-            td = Utility.getTupleDesc(1);
+            td = new TupleDesc(new Type[] {Type.LONG_TYPE});
             // if nogroup == 0, let tuples be empty
             // To be consistent with IntegerAggregator
             if (nogroup != 0) {
-                tuples.add(Utility.getTuple(new int[] {nogroup}, 1));
+                Tuple t = new Tuple(td);
+                t.setField(0, new LongField(nogroup));
+                tuples.add(t);
             }
         } else {
-            td = new TupleDesc(new Type[] {gbfieldtype, Type.INT_TYPE});
-            for (Map.Entry<Field, Integer> e : group.entrySet()) {
+            td = new TupleDesc(new Type[] {gbfieldtype, Type.LONG_TYPE});
+            for (Map.Entry<Field, Long> e : group.entrySet()) {
                 Tuple t = new Tuple(td);
                 t.setField(0, e.getKey());
-                t.setField(1, new IntField(e.getValue()));
+                t.setField(1, new LongField(e.getValue()));
                 tuples.add(t);
             }
         }
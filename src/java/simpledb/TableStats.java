@@ -70,7 +70,7 @@ public class TableStats {
     // every element is either IntHistogram or StringHistogram
     // based on corresponding field type.
     private Object[] histograms;
-    private HeapFile df;
+    private DbFile df;
     private int totalTups = 0;
     private int ioCostPerPage;
     
@@ -86,7 +86,7 @@ public class TableStats {
      */
     public TableStats(int tableid, int ioCostPerPage) {
         this.ioCostPerPage = ioCostPerPage;
-        df = (HeapFile) Database.getCatalog().getDbFile(tableid);
+        df = Database.getCatalog().getDbFile(tableid);
         TupleDesc td = df.getTupleDesc();
         
         histograms = new Object[td.numFields()];
@@ -162,10 +162,17 @@ public class TableStats {
      * expensive to read as a full page. (Most real hard drives can't
      * efficiently address regions smaller than a page at a time.)
      * 
+     * The cost per page is that of a page of the default size; the pages of
+     * a HeapFile with larger pages cost proportionally more to read.
+     * 
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        return ioCostPerPage * df.numPages();
+        if (df instanceof ColumnFile) {
+            return ioCostPerPage * ((ColumnFile) df).numPages();
+        }
+        HeapFile hf = (HeapFile) df;
+        return (double) ioCostPerPage * hf.numPages() * hf.getPageSize() / BufferPool.PAGE_SIZE;
     }
 
     /**
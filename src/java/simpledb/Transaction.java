@@ -46,18 +46,19 @@ public class Transaction {
             //write commit / abort records
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
-            } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
-                Database.getLogFile().logCommit(tid);
-            }
 
-            try {
+                try {
 
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+                    Database.getBufferPool().transactionComplete(tid, false); // release locks
 
-            } catch (IOException e) {
-                e.printStackTrace();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                //write all the dirty pages for this transaction out, or log
+                //them if the buffer pool has a page writer, write the commit
+                //record and release locks
+                Database.getBufferPool().transactionComplete(tid, true);
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
@@ -1,14 +1,25 @@
 package simpledb;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ArrayList;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple may instead be backed by bytes holding it in the format written by
+ * {@link Field#serialize}, at the fixed offsets given by its TupleDesc:
+ * tuples read from HeapPages refer to the bytes of their page, and tuples
+ * built by {@link #merge}, {@link #project} and {@link #keep} own a copy of
+ * just their bytes. Operators which buffer tuples keep such copies, so that
+ * a buffered row does not keep its whole page alive. {@link #getInt} reads
+ * the int fields of such a tuple straight from the bytes, and
+ * {@link #getField} decodes a Field the first time a field is read. Setting
+ * a field of such a tuple decodes all its fields, and detaches it from the
+ * bytes.
  */
 public class Tuple implements Serializable {
 
@@ -16,7 +27,18 @@ public class Tuple implements Serializable {
     
     private TupleDesc tupleDesc;
     private RecordId rid;
-    private List<Field> fieldList;
+    /**
+     * The fields of this tuple, null where not set. If the tuple is backed by
+     * data, the fields decoded so far, null where not decoded yet, or null if
+     * none are.
+     */
+    private Field[] fields;
+    /**
+     * The serialized tuple the fields are decoded from, or null if the fields
+     * are set explicitly. It must not change while this tuple refers to it.
+     */
+    private byte[] data;
+    private int offset;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -27,9 +49,101 @@ public class Tuple implements Serializable {
      */
     public Tuple(TupleDesc td) {
         tupleDesc = td;
-        fieldList = new ArrayList<Field>();
-        for (int i = 0; i < tupleDesc.numFields(); i++) {
-            fieldList.add(null);
+        fields = new Field[td.numFields()];
+    }
+
+    /**
+     * Create a tuple whose fields are decoded from the specified bytes, which
+     * hold the tuple in the format written by {@link Field#serialize}, when
+     * they are accessed.
+     *
+     * @param td
+     *            the schema of this tuple
+     * @param rid
+     *            the location of this tuple
+     * @param data
+     *            the bytes holding the tuple, which must not be modified
+     *            afterwards
+     * @param offset
+     *            the offset of the tuple in data
+     */
+    Tuple(TupleDesc td, RecordId rid, byte[] data, int offset) {
+        this.tupleDesc = td;
+        this.rid = rid;
+        this.data = data;
+        this.offset = offset;
+    }
+
+    /**
+     * Returns a tuple with the specified schema which is the concatenation of
+     * the specified tuples, as output by a join. It is backed by a copy of
+     * the bytes of the two tuples.
+     *
+     * @param td
+     *            the schema of the tuple, the merge of those of t1 and t2
+     * @see TupleDesc#merge
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        byte[] b = new byte[td.getSize()];
+        t1.copyTo(b, 0);
+        t2.copyTo(b, t1.tupleDesc.getSize());
+        return new Tuple(td, null, b, 0);
+    }
+
+    /**
+     * Returns a tuple with the specified schema holding the specified fields
+     * of another tuple, as output by a projection. If that tuple is backed by
+     * bytes, the projected tuple is backed by a copy of the bytes of the
+     * fields, and keeps its RecordId.
+     *
+     * @param td
+     *            the schema of the projected tuple
+     * @param fieldIds
+     *            the index in t of each field of the projected tuple
+     */
+    public static Tuple project(TupleDesc td, Tuple t, List<Integer> fieldIds) {
+        if (t.data == null) {
+            Tuple p = new Tuple(td);
+            p.setRecordId(t.getRecordId());
+            for (int i = 0; i < td.numFields(); i++) {
+                p.setField(i, t.getField(fieldIds.get(i)));
+            }
+            return p;
+        }
+        byte[] b = new byte[td.getSize()];
+        for (int i = 0; i < td.numFields(); i++) {
+            int j = fieldIds.get(i);
+            System.arraycopy(t.data, t.offset + t.tupleDesc.getFieldOffset(j), b,
+                    td.getFieldOffset(i), t.tupleDesc.getFieldType(j).getLen());
+        }
+        return new Tuple(td, t.getRecordId(), b, 0);
+    }
+
+    /**
+     * Returns this tuple, or, if it refers to bytes which hold more than it,
+     * such as those of the page it was read from, a tuple backed by a copy of
+     * just its bytes, with the same RecordId. Operators which buffer the
+     * tuples of their children buffer these.
+     */
+    Tuple keep() {
+        int size = tupleDesc.getSize();
+        if (data == null || (offset == 0 && data.length == size)) {
+            return this;
+        }
+        return new Tuple(tupleDesc, rid, Arrays.copyOfRange(data, offset, offset + size), 0);
+    }
+
+    /**
+     * Writes this tuple, in the format written by {@link Field#serialize}, to
+     * the specified offset of the specified bytes.
+     */
+    void copyTo(byte[] b, int off) {
+        if (data != null) {
+            System.arraycopy(data, offset, b, off, tupleDesc.getSize());
+            return;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            tupleDesc.getFieldType(i).write(fields[i], b, off + tupleDesc.getFieldOffset(i));
         }
     }
 
@@ -67,7 +181,13 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
-        fieldList.set(i, f);
+        if (data != null) {
+            for (int j = 0; j < tupleDesc.numFields(); j++) {
+                getField(j);
+            }
+            data = null;
+        }
+        fields[i] = f;
     }
 
     /**
@@ -77,7 +197,55 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return fieldList.get(i);
+        if (data != null) {
+            if (fields == null) {
+                fields = new Field[tupleDesc.numFields()];
+            }
+            if (fields[i] == null) {
+                fields[i] = tupleDesc.getFieldType(i).parse(data,
+                        offset + tupleDesc.getFieldOffset(i));
+            }
+        }
+        return fields[i];
+    }
+
+    /**
+     * Returns the value of the ith field, which must be an int field. A tuple
+     * backed by bytes reads it from the bytes without creating a Field.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     * @throws IllegalArgumentException
+     *             if the field is not an int field
+     */
+    public int getInt(int i) {
+        if (tupleDesc.getFieldType(i) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("field " + i + " is not an int field.");
+        }
+        if (data != null) {
+            return Type.readInt(data, offset + tupleDesc.getFieldOffset(i));
+        }
+        return ((IntField) fields[i]).getValue();
+    }
+
+    /**
+     * Compares a field of one tuple with a field of another, comparing int
+     * fields without creating Fields.
+     *
+     * @return a negative number, zero or a positive number if the field of
+     *         t1 is less than, equal to or greater than that of t2
+     */
+    static int compare(Tuple t1, int i1, Tuple t2, int i2) {
+        if (t1.tupleDesc.getFieldType(i1) == Type.INT_TYPE
+                && t2.tupleDesc.getFieldType(i2) == Type.INT_TYPE) {
+            return Integer.compare(t1.getInt(i1), t2.getInt(i2));
+        }
+        Field f1 = t1.getField(i1);
+        Field f2 = t2.getField(i2);
+        if (f1.compare(Predicate.Op.EQUALS, f2)) {
+            return 0;
+        }
+        return f1.compare(Predicate.Op.LESS_THAN, f2) ? -1 : 1;
     }
 
     /**
@@ -90,8 +258,8 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Field f : fieldList) {
-            sb.append(f);
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            sb.append(getField(i));
             sb.append("\t");
         }
         sb.replace(sb.length() - 1, sb.length() - 1, "");
@@ -104,6 +272,11 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-        return fieldList.iterator();
+        if (data != null) {
+            for (int i = 0; i < tupleDesc.numFields(); i++) {
+                getField(i);
+            }
+        }
+        return Arrays.asList(fields).iterator();
     }
 }
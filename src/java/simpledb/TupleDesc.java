@@ -42,6 +42,8 @@ public class TupleDesc implements Serializable {
 
     private List<TDItem> tdItemList;
     private int sizeInBytes;
+    /** Offset of each field in the serialized form of a tuple. */
+    private int[] fieldOffsets;
     
     /**
      * @return
@@ -66,10 +68,12 @@ public class TupleDesc implements Serializable {
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
         tdItemList = new ArrayList<TDItem>();
         sizeInBytes = 0;
+        fieldOffsets = new int[typeAr.length];
         for (int i = 0; i < typeAr.length; i++) {
             Type fieldType = typeAr[i];
             String fieldName = fieldAr[i];
             tdItemList.add(new TDItem(fieldType, fieldName));
+            fieldOffsets[i] = sizeInBytes;
             sizeInBytes += fieldType.getLen();
         }
     }
@@ -156,6 +160,16 @@ public class TupleDesc implements Serializable {
         return sizeInBytes;
     }
 
+    /**
+     * @param i
+     *            the index of the field. It must be a valid index.
+     * @return the offset in bytes of the ith field from the start of a
+     *         serialized tuple of this TupleDesc
+     */
+    public int getFieldOffset(int i) {
+        return fieldOffsets[i];
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * TuplePage is a Page of a HeapFile, which stores tuples of the table in
+ * slots. HeapFile works with its pages only through this interface, so that
+ * different page formats can be used for the same kind of file.
+ *
+ * @see HeapPage
+ * @see SlottedPage
+ * @see HeapFile
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *         this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException
+     *             if the tuple does not fit on the page or its TupleDesc does
+     *             not match the page
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     *
+     * @throws DbException
+     *             if the tuple is not on this page, or its slot is already
+     *             empty
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return true if the specified tuple fits on the page
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * Returns the amount of room left on the page, as recorded by the
+     * FreeSpaceMap of the file. The unit depends on the page format, but 0
+     * always means that no tuple fits.
+     *
+     * @return the free space of the page, between 0 and
+     *         {@link FreeSpaceMap#MAX_FREE_SPACE}
+     */
+    public int getFreeSpace();
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * TwoQueueEvictionPolicy implements the full 2Q replacement algorithm
+ * (Johnson and Shasha). Pages read for the first time enter the FIFO queue
+ * A1in. When a page is evicted from A1in its id is remembered in the ghost
+ * queue A1out; a page which is read again while it is remembered in A1out is
+ * considered hot and enters the LRU queue Am. Pages which are referenced only
+ * once, such as pages read by a sequential scan, therefore never displace the
+ * pages in Am.
+ * <p>
+ * Only evictable frames are linked into the queues, so a victim is always
+ * found at the head of a queue in O(1). A frame which becomes evictable again
+ * re-enters the tail of the queue it belongs to.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+
+    private static final int NONE = 0;
+    private static final int A1IN = 1;
+    private static final int AM = 2;
+
+    /** Target size of A1in, as suggested by the 2Q paper: 25% of the pool. */
+    private final int kin;
+    /** Maximum number of page ids remembered in A1out: 50% of the pool. */
+    private final int kout;
+
+    private final PageId[] pids;
+    /** The queue each frame belongs to. */
+    private final int[] queue;
+    private final boolean[] evictable;
+    /** Number of frames in A1in, including frames not evictable. */
+    private int a1inSize;
+    /** Evictable frames of A1in in FIFO order. */
+    private final LinkedHashSet<Integer> a1in;
+    /** Evictable frames of Am in LRU order. */
+    private final LinkedHashSet<Integer> am;
+    /** Ids of pages recently evicted from A1in, oldest first. */
+    private final LinkedHashSet<PageId> a1out;
+
+    /**
+     * @param numFrames
+     *            the number of frames in the buffer pool
+     */
+    public TwoQueueEvictionPolicy(int numFrames) {
+        kin = Math.max(1, numFrames / 4);
+        kout = Math.max(1, numFrames / 2);
+        pids = new PageId[numFrames];
+        queue = new int[numFrames];
+        evictable = new boolean[numFrames];
+        a1inSize = 0;
+        a1in = new LinkedHashSet<Integer>();
+        am = new LinkedHashSet<Integer>();
+        a1out = new LinkedHashSet<PageId>();
+    }
+
+    @Override
+    public synchronized void frameLoaded(int frame, PageId pid) {
+        pids[frame] = pid;
+        evictable[frame] = false;
+        if (a1out.remove(pid)) {
+            queue[frame] = AM;
+        } else {
+            queue[frame] = A1IN;
+            a1inSize++;
+        }
+    }
+
+    @Override
+    public synchronized void frameAccessed(int frame) {
+        // accesses to pages in A1in are deliberately ignored: they are
+        // usually correlated references right after the page was read.
+        if (queue[frame] == AM && evictable[frame]) {
+            am.remove(frame);
+            am.add(frame);
+        }
+    }
+
+    @Override
+    public synchronized void frameRemoved(int frame) {
+        if (queue[frame] == NONE) {
+            return;
+        }
+        setEvictable(frame, false);
+        if (queue[frame] == A1IN) {
+            a1inSize--;
+            a1out.add(pids[frame]);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        queue[frame] = NONE;
+        pids[frame] = null;
+    }
+
+    @Override
+    public synchronized void setEvictable(int frame, boolean value) {
+        if (queue[frame] == NONE || evictable[frame] == value) {
+            return;
+        }
+        evictable[frame] = value;
+        LinkedHashSet<Integer> q = queue[frame] == A1IN ? a1in : am;
+        if (value) {
+            q.add(frame);
+        } else {
+            q.remove(frame);
+        }
+    }
+
+    @Override
+    public synchronized int victim() {
+        if (a1inSize > kin && !a1in.isEmpty()) {
+            return a1in.iterator().next();
+        }
+        if (!am.isEmpty()) {
+            return am.iterator().next();
+        }
+        if (!a1in.isEmpty()) {
+            return a1in.iterator().next();
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized int[] rankFrames() {
+        // Am before A1in; in each queue, the frames in use, which are not
+        // linked into it, then the linked ones from the tail
+        ArrayList<Integer> frames = new ArrayList<Integer>();
+        rankQueue(AM, am, frames);
+        rankQueue(A1IN, a1in, frames);
+        int[] ranked = new int[frames.size()];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = frames.get(i);
+        }
+        return ranked;
+    }
+
+    private void rankQueue(int q, LinkedHashSet<Integer> linked, ArrayList<Integer> frames) {
+        for (int i = 0; i < queue.length; i++) {
+            if (queue[i] == q && !evictable[i]) {
+                frames.add(i);
+            }
+        }
+        ArrayList<Integer> tail = new ArrayList<Integer>(linked);
+        Collections.reverse(tail);
+        frames.addAll(tail);
+    }
+}
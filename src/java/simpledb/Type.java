@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.util.Arrays;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] buf, int offset) {
+            return new IntField(readInt(buf, offset));
+        }
+
+        @Override
+        void write(Field f, byte[] buf, int offset) {
+            writeInt(buf, offset, ((IntField) f).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,73 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] buf, int offset) {
+            int strLen = readInt(buf, offset);
+            return new StringField(new String(buf, offset + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        void write(Field f, byte[] buf, int offset) {
+            String s = ((StringField) f).getValue();
+            int strLen = Math.min(s.length(), STRING_LEN);
+            writeInt(buf, offset, strLen);
+            for (int i = 0; i < strLen; i++) {
+                buf[offset + 4 + i] = (byte) s.charAt(i);
+            }
+            Arrays.fill(buf, offset + 4 + strLen, offset + 4 + STRING_LEN, (byte) 0);
+        }
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(byte[] buf, int offset) {
+            return new LongField(readLong(buf, offset));
+        }
+
+        @Override
+        void write(Field f, byte[] buf, int offset) {
+            writeLong(buf, offset, ((LongField) f).getValue());
+        }
+
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(byte[] buf, int offset) {
+            return new DoubleField(Double.longBitsToDouble(readLong(buf, offset)));
+        }
+
+        @Override
+        void write(Field f, byte[] buf, int offset) {
+            writeLong(buf, offset, Double.doubleToLongBits(((DoubleField) f).getValue()));
+        }
+
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +138,123 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object whose contents
+   *   are the serialized field starting at the specified offset of buf.
+   * @param buf The bytes to read from, in the format written by
+   *   {@link Field#serialize}
+   * @param offset The offset of the field in buf
+   */
+    public abstract Field parse(byte[] buf, int offset);
+
+  /**
+   * Writes the specified field of this type to buf, in the format written
+   * by {@link Field#serialize}.
+   * @param offset The offset of the field in buf
+   */
+    abstract void write(Field f, byte[] buf, int offset);
+
+  /**
+   * @return whether fields of this type hold numbers. Fields of the numeric
+   *   types compare with each other by value.
+   */
+    boolean isNumeric() {
+        return this != STRING_TYPE;
+    }
+
+  /**
+   * @return the specified field converted to this type, or the field itself
+   *   if it already has this type. A DOUBLE_TYPE field is truncated when
+   *   converted to an integer type.
+   * @throws IllegalArgumentException if either type is not numeric, or the
+   *   value of the field does not fit in this type.
+   */
+    Field convert(Field f) {
+        Type from = f.getType();
+        if (from == this) {
+            return f;
+        }
+        if (!isNumeric() || !from.isNumeric()) {
+            throw new IllegalArgumentException("cannot convert " + from + " to " + this);
+        }
+        if (this == DOUBLE_TYPE) {
+            return new DoubleField(doubleValue(f));
+        }
+        long v;
+        if (from == DOUBLE_TYPE) {
+            double d = doubleValue(f);
+            // (double) Long.MAX_VALUE is 2^63, which does not fit
+            if (!(d >= Long.MIN_VALUE && d < (double) Long.MAX_VALUE)) {
+                throw new IllegalArgumentException(d + " does not fit in " + this);
+            }
+            v = (long) d;
+        } else {
+            v = longValue(f);
+        }
+        if (this == LONG_TYPE) {
+            return new LongField(v);
+        }
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(v + " does not fit in " + this);
+        }
+        return new IntField((int) v);
+    }
+
+  /**
+   * @return the value of the specified IntField or LongField.
+   */
+    static long longValue(Field f) {
+        if (f instanceof IntField) {
+            return ((IntField) f).getValue();
+        }
+        return ((LongField) f).getValue();
+    }
+
+  /**
+   * @return the value of the specified numeric field as a double.
+   */
+    static double doubleValue(Field f) {
+        if (f instanceof DoubleField) {
+            return ((DoubleField) f).getValue();
+        }
+        return longValue(f);
+    }
+
+  /**
+   * @return the big-endian int starting at the specified offset of buf, as
+   *   written by DataOutputStream.writeInt.
+   */
+    static int readInt(byte[] buf, int offset) {
+        return (buf[offset] << 24) | ((buf[offset + 1] & 0xff) << 16)
+                | ((buf[offset + 2] & 0xff) << 8) | (buf[offset + 3] & 0xff);
+    }
+
+  /**
+   * Writes the specified int big-endian at the specified offset of buf, as
+   * DataOutputStream.writeInt does.
+   */
+    static void writeInt(byte[] buf, int offset, int v) {
+        buf[offset] = (byte) (v >>> 24);
+        buf[offset + 1] = (byte) (v >>> 16);
+        buf[offset + 2] = (byte) (v >>> 8);
+        buf[offset + 3] = (byte) v;
+    }
+
+  /**
+   * @return the big-endian long starting at the specified offset of buf, as
+   *   written by DataOutputStream.writeLong.
+   */
+    static long readLong(byte[] buf, int offset) {
+        return ((long) readInt(buf, offset) << 32) | (readInt(buf, offset + 4) & 0xffffffffL);
+    }
+
+  /**
+   * Writes the specified long big-endian at the specified offset of buf, as
+   * DataOutputStream.writeLong does.
+   */
+    static void writeLong(byte[] buf, int offset, long v) {
+        writeInt(buf, offset, (int) (v >>> 32));
+        writeInt(buf, offset + 4, (int) v);
+    }
+
 }
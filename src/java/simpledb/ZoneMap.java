@@ -0,0 +1,266 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * ZoneMap records the smallest and largest value of each int field on each
+ * page of a HeapFile, so that scans with a predicate on an int field can skip
+ * the pages on which no tuple can satisfy it.
+ * <p>
+ * The summary of a page only needs to contain the values on the page, not to
+ * be exact: inserting a tuple widens the summary of its page, and deleting a
+ * tuple leaves it unchanged. The summary of a page is recomputed from the
+ * page whenever the page is written to the table. A page with no tuples has
+ * an empty summary, whose minimum is larger than its maximum.
+ * <p>
+ * The map is persisted next to the table in a file with the suffix
+ * {@link #SUFFIX}, holding for each page the minimum and maximum of each int
+ * field, in field order, as ints. Like the {@link FreeSpaceMap}, the entry of
+ * a page is written whenever the page is written, and the map is rebuilt
+ * from the pages of the table if the map file is missing or out of date.
+ *
+ * @see HeapFile#iterator(TransactionId, Predicate)
+ */
+public class ZoneMap {
+
+    /** Suffix appended to the name of a table to name its map file. */
+    public static final String SUFFIX = ".zm";
+
+    private final HeapFile hf;
+    private final File file;
+    /** The index among the int fields of each field, or -1. */
+    private final int[] intIndex;
+    private final int numInts;
+    /** The minimum and maximum of each int field of each page. */
+    private int[] bounds;
+    /** The number of pages with a summary. */
+    private int numPages;
+    /** Channel of the map file, opened when the first entry is written. */
+    private FileChannel channel;
+
+    /**
+     * Loads the map of the specified table from its map file, rebuilding the
+     * map if the map file is missing or out of date.
+     */
+    ZoneMap(HeapFile hf) throws IOException {
+        this.hf = hf;
+        this.file = getMapFile(hf.getFile());
+        TupleDesc td = hf.getTupleDesc();
+        this.intIndex = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            intIndex[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        }
+        this.numInts = n;
+        int diskPages = hf.getDiskFileNumPages();
+        this.bounds = new int[2 * numInts * Math.max(diskPages, 16)];
+
+        int loaded = 0;
+        // unlike the free space, the bounds must be right, so a map file
+        // written in the same clock tick as the table is not trusted
+        if (file.exists() && Files.getLastModifiedTime(file.toPath()).compareTo(
+                Files.getLastModifiedTime(hf.getFile().toPath())) > 0) {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            loaded = numInts == 0 ? diskPages : Math.min(bytes.length / (8 * numInts), diskPages);
+            ByteBuffer.wrap(bytes).asIntBuffer().get(bounds, 0, 2 * numInts * loaded);
+            numPages = loaded;
+        }
+        // pages the map file does not cover are read from the table
+        FileChannel ch = hf.getChannel();
+        ByteBuffer buf = ByteBuffer.allocate(hf.getPageSize());
+        for (int i = loaded; i < diskPages; i++) {
+            buf.clear();
+            long pos = hf.getPageOffset(i);
+            while (buf.hasRemaining() && ch.read(buf, pos + buf.position()) >= 0) {
+            }
+            summarize(i, hf.createPage(new HeapPageId(hf.getId(), i), buf.array()));
+        }
+        if (loaded < diskPages && file.exists()) {
+            writeAll();
+        }
+    }
+
+    /**
+     * @return the map file of the table stored in the specified file
+     */
+    public static File getMapFile(File tableFile) {
+        return new File(tableFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Makes room for the summary of the specified page, with an empty
+     * summary for the pages before it which had none.
+     */
+    private void ensure(int pageNo) {
+        if (pageNo < numPages) {
+            return;
+        }
+        int length = 2 * numInts * (pageNo + 1);
+        if (length > bounds.length) {
+            bounds = Arrays.copyOf(bounds, Math.max(length, 2 * bounds.length));
+        }
+        for (int i = numPages; i <= pageNo; i++) {
+            clear(i);
+        }
+        numPages = pageNo + 1;
+    }
+
+    private void clear(int pageNo) {
+        for (int k = 0; k < numInts; k++) {
+            bounds[2 * (pageNo * numInts + k)] = Integer.MAX_VALUE;
+            bounds[2 * (pageNo * numInts + k) + 1] = Integer.MIN_VALUE;
+        }
+    }
+
+    private void widen(int pageNo, Tuple t) {
+        for (int i = 0; i < intIndex.length; i++) {
+            if (intIndex[i] >= 0) {
+                int v = ((IntField) t.getField(i)).getValue();
+                int pos = 2 * (pageNo * numInts + intIndex[i]);
+                bounds[pos] = Math.min(bounds[pos], v);
+                bounds[pos + 1] = Math.max(bounds[pos + 1], v);
+            }
+        }
+    }
+
+    /**
+     * Sets the summary of a page to the exact bounds of its tuples.
+     */
+    private void summarize(int pageNo, TuplePage page) {
+        ensure(pageNo);
+        clear(pageNo);
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            widen(pageNo, it.next());
+        }
+    }
+
+    /**
+     * Records a tuple inserted into a page in the buffer pool. The map file
+     * is not changed.
+     */
+    public synchronized void tupleInserted(int pageNo, Tuple t) {
+        ensure(pageNo);
+        widen(pageNo, t);
+    }
+
+    /**
+     * Widens the bounds of a page in the buffer pool to cover all its tuples,
+     * without narrowing them. The map file is not changed.
+     */
+    public synchronized void pageChanged(TuplePage page) {
+        int pageNo = page.getId().pageNumber();
+        ensure(pageNo);
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            widen(pageNo, it.next());
+        }
+    }
+
+    /**
+     * Records the bounds of a page which has been written to the table, and
+     * writes its entry to the map file.
+     */
+    public synchronized void pageWritten(TuplePage page) throws IOException {
+        int pageNo = page.getId().pageNumber();
+        summarize(pageNo, page);
+        writeEntry(pageNo);
+    }
+
+    /**
+     * Records the bounds of a page written to the table without going
+     * through the buffer pool, and writes its entry to the map file.
+     *
+     * @param pageBounds
+     *            the minimum and maximum of each int field on the page, in
+     *            field order
+     */
+    public synchronized void pageWritten(int pageNo, int[] pageBounds) throws IOException {
+        ensure(pageNo);
+        System.arraycopy(pageBounds, 0, bounds, 2 * numInts * pageNo, 2 * numInts);
+        writeEntry(pageNo);
+    }
+
+    private void writeEntry(int pageNo) throws IOException {
+        if (channel == null) {
+            // the first write creates the map file with all entries
+            writeAll();
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(8 * numInts);
+        buf.asIntBuffer().put(bounds, 2 * numInts * pageNo, 2 * numInts);
+        long pos = 8L * numInts * pageNo;
+        while (buf.hasRemaining()) {
+            channel.write(buf, pos + buf.position());
+        }
+    }
+
+    /**
+     * Forgets the pages from the specified page on, which have been removed
+     * from the end of the table.
+     */
+    public synchronized void truncate(int numPages) throws IOException {
+        this.numPages = Math.min(this.numPages, numPages);
+        if (channel != null) {
+            channel.truncate(8L * numInts * this.numPages);
+        }
+    }
+
+    /**
+     * Returns false if no tuple of the specified page can satisfy the
+     * specified predicate, according to the summary of the page.
+     *
+     * @param pageNo
+     *            the page
+     * @param p
+     *            a predicate on a field of the table
+     */
+    public synchronized boolean mayMatch(int pageNo, Predicate p) {
+        int k = intIndex[p.getField()];
+        if (k < 0 || pageNo >= numPages) {
+            return true;
+        }
+        int min = bounds[2 * (pageNo * numInts + k)];
+        int max = bounds[2 * (pageNo * numInts + k) + 1];
+        if (min > max) {
+            return false;
+        }
+        int c = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS:
+        case LIKE:
+            return min <= c && c <= max;
+        case NOT_EQUALS:
+            return min != c || max != c;
+        case GREATER_THAN:
+            return max > c;
+        case GREATER_THAN_OR_EQ:
+            return max >= c;
+        case LESS_THAN:
+            return min < c;
+        case LESS_THAN_OR_EQ:
+            return min <= c;
+        }
+        return true;
+    }
+
+    private void writeAll() throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(8 * numInts * numPages);
+        IntBuffer ints = buf.asIntBuffer();
+        ints.put(bounds, 0, 2 * numInts * numPages);
+        while (buf.hasRemaining()) {
+            channel.write(buf, buf.position());
+        }
+        channel.truncate(buf.capacity());
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 16;
+    private static final int REQUESTS = 2000;
+    private static final int BUFFER_PAGES = 8;
+
+    private HeapFile hf;
+
+    /**
+     * Set up a table which is several times larger than the buffer pool.
+     */
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4 * BUFFER_PAGES, null, null);
+        Database.resetBufferPool(BUFFER_PAGES);
+    }
+
+    /**
+     * Many threads fetching random pages of the table, so that hits, misses
+     * and evictions of the same frames race with each other. Every request
+     * must return the requested page.
+     */
+    @Test public void concurrentGetPage() throws Exception {
+        final int numPages = hf.numPages();
+        final Exception[] errors = new Exception[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int t = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(t);
+                    try {
+                        for (int j = 0; j < REQUESTS; j++) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(numPages));
+                            Page page = Database.getBufferPool().getPage(null, pid,
+                                    Permissions.READ_ONLY);
+                            if (!pid.equals(page.getId())) {
+                                throw new DbException("got " + page.getId().pageNumber()
+                                        + " instead of " + pid.pageNumber());
+                            }
+                        }
+                    } catch (Exception e) {
+                        errors[t] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join();
+            assertNull(errors[i]);
+        }
+    }
+
+    /**
+     * A page dirtied through BufferPool.markDirty is never evicted, however
+     * many other pages are read concurrently.
+     */
+    @Test public void dirtyPageIsNotEvicted() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        assertEquals(true, Database.getBufferPool().markDirty(page, tid));
+        concurrentGetPage();
+        assertEquals(page, Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE));
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
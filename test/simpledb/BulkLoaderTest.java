@@ -0,0 +1,246 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] {
+            Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES);
+
+    private static File createTempFile(String suffix) throws Exception {
+        File f = File.createTempFile("table", suffix);
+        f.deleteOnExit();
+        FreeSpaceMap.getMapFile(f).deleteOnExit();
+        ZoneMap.getMapFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Writes a text file of the specified rows, each row i being
+     * "i,s<i>,-i".
+     */
+    private static File writeText(int from, int to) throws Exception {
+        File text = createTempFile(".txt");
+        FileWriter w = new FileWriter(text);
+        for (int i = from; i < to; i++) {
+            w.write(i + ",s" + i + "," + (-i) + "\n");
+        }
+        w.close();
+        return text;
+    }
+
+    private static ArrayList<Tuple> scan(HeapFile hf) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    private static void checkRows(ArrayList<Tuple> tuples, int from, int to) {
+        assertEquals(to - from, tuples.size());
+        for (int i = from; i < to; i++) {
+            Tuple t = tuples.get(i - from);
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals("s" + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(new IntField(-i), t.getField(2));
+        }
+    }
+
+    /**
+     * Unit test for BulkLoader.convert(): text split into many chunks and
+     * pieces is parsed in parallel, and the tuples are written in order onto
+     * full pages.
+     */
+    @Test public void convert() throws Exception {
+        int rows = 20000;
+        File text = writeText(0, rows);
+        File f = createTempFile(".dat");
+        BulkLoader loader = new BulkLoader(TD, ',', BufferPool.PAGE_SIZE, new ForkJoinPool(4));
+        loader.setChunkSizes(64 << 10, 4 << 10);
+        assertEquals(rows, loader.convert(text, f));
+
+        HeapFile hf = new HeapFile(f, TD);
+        Database.getCatalog().addTable(hf, "loaded");
+        int perPage = HeapPage.getNumTuples(TD);
+        assertEquals((rows + perPage - 1) / perPage, hf.numPages());
+        checkRows(scan(hf), 0, rows);
+    }
+
+    /**
+     * Blank lines are skipped, missing fields are empty, bad ints are 0, and
+     * long strings are truncated.
+     */
+    @Test public void malformed() throws Exception {
+        File text = createTempFile(".txt");
+        FileWriter w = new FileWriter(text);
+        String longString = new String(new char[Type.STRING_LEN + 10]).replace('\0', 'x');
+        w.write("1| a |2\r\n\n  \n3\nx|" + longString + "|99999999999\n-4|b|5");
+        w.close();
+        File f = createTempFile(".dat");
+        assertEquals(4, new BulkLoader(TD, '|', BufferPool.PAGE_SIZE).convert(text, f));
+
+        HeapFile hf = new HeapFile(f, TD);
+        Database.getCatalog().addTable(hf, "malformed");
+        ArrayList<Tuple> tuples = scan(hf);
+        assertEquals(4, tuples.size());
+        assertEquals("a", ((StringField) tuples.get(0).getField(1)).getValue());
+        assertEquals(new IntField(2), tuples.get(0).getField(2));
+        assertEquals(new IntField(3), tuples.get(1).getField(0));
+        assertEquals("", ((StringField) tuples.get(1).getField(1)).getValue());
+        assertEquals(new IntField(0), tuples.get(1).getField(2));
+        assertEquals(new IntField(0), tuples.get(2).getField(0));
+        assertEquals(Type.STRING_LEN, ((StringField) tuples.get(2).getField(1)).getValue().length());
+        assertEquals(new IntField(0), tuples.get(2).getField(2));
+        assertEquals(new IntField(-4), tuples.get(3).getField(0));
+        assertEquals(new IntField(5), tuples.get(3).getField(2));
+
+        // an empty table gets an empty page
+        File empty = createTempFile(".dat");
+        assertEquals(0, new BulkLoader(TD, ',', BufferPool.PAGE_SIZE).convert(
+                createTempFile(".txt"), empty));
+        assertEquals(BufferPool.PAGE_SIZE, empty.length());
+    }
+
+    /**
+     * Unit test for Parser.handleCopyStatement(): COPY appends the tuples to
+     * new pages of the table, which the free-space map and zone map know.
+     */
+    @Test public void copy() throws Exception {
+        int perPage = HeapPage.getNumTuples(TD);
+        File f = createTempFile(".dat");
+        HeapFileEncoder.convert(writeText(0, 10), f, BufferPool.PAGE_SIZE, 3, TYPES);
+        HeapFile hf = new HeapFile(f, TD);
+        Database.getCatalog().addTable(hf, "copied");
+
+        // an empty page past the end is in the buffer pool
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 1),
+                Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+
+        File text = writeText(10, 10 + 3 * perPage);
+        Parser p = new Parser();
+        assertTrue(p.handleCopyStatement("COPY copied FROM '" + text.getPath() + "';"));
+        assertFalse(p.handleCopyStatement("SELECT * FROM copied;"));
+        assertEquals(4, hf.numPages());
+        checkRows(scan(hf), 0, 10 + 3 * perPage);
+
+        // the new pages are full and summarized
+        assertEquals(0, hf.getFreeSpaceMap().nextPageWithRoom(0, 1));
+        assertEquals(-1, hf.getFreeSpaceMap().nextPageWithRoom(1, 1));
+        Predicate last = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                new IntField(10 + 2 * perPage));
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i == 3, hf.getZoneMap().mayMatch(i, last));
+        }
+        // the first page still has room for inserts
+        tid = new TransactionId();
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("x", Type.STRING_LEN));
+        t.setField(2, new IntField(1));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+
+        // COPY refuses to append while the table has pages not written yet
+        for (int i = 0; i < perPage; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        }
+        try {
+            new BulkLoader(TD, ',', BufferPool.PAGE_SIZE).append(text, hf);
+            fail("the table has a new page");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /**
+     * Runs BulkLoader.append() in a new thread.
+     */
+    private static class AppendThread extends Thread {
+        private final File text;
+        private final HeapFile hf;
+        long appended = -1;
+        Exception error;
+
+        AppendThread(File text, HeapFile hf) {
+            this.text = text;
+            this.hf = hf;
+        }
+
+        @Override
+        public void run() {
+            try {
+                appended = new BulkLoader(TD, ',', BufferPool.PAGE_SIZE).append(text, hf);
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Unit test for BulkLoader.append(): the load waits for the lock on the
+     * page after the last page, which inserts take before appending a page,
+     * and gives up if it is not granted.
+     */
+    @Test public void appendLocksNextPage() throws Exception {
+        int perPage = HeapPage.getNumTuples(TD);
+        File f = createTempFile(".dat");
+        HeapFileEncoder.convert(writeText(0, 10), f, BufferPool.PAGE_SIZE, 3, TYPES);
+        HeapFile hf = new HeapFile(f, TD);
+        Database.getCatalog().addTable(hf, "locked");
+        File text = writeText(10, 10 + perPage);
+        HeapPageId next = new HeapPageId(hf.getId(), 1);
+
+        // the load is aborted while a transaction holds the lock
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, next, Permissions.READ_ONLY);
+        AppendThread loader = new AppendThread(text, hf);
+        loader.start();
+        loader.join();
+        assertTrue(loader.error instanceof DbException);
+        assertEquals(1, hf.numPages());
+        assertEquals(1, hf.getDiskFileNumPages());
+
+        // the load waits until the lock is released
+        loader = new AppendThread(text, hf);
+        loader.start();
+        Thread.sleep(50);
+        assertEquals(1, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+        loader.join();
+        assertEquals(null, loader.error);
+        assertEquals(perPage, loader.appended);
+        assertEquals(2, hf.numPages());
+        checkRows(scan(hf), 0, 10 + perPage);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ChecksumTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = Utility.getTupleDesc(2);
+
+    private static File createTempFile(String suffix) throws Exception {
+        File f = File.createTempFile("table", suffix);
+        f.deleteOnExit();
+        FreeSpaceMap.getMapFile(f).deleteOnExit();
+        ZoneMap.getMapFile(f).deleteOnExit();
+        return f;
+    }
+
+    private static int count(DbFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        try {
+            it.open();
+            int n = 0;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                assertEquals(-((IntField) t.getField(0)).getValue(),
+                        ((IntField) t.getField(1)).getValue());
+                n++;
+            }
+            it.close();
+            return n;
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * Overwrites a byte of the specified page of a file.
+     */
+    private static void corrupt(HeapFile hf, int pageNo, int offset) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "rw");
+        long pos = hf.getPageOffset(pageNo) + offset;
+        raf.seek(pos);
+        int b = raf.read();
+        raf.seek(pos);
+        raf.write(b ^ 0x40);
+        raf.close();
+    }
+
+    /**
+     * Unit test for HeapFile(File, TupleDesc, int, boolean): pages written
+     * by the buffer pool end with checksums, and hold fewer tuples.
+     */
+    @Test public void writePage() throws Exception {
+        File f = createTempFile(".dat");
+        HeapFile hf = new HeapFile(f, TD, BufferPool.PAGE_SIZE, true);
+        Database.getCatalog().addTable(hf, "checked");
+        assertTrue(hf.hasChecksums());
+        assertEquals(BufferPool.PAGE_SIZE - HeapFile.CHECKSUM_SIZE, hf.getPageDataSize());
+        // the file has a header even with the default page size
+        assertEquals(BufferPool.PAGE_SIZE, f.length());
+
+        int perPage = HeapPage.getNumTuples(TD, hf.getPageDataSize());
+        assertTrue(perPage < HeapPage.getNumTuples(TD));
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < perPage + 1; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { i, -i }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3 * BufferPool.PAGE_SIZE, f.length());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = Utility.openHeapFile(2, f);
+        assertTrue(reopened.hasChecksums());
+        assertEquals(perPage + 1, count(reopened));
+
+        try {
+            new HeapFile(f, TD, BufferPool.PAGE_SIZE);
+            fail("the file has checksums");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFalse(Utility.openHeapFile(2, createTempFile(".dat")).hasChecksums());
+    }
+
+    /**
+     * A page whose bytes do not match its checksum, because a byte was
+     * changed or the page was only partly written, cannot be read.
+     */
+    @Test public void corrupted() throws Exception {
+        File text = createTempFile(".txt");
+        FileWriter w = new FileWriter(text);
+        int rows = 3 * HeapPage.getNumTuples(TD, BufferPool.PAGE_SIZE - HeapFile.CHECKSUM_SIZE);
+        for (int i = 0; i < rows; i++) {
+            w.write(i + "," + (-i) + "\n");
+        }
+        w.close();
+        File f = createTempFile(".dat");
+        HeapFileEncoder.convert(text, f, BufferPool.PAGE_SIZE, 2, Utility.getTypes(2), ',', true);
+        HeapFile hf = Utility.openHeapFile(2, f);
+        assertEquals(3, hf.numPages());
+        assertEquals(rows, count(hf));
+
+        corrupt(hf, 1, 100);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        try {
+            count(hf);
+            fail("page 1 is corrupted");
+        } catch (DbException e) {
+            // expected
+        }
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), 1));
+            fail("page 1 is corrupted");
+        } catch (ChecksumException e) {
+            // expected
+        }
+        hf.readPage(new HeapPageId(hf.getId(), 0));
+
+        // the mapped file checks the pages it maps
+        MappedHeapFile mapped = new MappedHeapFile(f, TD);
+        Database.getCatalog().addTable(mapped, "mapped");
+        try {
+            mapped.readPage(new HeapPageId(mapped.getId(), 1));
+            fail("page 1 is corrupted");
+        } catch (ChecksumException e) {
+            // expected
+        }
+        mapped.readPage(new HeapPageId(mapped.getId(), 2));
+
+        // a torn last page
+        corrupt(hf, 1, 100);
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(raf.length() - 1000);
+        raf.close();
+        hf = Utility.openHeapFile(2, f);
+        hf.readPage(new HeapPageId(hf.getId(), 1));
+        try {
+            hf.readPage(new HeapPageId(hf.getId(), 2));
+            fail("page 2 is torn");
+        } catch (ChecksumException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ChecksumTest.class);
+    }
+}
@@ -0,0 +1,224 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] {
+            Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+    private static final String[] NAMES = new String[] { "a", "b", "c" };
+    /** More than two row groups, the last one partly filled. */
+    private static final int ROWS = 2 * ColumnFile.getRowsPerGroup() + 100;
+
+    private File text;
+    private ColumnFile cf;
+
+    /**
+     * Write a text file of ROWS tuples and convert it to a ColumnFile.
+     */
+    @Before public void createFile() throws Exception {
+        text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < ROWS; i++) {
+            w.write(i + ",s" + i + "," + (-i) + "\n");
+        }
+        w.close();
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertColumnar(text, f, TYPES, ',');
+        cf = new ColumnFile(f, new TupleDesc(TYPES, NAMES));
+        Database.getCatalog().addTable(cf, "columns");
+    }
+
+    private static Set<String> scan(DbFileIterator it) throws Exception {
+        Set<String> rows = new HashSet<String>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                sb.append(i == 0 ? "" : ",").append(t.getField(i));
+            }
+            rows.add(sb.toString());
+        }
+        it.close();
+        return rows;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertColumnar(): a scan of the
+     * ColumnFile returns the same tuples as a scan of a HeapFile of the same
+     * table.
+     */
+    @Test public void convert() throws Exception {
+        File heap = File.createTempFile("table", ".dat");
+        heap.deleteOnExit();
+        FreeSpaceMap.getMapFile(heap).deleteOnExit();
+        HeapFileEncoder.convert(text, heap, BufferPool.PAGE_SIZE, 3, TYPES);
+        HeapFile hf = new HeapFile(heap, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(hf, "heap");
+
+        assertEquals(ROWS, cf.numRows());
+        assertEquals(ROWS, new ColumnFile(cf.getFile(), cf.getTupleDesc()).numRows());
+        TransactionId tid = new TransactionId();
+        Set<String> rows = scan(hf.iterator(tid));
+        assertEquals(ROWS, rows.size());
+        assertEquals(rows, scan(cf.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A scan of some of the columns returns only these fields, and reads
+     * only the pages of these columns.
+     */
+    @Test public void projection() throws Exception {
+        TransactionId tid = new TransactionId();
+        Set<String> rows = scan(cf.iterator(tid, new int[] { 2, 0 }));
+        assertEquals(ROWS, rows.size());
+        assertTrue(rows.contains("-7,7"));
+
+        int stringPages = 0;
+        for (int pageNo = 1; pageNo < cf.numPages(); pageNo++) {
+            ColumnPage page = (ColumnPage) cf.readPage(new HeapPageId(cf.getId(), pageNo));
+            if (page.getField(0) instanceof StringField) {
+                assertFalse(Database.getBufferPool().holdsLock(tid, page.getId()));
+                stringPages++;
+            } else {
+                assertTrue(Database.getBufferPool().holdsLock(tid, page.getId()));
+            }
+        }
+        assertEquals(cf.numPages() - 1 - cf.numPages(new int[] { 0, 2 }), stringPages);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A compressed ColumnFile of low cardinality and sorted int columns takes
+     * far fewer pages than an uncompressed one, and returns the same tuples.
+     */
+    @Test public void compressed() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertColumnar(text, f, TYPES, ',', true);
+        ColumnFile compressed = new ColumnFile(f, cf.getTupleDesc());
+        Database.getCatalog().addTable(compressed, "compressed");
+        assertTrue(compressed.isCompressed());
+        assertEquals(ROWS, compressed.numRows());
+
+        int[] ints = new int[] { 0, 2 };
+        assertTrue(compressed.numPages(ints) < cf.numPages(ints));
+        TransactionId tid = new TransactionId();
+        assertEquals(scan(cf.iterator(tid)), scan(compressed.iterator(tid)));
+        assertEquals(scan(cf.iterator(tid, ints)), scan(compressed.iterator(tid, ints)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Scans with a predicate return the matching tuples, and do not read the
+     * other columns of row groups with no match.
+     */
+    @Test public void predicate() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convertColumnar(text, f, TYPES, ',', true);
+        ColumnFile compressed = new ColumnFile(f, cf.getTupleDesc());
+        Database.getCatalog().addTable(compressed, "compressed");
+
+        for (ColumnFile file : new ColumnFile[] { cf, compressed }) {
+            TransactionId tid = new TransactionId();
+            Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                    new IntField(ROWS - 5));
+            Set<String> rows = scan(file.iterator(tid, new int[] { 1, 2 }, p));
+            assertEquals(5, rows.size());
+            assertTrue(rows.contains("s" + (ROWS - 1) + "," + (1 - ROWS)));
+            // the first page of the strings is not read
+            HeapPageId first = new HeapPageId(file.getId(), 2);
+            assertFalse(Database.getBufferPool().holdsLock(tid, first));
+            Database.getBufferPool().transactionComplete(tid);
+
+            tid = new TransactionId();
+            p = new Predicate(2, Predicate.Op.EQUALS, new IntField(-7));
+            assertEquals(1, scan(file.iterator(tid, new int[] { 0 }, p)).size());
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /**
+     * LogicalPlan.physicalPlan() pushes the fields used by the query down to
+     * the scans of ColumnFiles.
+     */
+    @Test public void pushdown() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("columns", new TableStats(cf.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addProjectField("t.c", null);
+        lp.addFilter("t.a", Predicate.Op.LESS_THAN, "10");
+
+        TransactionId tid = new TransactionId();
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertEquals(1, plan.getTupleDesc().numFields());
+        plan.open();
+        int n = 0;
+        while (plan.hasNext()) {
+            assertEquals(new IntField(-n), plan.next().getField(0));
+            n++;
+        }
+        plan.close();
+        assertEquals(10, n);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the predicate is pushed into the scan, and the selection is still
+        // in the plan and its estimates
+        Filter filter = (Filter) ((Operator) plan).getChildren()[0];
+        assertNotNull(((SeqScan) filter.getChildren()[0]).getPredicate());
+        HashMap<String, Integer> aliases = new HashMap<String, Integer>();
+        aliases.put("t", cf.getId());
+        OperatorCardinality.updateOperatorCardinality((Operator) plan, aliases, stats);
+        assertTrue(filter.getEstimatedCardinality()
+                < stats.get("columns").estimateTableCardinality(1.0));
+
+        // only a and c are scanned
+        SeqScan ss = new SeqScan(tid, cf.getId(), "t", lp.getNeededColumns(
+                new LogicalScanNode(cf.getId(), "t")));
+        assertEquals(2, ss.getTupleDesc().numFields());
+        assertEquals("t.c", ss.getTupleDesc().getFieldName(1));
+    }
+
+    /**
+     * Catalog.loadSchema() creates a ColumnFile for tables marked columnar.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("wide (a int, b string, c int) columnar\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        assertEquals(ColumnFile.class, Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("wide")).getClass());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
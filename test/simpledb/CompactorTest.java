@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompactorTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = HeapPage.getNumTuples(Utility.getTupleDesc(2));
+    private static final int PAGES = 12;
+
+    private HeapFile hf;
+
+    /**
+     * Create a table of full pages, and delete three tuples out of four.
+     */
+    @Before public void createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < TUPLES_PER_PAGE * PAGES; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.getMapFile(f).deleteOnExit();
+        ZoneMap.getMapFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        hf = Utility.openHeapFile(2, f);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() % 4 != 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Set<Integer> scan() throws Exception {
+        Set<Integer> values = new HashSet<Integer>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(values.add(((IntField) t.getField(0)).getValue()));
+            assertEquals(t.getRecordId().getPageId().getTableId(), hf.getId());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return values;
+    }
+
+    private static Set<Integer> expected() {
+        Set<Integer> values = new HashSet<Integer>();
+        for (int i = 0; i < TUPLES_PER_PAGE * PAGES; i += 4) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    /**
+     * Unit test for Compactor.compact(): the tuples are moved into dense
+     * pages, and the file is truncated after them.
+     */
+    @Test public void compact() throws Exception {
+        Compactor c = new Compactor(hf, 0);
+        c.compact();
+        int pages = (PAGES + 3) / 4;
+        assertEquals(pages, hf.numPages());
+        assertEquals(pages * BufferPool.PAGE_SIZE, hf.getFile().length());
+        assertEquals(PAGES - pages, c.getPagesFreed());
+        assertEquals(expected(), scan());
+
+        // the free-space map and zone map forget the truncated pages
+        assertEquals(-1, hf.getFreeSpaceMap().nextPageWithRoom(pages, 1));
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0));
+        assertTrue(hf.getZoneMap().mayMatch(pages, p));
+
+        // the pages are full, so an insert appends a page again
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[] { -1, 1 }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(pages + 1, hf.numPages());
+        assertEquals((pages + 1) * BufferPool.PAGE_SIZE, hf.getFile().length());
+
+        // a dense table is left as it is
+        c = new Compactor(hf, 0);
+        c.compact();
+        assertEquals(0, c.getTuplesMoved());
+        assertEquals(pages + 1, hf.numPages());
+    }
+
+    /**
+     * The compaction waits for the locks of concurrent transactions, backing
+     * off after its transactions abort.
+     */
+    @Test public void concurrent() throws Exception {
+        TransactionId reader = new TransactionId();
+        Database.getBufferPool().getPage(reader, new HeapPageId(hf.getId(), PAGES - 1),
+                Permissions.READ_ONLY);
+        final Compactor c = new Compactor(hf, 1);
+        final Exception[] error = new Exception[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    c.compact();
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        t.start();
+        Thread.sleep(300);
+        assertEquals(PAGES, hf.numPages());
+        Database.getBufferPool().transactionComplete(reader);
+        t.join();
+        if (error[0] != null) {
+            throw error[0];
+        }
+        assertEquals((PAGES + 3) / 4, hf.numPages());
+        assertEquals(expected(), scan());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompactorTest.class);
+    }
+}
@@ -0,0 +1,131 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompressedColumnPageTest extends SimpleDbTestBase {
+
+    private static final HeapPageId PID = new HeapPageId(-1, 1);
+
+    /**
+     * Encodes the values, checks that they are read back unchanged, and
+     * that predicates evaluated on the pages match those evaluated on the
+     * values.
+     *
+     * @return the pages
+     */
+    private static ArrayList<CompressedColumnPage> check(int[] values) {
+        ArrayList<CompressedColumnPage> pages = new ArrayList<CompressedColumnPage>();
+        for (byte[] data : CompressedColumnPage.encode(values, values.length)) {
+            pages.add(new CompressedColumnPage(PID, data));
+        }
+        int row = 0;
+        for (CompressedColumnPage page : pages) {
+            for (int i = 0; i < page.getNumValues(); i++) {
+                assertEquals(new IntField(values[row++]), page.getField(i));
+            }
+        }
+        assertEquals(values.length, row);
+
+        int[] operands = { values[0], values[values.length / 2] + 1, Integer.MIN_VALUE,
+                Integer.MAX_VALUE };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int c : operands) {
+                IntField operand = new IntField(c);
+                BitSet expected = new BitSet();
+                for (int i = 0; i < values.length; i++) {
+                    if (new IntField(values[i]).compare(op, operand)) {
+                        expected.set(i);
+                    }
+                }
+                BitSet actual = new BitSet();
+                int start = 0;
+                for (CompressedColumnPage page : pages) {
+                    page.matches(op, operand, page.getNumValues(), actual, start);
+                    start += page.getNumValues();
+                }
+                assertEquals(op + " " + c, expected, actual);
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Long runs of equal values are run-length encoded.
+     */
+    @Test public void rle() {
+        int[] values = new int[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i / 1000;
+        }
+        ArrayList<CompressedColumnPage> pages = check(values);
+        assertEquals(1, pages.size());
+        assertEquals(CompressedColumnPage.RLE, pages.get(0).getEncoding());
+    }
+
+    /**
+     * A few distinct values far apart are dictionary encoded.
+     */
+    @Test public void dictionary() {
+        int[] codes = { -1000000000, 7, 1000000000, 42 };
+        Random rand = new Random(1);
+        int[] values = new int[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = codes[rand.nextInt(codes.length)];
+        }
+        ArrayList<CompressedColumnPage> pages = check(values);
+        // 2 bits a value
+        assertEquals(1, pages.size());
+        assertEquals(CompressedColumnPage.DICTIONARY, pages.get(0).getEncoding());
+    }
+
+    /**
+     * Values in a narrow range are bit-packed as offsets from the minimum.
+     */
+    @Test public void frameOfReference() {
+        Random rand = new Random(1);
+        int[] values = new int[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000000 + rand.nextInt(1000);
+        }
+        ArrayList<CompressedColumnPage> pages = check(values);
+        // 10 bits a value
+        assertEquals(4, pages.size());
+        for (CompressedColumnPage page : pages) {
+            assertEquals(CompressedColumnPage.FRAME_OF_REFERENCE, page.getEncoding());
+        }
+    }
+
+    /**
+     * Random values are stored plain, with the full int range.
+     */
+    @Test public void plain() {
+        Random rand = new Random(1);
+        int[] values = new int[3000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rand.nextInt();
+        }
+        values[0] = Integer.MIN_VALUE;
+        values[1] = Integer.MAX_VALUE;
+        ArrayList<CompressedColumnPage> pages = check(values);
+        for (CompressedColumnPage page : pages) {
+            assertEquals(CompressedColumnPage.PLAIN, page.getEncoding());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedColumnPageTest.class);
+    }
+}
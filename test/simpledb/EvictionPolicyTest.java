@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+public class EvictionPolicyTest {
+
+    private static final int FRAMES = 8;
+
+    /**
+     * Load page i of a dummy table into frame i for every frame and mark all
+     * frames evictable.
+     */
+    private static void fill(EvictionPolicy policy) {
+        for (int i = 0; i < FRAMES; i++) {
+            policy.frameLoaded(i, new HeapPageId(0, i));
+            policy.setEvictable(i, true);
+        }
+    }
+
+    /**
+     * Check that no frame is chosen once every frame is pinned.
+     */
+    private static void checkNoVictim(EvictionPolicy policy) {
+        fill(policy);
+        for (int i = 0; i < FRAMES; i++) {
+            policy.setEvictable(i, false);
+        }
+        assertEquals(-1, policy.victim());
+        policy.setEvictable(5, true);
+        assertEquals(5, policy.victim());
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: accessed frames get a second chance.
+     */
+    @Test public void clock() {
+        EvictionPolicy policy = new ClockEvictionPolicy(FRAMES);
+        fill(policy);
+        // the first sweep clears all reference bits, so frame 0 is chosen
+        assertEquals(0, policy.victim());
+        policy.frameRemoved(0);
+        policy.frameAccessed(1);
+        assertEquals(2, policy.victim());
+        policy.setEvictable(3, false);
+        policy.frameRemoved(2);
+        assertEquals(4, policy.victim());
+
+        checkNoVictim(new ClockEvictionPolicy(FRAMES));
+    }
+
+    /**
+     * Unit test for LruKEvictionPolicy: frames referenced fewer than K times
+     * are evicted before frames referenced K times.
+     */
+    @Test public void lruK() {
+        EvictionPolicy policy = new LruKEvictionPolicy(FRAMES, 2);
+        fill(policy);
+        for (int i = 0; i < FRAMES; i++) {
+            if (i != 3) {
+                policy.frameAccessed(i);
+            }
+        }
+        // frame 3 has been referenced only once
+        assertEquals(3, policy.victim());
+        policy.frameRemoved(3);
+        // frame 0 has the oldest second most recent reference
+        assertEquals(0, policy.victim());
+        policy.frameAccessed(0);
+        assertEquals(1, policy.victim());
+        policy.setEvictable(1, false);
+        assertEquals(2, policy.victim());
+
+        checkNoVictim(new LruKEvictionPolicy(FRAMES));
+    }
+
+    /**
+     * Unit test for TwoQueueEvictionPolicy: pages read again after they were
+     * evicted from A1in are protected from one-shot pages.
+     */
+    @Test public void twoQueue() {
+        EvictionPolicy policy = new TwoQueueEvictionPolicy(FRAMES);
+        fill(policy);
+        // all pages are in A1in, which is over its target size
+        assertEquals(0, policy.victim());
+        policy.frameRemoved(0);
+        // page 0 is remembered in A1out, so it is hot when read again
+        policy.frameLoaded(0, new HeapPageId(0, 0));
+        policy.setEvictable(0, true);
+        for (int i = 1; i < FRAMES; i++) {
+            assertEquals(i, policy.victim());
+            policy.frameRemoved(i);
+            policy.frameLoaded(i, new HeapPageId(0, FRAMES + i));
+            policy.setEvictable(i, true);
+        }
+        // scanned pages are evicted before page 0 while A1in is large
+        assertEquals(1, policy.victim());
+
+        checkNoVictim(new TwoQueueEvictionPolicy(FRAMES));
+    }
+
+    /**
+     * Check that rankFrames() returns every occupied frame, whether in use or
+     * not, and ranks the victim last.
+     */
+    private static int[] checkRanking(EvictionPolicy policy) {
+        fill(policy);
+        policy.frameRemoved(2);
+        policy.setEvictable(5, false);
+        policy.frameAccessed(1);
+        policy.frameAccessed(6);
+        int[] ranked = policy.rankFrames();
+        assertEquals(FRAMES - 1, ranked.length);
+        int[] sorted = ranked.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(new int[] { 0, 1, 3, 4, 5, 6, 7 }, sorted);
+        assertEquals(policy.victim(), ranked[ranked.length - 1]);
+        return ranked;
+    }
+
+    /**
+     * Unit test for rankFrames() of each policy.
+     */
+    @Test public void rankFrames() {
+        checkRanking(new ClockEvictionPolicy(FRAMES));
+        checkRanking(new TwoQueueEvictionPolicy(FRAMES));
+        // the frames referenced twice have a finite backward 2-distance
+        int[] ranked = checkRanking(new LruKEvictionPolicy(FRAMES, 2));
+        assertEquals(6, ranked[0]);
+        assertEquals(1, ranked[1]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
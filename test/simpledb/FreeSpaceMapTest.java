@@ -0,0 +1,114 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 4;
+    private static final int TUPLES_PER_PAGE = 504;
+
+    private HeapFile hf;
+    private File mapFile;
+
+    /**
+     * Create a table whose pages are all full except for the last one, which
+     * holds a single tuple.
+     */
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, TUPLES_PER_PAGE * (PAGES - 1) + 1, null, null);
+        mapFile = FreeSpaceMap.getMapFile(hf.getFile());
+        assertEquals(PAGES, hf.numPages());
+    }
+
+    /**
+     * Unit test for FreeSpaceMap(): a missing map is rebuilt from the pages
+     * of the table.
+     */
+    @Test public void rebuild() throws Exception {
+        assertFalse(mapFile.exists());
+        FreeSpaceMap fsm = new FreeSpaceMap(hf);
+        for (int i = 0; i < PAGES - 1; i++) {
+            assertEquals(0, fsm.getFreeSpace(i));
+        }
+        assertEquals(PAGES - 1, fsm.nextPageWithRoom(0, 1));
+        assertEquals(Math.min(TUPLES_PER_PAGE - 1, FreeSpaceMap.MAX_FREE_SPACE),
+                fsm.getFreeSpace(PAGES - 1));
+    }
+
+    /**
+     * Unit test for FreeSpaceMap.pageWritten(): entries of written pages are
+     * persisted, and are loaded again unless the table changed later.
+     */
+    @Test public void persist() throws Exception {
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        assertTrue(mapFile.exists());
+        assertEquals(PAGES, mapFile.length());
+
+        // discard the page on disk behind the map's back; the map file is
+        // newer, so its entry is trusted
+        FileTime written = Files.getLastModifiedTime(mapFile.toPath());
+        HeapFile other = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        other.getChannel().write(ByteBuffer.wrap(
+                ((HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0))).getPageData()),
+                BufferPool.PAGE_SIZE);
+        Files.setLastModifiedTime(hf.getFile().toPath(), written);
+        FreeSpaceMap fsm = new FreeSpaceMap(other);
+        assertEquals(1, fsm.nextPageWithRoom(0, 1));
+        assertEquals(1, fsm.getFreeSpace(1));
+
+        // once the table is newer than the map, the map is rebuilt
+        Files.setLastModifiedTime(hf.getFile().toPath(),
+                FileTime.fromMillis(written.toMillis() + 1000));
+        fsm = new FreeSpaceMap(other);
+        assertEquals(PAGES - 1, fsm.nextPageWithRoom(0, 1));
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple(): full pages are neither locked nor
+     * read, and a page with a deleted tuple is used again.
+     */
+    @Test public void insertTuple() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        for (int i = 0; i < PAGES - 1; i++) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+        assertTrue(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), PAGES - 1)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        Tuple t = ((HeapPage) Database.getBufferPool().getPage(tid, pid,
+                Permissions.READ_ONLY)).iterator().next();
+        Database.getBufferPool().deleteTuple(tid, t);
+        Tuple inserted = Utility.getHeapTuple(2, 2);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), inserted);
+        assertEquals(pid, inserted.getRecordId().getPageId());
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
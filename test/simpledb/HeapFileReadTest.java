@@ -77,6 +77,14 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() of a page beyond the end of the file
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void readPageBeyondEnd() throws Exception {
+        hf.readPage(new HeapPageId(hf.getId(), 1));
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
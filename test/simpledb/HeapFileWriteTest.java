@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,51 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.writePage(): pages written at any offset, including
+     * past the end of the file, are read back unchanged.
+     */
+    @Test public void writePage() throws Exception {
+        for (int i = 2; i >= 0; i--) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), i),
+                    HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+            empty.writePage(page);
+        }
+        assertEquals(3 * BufferPool.PAGE_SIZE, empty.getFile().length());
+        for (int i = 0; i < 3; i++) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), i));
+            assertEquals(503, page.getNumEmptySlots());
+            assertEquals(Utility.getHeapTuple(i, 2).getField(0),
+                    page.iterator().next().getField(0));
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.writePages(): runs of consecutive pages, with
+     * gaps between them, are read back unchanged.
+     */
+    @Test public void writePages() throws Exception {
+        int[] pageNos = { 0, 1, 2, 5, 6 };
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int i : pageNos) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), i),
+                    HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+            pages.add(page);
+        }
+        empty.writePages(pages);
+        assertEquals(7 * BufferPool.PAGE_SIZE, empty.getFile().length());
+        for (int i : pageNos) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), i));
+            assertEquals(503, page.getNumEmptySlots());
+            assertEquals(Utility.getHeapTuple(i, 2).getField(0),
+                    page.iterator().next().getField(0));
+        }
+        HeapPage gap = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 3));
+        assertEquals(504, gap.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
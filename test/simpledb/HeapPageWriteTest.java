@@ -126,6 +126,26 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.insertTuple() into a slot freed by
+     * HeapPage.deleteTuple(): tuples returned before keep their values, and
+     * the page data reflects the new tuple.
+     */
+    @Test public void reuseSlot() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+
+        Tuple addition = Utility.getHeapTuple(-1, 2);
+        page.insertTuple(addition);
+        assertEquals(first.getRecordId(), addition.getRecordId());
+        Tuple expected = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA).iterator().next();
+        assertTrue(TestUtil.compareTuples(expected, first));
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertTrue(TestUtil.compareTuples(addition, copy.iterator().next()));
+    }
+
     /**
      * JUnit suite target
      */
@@ -56,6 +56,27 @@ public class InsertTest extends TestUtil.CreateHeapFile {
     assertEquals(1, empty.numPages());
   }
 
+  /**
+   * Unit test for Insert.getNext(), inserting the LONG_TYPE results of SUM
+   * into a table of int fields
+   */
+  @Test public void insertSum() throws Exception {
+    DbIterator sums = new Aggregate(scan1, 1, 0, Aggregator.Op.SUM);
+    Insert op = new Insert(tid, sums, empty.getId());
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(3, 1), op.next()));
+    op.close();
+
+    DbIterator expected = TestUtil.createTupleList(2,
+        new int[] { 1, 12,
+                    3, 12,
+                    5, 7 });
+    SeqScan scan = new SeqScan(tid, empty.getId(), "");
+    scan.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, scan);
+  }
+
   /**
    * JUnit suite target
    */
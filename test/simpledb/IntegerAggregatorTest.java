@@ -1,7 +1,9 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
+import java.util.HashMap;
 import java.util.NoSuchElementException;
 
 import junit.framework.JUnit4TestAdapter;
@@ -15,10 +17,10 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
 
   int width1 = 2;
   DbIterator scan1;
-  int[][] sum = null;
+  Object[][] sum = null;
   int[][] min = null;
   int[][] max = null;
-  int[][] avg = null;
+  Object[][] avg = null;
 
   /**
    * Initialize each unit test
@@ -34,11 +36,11 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
                     5, 7 });
 
     // verify how the results progress after a few merges
-    this.sum = new int[][] {
-      { 1, 2 },
-      { 1, 6 },
-      { 1, 12 },
-      { 1, 12, 3, 2 }
+    this.sum = new Object[][] {
+      { 1, 2L },
+      { 1, 6L },
+      { 1, 12L },
+      { 1, 12L, 3, 2L }
     };
 
     this.min = new int[][] {
@@ -55,11 +57,11 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
       { 1, 6, 3, 2 }
     };
 
-    this.avg = new int[][] {
-      { 1, 2 },
-      { 1, 3 },
-      { 1, 4 },
-      { 1, 4, 3, 2 }
+    this.avg = new Object[][] {
+      { 1, 2.0 },
+      { 1, 3.0 },
+      { 1, 4.0 },
+      { 1, 4.0, 3, 2.0 }
     };
   }
 
@@ -70,7 +72,7 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     scan1.open();
     IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
     
-    for (int[] step : sum) {
+    for (Object[] step : sum) {
       agg.mergeTupleIntoGroup(scan1.next());
       DbIterator it = agg.iterator();
       it.open();
@@ -118,7 +120,7 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
 
     DbIterator it;
-    for (int[] step : avg) {
+    for (Object[] step : avg) {
       agg.mergeTupleIntoGroup(scan1.next());
       it = agg.iterator();
       it.open();
@@ -178,6 +180,93 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator over many groups of int keys, which are spread
+   * over the whole range of ints
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 3000;
+    int[] data = new int[4 * groups];
+    for (int i = 0; i < groups; i++) {
+      int key = i == 0 ? Integer.MIN_VALUE : (i - groups / 2) * 104729;
+      data[2 * i] = key;
+      data[2 * i + 1] = i;
+      data[2 * (groups + i)] = key;
+      data[2 * (groups + i) + 1] = 2 * i;
+    }
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT }) {
+      DbIterator scan = TestUtil.createTupleList(width1, data);
+      scan.open();
+      IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      while (scan.hasNext()) {
+        agg.mergeTupleIntoGroup(scan.next());
+      }
+      HashMap<Integer, Long> results = new HashMap<Integer, Long>();
+      DbIterator it = agg.iterator();
+      it.open();
+      while (it.hasNext()) {
+        Tuple t = it.next();
+        assertNull(results.put(t.getInt(0), ((LongField) t.getField(1)).getValue()));
+      }
+      assertEquals(groups, results.size());
+      for (int i = 0; i < groups; i++) {
+        assertEquals(op == Aggregator.Op.SUM ? 3 * i : 2,
+            (long) results.get(data[2 * i]));
+      }
+    }
+  }
+
+  /**
+   * Test that SUM and COUNT do not overflow past the range of ints, and
+   * that AVG is not rounded
+   */
+  @Test public void largeAggregates() throws Exception {
+    int[] data = new int[] { 1, Integer.MAX_VALUE, 1, Integer.MAX_VALUE, 1, 1,
+                             2, Integer.MIN_VALUE, 2, -1, 3, 1, 3, 2 };
+    Object[][] expected = new Object[][] {
+      { 1, 2L * Integer.MAX_VALUE + 1, 2, Integer.MIN_VALUE - 1L, 3, 3L },
+      { 1, (2.0 * Integer.MAX_VALUE + 1) / 3, 2, (Integer.MIN_VALUE - 1.0) / 2, 3, 1.5 },
+      { 1, 3L, 2, 2L, 3, 2L },
+    };
+    Aggregator.Op[] ops = new Aggregator.Op[] {
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    for (int i = 0; i < ops.length; i++) {
+      DbIterator scan = TestUtil.createTupleList(width1, data);
+      scan.open();
+      IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, ops[i]);
+      IntegerAggregator nogroup = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, ops[i]);
+      while (scan.hasNext()) {
+        Tuple t = scan.next();
+        agg.mergeTupleIntoGroup(t);
+        nogroup.mergeTupleIntoGroup(t);
+      }
+      DbIterator it = agg.iterator();
+      it.open();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(width1, expected[i]), it);
+      assertEquals(ops[i].getResultType(), it.getTupleDesc().getFieldType(1));
+      it = nogroup.iterator();
+      it.open();
+      assertEquals(ops[i].getResultType(), it.getTupleDesc().getFieldType(0));
+    }
+  }
+
+  /**
+   * Test IntegerAggregator grouping on a string field
+   */
+  @Test public void stringGroups() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(2,
+        new Object[] { "a", 1, "b", 5, "a", 3, "c", -2, "b", 6 });
+    scan.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.MAX);
+    while (scan.hasNext()) {
+      agg.mergeTupleIntoGroup(scan.next());
+    }
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2,
+        new Object[] { "a", 3, "b", 6, "c", -2 }), it);
+  }
+
   /**
    * JUnit suite target
    */
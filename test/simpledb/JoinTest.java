@@ -105,6 +105,48 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Check that joining the int field 0 of scan1 with the COUNT of scan2,
+   * whose type is LONG_TYPE, on equality returns only the row 5, 6.
+   */
+  private void checkCountJoin(boolean countFirst, boolean hash) throws Exception {
+    DbIterator count = new Aggregate(scan2, 0, Aggregator.NO_GROUPING,
+        Aggregator.Op.COUNT);
+    assertEquals(Type.LONG_TYPE, count.getTupleDesc().getFieldType(0));
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    DbIterator left = countFirst ? count : scan1;
+    DbIterator right = countFirst ? scan1 : count;
+    DbIterator op = hash ? new HashEquiJoin(pred, left, right)
+        : new Join(pred, left, right);
+    op.open();
+    assertTrue(op.hasNext());
+    Tuple t = op.next();
+    int countIndex = countFirst ? 0 : width1;
+    assertEquals(new LongField(5), t.getField(countIndex));
+    assertEquals(new IntField(6), t.getField(countFirst ? 2 : 1));
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for joins of an int field with the LONG_TYPE result of COUNT
+   */
+  @Test public void countJoin() throws Exception {
+    checkCountJoin(false, false);
+    checkCountJoin(true, false);
+    checkCountJoin(false, true);
+    checkCountJoin(true, true);
+
+    // a > join compares the numbers too
+    DbIterator count = new Aggregate(scan2, 0, Aggregator.NO_GROUPING,
+        Aggregator.Op.COUNT);
+    Join op = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+        scan1, count);
+    op.open();
+    assertEquals(new IntField(7), op.next().getField(0));
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
   /**
    * JUnit suite target
    */
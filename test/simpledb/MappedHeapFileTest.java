@@ -0,0 +1,100 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for MappedHeapFile.readPage(): pages read through the mapping,
+     * in the first and in later segments, are identical to pages read by
+     * HeapFile.
+     */
+    @Test public void readPage() throws Exception {
+        int pages = MappedHeapFile.SEGMENT_PAGES + 2;
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * pages, 1000, null, null);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(1));
+        MappedHeapFile mhf = new MappedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(mhf);
+        assertEquals(pages, mhf.numPages());
+        for (int i : new int[] { 0, 1, MappedHeapFile.SEGMENT_PAGES - 1,
+                MappedHeapFile.SEGMENT_PAGES, pages - 1 }) {
+            HeapPageId pid = new HeapPageId(mhf.getId(), i);
+            assertArrayEquals(hf.readPage(pid).getPageData(),
+                    mhf.readPage(pid).getPageData());
+        }
+    }
+
+    /**
+     * Unit test for MappedHeapFile.readPage() of a page beyond the end of the
+     * file
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void readPageBeyondEnd() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 20, 1000, null, null);
+        MappedHeapFile mhf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mhf);
+        mhf.readPage(new HeapPageId(mhf.getId(), 1));
+    }
+
+    /**
+     * Tuples inserted into a mapped file, which grows the file past the
+     * mapped region once flushed, are seen by later scans.
+     */
+    @Test public void growth() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 20, 1000, null, tuples);
+        MappedHeapFile mhf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mhf);
+        SystemTestUtil.matchTuples(mhf, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            mhf.insertTuple(tid, Utility.getHeapTuple(i, 2));
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i);
+            tuples.add(tuple);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, mhf.numPages());
+
+        // read every page from the file again
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(mhf, tuples);
+    }
+
+    /**
+     * Catalog.loadSchema() creates a MappedHeapFile for tables marked mmap.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("plain (a int, b int)\nmapped (a int pk, b string) mmap\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        assertEquals(HeapFile.class, Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("plain")).getClass());
+        assertEquals(MappedHeapFile.class, Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("mapped")).getClass());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 4;
+    private static final int POOL_PAGES = 8;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+    private BufferPool pool;
+
+    /**
+     * Create a table which fits in an off-heap buffer pool.
+     */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, tuples);
+        pool = Database.resetBufferPool(new BufferPool(POOL_PAGES,
+                new ClockEvictionPolicy(POOL_PAGES), true));
+        assertTrue(pool.isOffHeap());
+    }
+
+    /**
+     * Once the transaction reading them completes, clean pages are only kept
+     * in the arena, and are rebuilt from it when requested again.
+     */
+    @Test public void dropCleanPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(hf, tid, tuples);
+        assertEquals(PAGES, pool.getNumPageObjects());
+        pool.transactionComplete(tid);
+        assertEquals(0, pool.getNumPageObjects());
+
+        SystemTestUtil.matchTuples(hf, tuples);
+        assertEquals(0, pool.getNumPageObjects());
+    }
+
+    /**
+     * Committed changes are copied back to the arena when the page is
+     * dropped, and aborted ones are not.
+     */
+    @Test public void modifiedPages() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        TuplePage page = (TuplePage) pool.getPage(t.getId(),
+                new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        Tuple victim = page.iterator().next();
+        pool.deleteTuple(t.getId(), victim);
+        t.commit();
+        assertEquals(0, pool.getNumPageObjects());
+        tuples.remove(SystemTestUtil.tupleToList(victim));
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        t = new Transaction();
+        t.start();
+        page = (TuplePage) pool.getPage(t.getId(),
+                new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            pool.deleteTuple(t.getId(), it.next());
+        }
+        t.abort();
+        assertEquals(0, pool.getNumPageObjects());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // the committed change is also on disk
+        Database.resetBufferPool(POOL_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Many threads fetching random pages of a table larger than the pool, so
+     * that rebuilding pages from the arena races with evictions and reads
+     * into the same slots.
+     */
+    @Test public void concurrentGetPage() throws Exception {
+        final HeapFile large = SystemTestUtil.createRandomHeapFile(2,
+                504 * 4 * POOL_PAGES, null, null);
+        final int numPages = large.numPages();
+        final Exception[] errors = new Exception[8];
+        Thread[] threads = new Thread[errors.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int t = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(t);
+                    try {
+                        for (int j = 0; j < 1000; j++) {
+                            TransactionId tid = new TransactionId();
+                            HeapPageId pid = new HeapPageId(large.getId(), r.nextInt(numPages));
+                            TuplePage page = (TuplePage) pool.getPage(tid, pid,
+                                    Permissions.READ_ONLY);
+                            if (!pid.equals(page.getId())
+                                    || page.getFreeSpace() != 0) {
+                                throw new DbException("got a wrong or corrupt page "
+                                        + page.getId().pageNumber());
+                            }
+                            pool.transactionComplete(tid);
+                        }
+                    } catch (Exception e) {
+                        errors[t] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertNull(errors[i]);
+        }
+        assertEquals(0, pool.getNumPageObjects());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
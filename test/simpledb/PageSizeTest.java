@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageSizeTest extends SimpleDbTestBase {
+
+    private static final int LARGE = 4 * BufferPool.PAGE_SIZE;
+
+    private static File createTempFile() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.getMapFile(f).deleteOnExit();
+        ZoneMap.getMapFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Writes a table of the specified number of tuples with the specified
+     * page size, and opens it.
+     */
+    private static HeapFile createTable(int rows, int pageSize) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        File f = createTempFile();
+        HeapFileEncoder.convert(tuples, f, pageSize, 2);
+        return Utility.openHeapFile(2, f);
+    }
+
+    private static int count(DbFileIterator it) throws Exception {
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(-((IntField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue());
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert() with another page size: the file
+     * starts with a header giving its page size, and the tuples are stored
+     * on pages of that size.
+     */
+    @Test public void convert() throws Exception {
+        int perPage = HeapPage.getNumTuples(Utility.getTupleDesc(2), LARGE);
+        assertTrue(perPage >= 4 * HeapPage.getNumTuples(Utility.getTupleDesc(2)));
+        HeapFile hf = createTable(3 * perPage, LARGE);
+        assertEquals(LARGE, hf.getPageSize());
+        assertEquals(3, hf.numPages());
+        assertEquals(4 * LARGE, hf.getFile().length());
+
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(LARGE, page.getPageData().length);
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals(3 * perPage, count(hf.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // files of the default page size have no header
+        HeapFile small = createTable(perPage, BufferPool.PAGE_SIZE);
+        assertEquals(BufferPool.PAGE_SIZE, small.getPageSize());
+        assertEquals(4 * BufferPool.PAGE_SIZE, small.getFile().length());
+    }
+
+    /**
+     * A mapped file with another page size reads the pages after the header.
+     */
+    @Test public void mapped() throws Exception {
+        int perPage = HeapPage.getNumTuples(Utility.getTupleDesc(2), LARGE);
+        HeapFile hf = createTable(2 * perPage, LARGE);
+        MappedHeapFile mapped = new MappedHeapFile(hf.getFile(), hf.getTupleDesc());
+        Database.getCatalog().addTable(mapped, "mapped");
+        TransactionId tid = new TransactionId();
+        assertEquals(2 * perPage, count(mapped.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HeapFile(File, TupleDesc, int): an empty file gets the
+     * header, and tuples inserted are written to pages of its size.
+     */
+    @Test public void insert() throws Exception {
+        File f = createTempFile();
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), LARGE);
+        Database.getCatalog().addTable(hf, "large");
+        assertEquals(LARGE, f.length());
+        int rows = HeapPage.getNumTuples(hf.getTupleDesc(), LARGE) + 10;
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < rows; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(),
+                    Utility.getHeapTuple(new int[] { i, -i }));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3 * LARGE, f.length());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = Utility.openHeapFile(2, f);
+        assertEquals(LARGE, reopened.getPageSize());
+        tid = new TransactionId();
+        assertEquals(rows, count(reopened.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            new HeapFile(f, hf.getTupleDesc(), BufferPool.PAGE_SIZE);
+            fail("the file has another page size");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new HeapFile(createTempFile(), hf.getTupleDesc(), 3000);
+            fail("the page size is not a power of two");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A page larger than the default takes the room of several default pages
+     * in the buffer pool.
+     */
+    @Test public void mixedSizes() throws Exception {
+        HeapFile large = createTable(1, LARGE);
+        HeapFile small = createTable(10 * HeapPage.getNumTuples(Utility.getTupleDesc(2)),
+                BufferPool.PAGE_SIZE);
+        Database.resetBufferPool(5);
+
+        // a dirty large page leaves room for a single default page
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, large.getId(),
+                Utility.getHeapTuple(new int[] { 1, -1 }));
+        for (int i = 0; i < 10; i++) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(small.getId(), i),
+                    Permissions.READ_ONLY);
+        }
+        try {
+            Database.getBufferPool().getPage(tid, new HeapPageId(large.getId(), 1),
+                    Permissions.READ_ONLY);
+            fail("the pool has no room for another large page");
+        } catch (DbException e) {
+            // expected
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // clean large pages are evicted like default ones
+        tid = new TransactionId();
+        assertTrue(Database.getBufferPool().getPage(tid, new HeapPageId(large.getId(), 0),
+                Permissions.READ_ONLY) instanceof HeapPage);
+        assertEquals(10 * HeapPage.getNumTuples(Utility.getTupleDesc(2)),
+                count(small.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
@@ -0,0 +1,219 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PageWriterTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = HeapPage.getNumTuples(Utility.getTupleDesc(2));
+    private static final int PAGES = 10;
+    /** An interval long enough that the writer never runs during a test. */
+    private static final long NEVER = 3600 * 1000;
+
+    private File f;
+    private HeapFile hf;
+
+    /**
+     * Create a table of full pages, each tuple being (i, -i).
+     */
+    @Before public void createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < TUPLES_PER_PAGE * PAGES; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.getMapFile(f).deleteOnExit();
+        ZoneMap.getMapFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        hf = Utility.openHeapFile(2, f);
+    }
+
+    @After public void stopWriter() throws Exception {
+        Database.getBufferPool().stopPageWriter();
+    }
+
+    /**
+     * @return the number of tuples of the table, read from disk
+     */
+    private int countOnDisk() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Deletes the first tuple of the specified page in a transaction of its
+     * own, and commits it.
+     */
+    private void deleteFrom(int pageNo) throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        Transaction t = new Transaction();
+        t.start();
+        TuplePage page = (TuplePage) pool.getPage(t.getId(),
+                new HeapPageId(hf.getId(), pageNo), Permissions.READ_ONLY);
+        pool.deleteTuple(t.getId(), page.iterator().next());
+        t.commit();
+    }
+
+    /**
+     * Commit logs the pages instead of writing them, and recovery redoes
+     * them from the log.
+     */
+    @Test public void commitOnlyLogs() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.startPageWriter(NEVER, PageWriter.DEFAULT_CHECKPOINT_BYTES);
+        deleteFrom(0);
+        deleteFrom(3);
+        assertEquals(2, pool.getNumCommittedDirtyPages());
+
+        // crash: the committed pages were never written
+        Database.reset();
+        hf = Utility.openHeapFile(2, f);
+        assertEquals(TUPLES_PER_PAGE * PAGES, countOnDisk());
+        Database.getLogFile().recover();
+        assertEquals(TUPLES_PER_PAGE * PAGES - 2, countOnDisk());
+    }
+
+    /**
+     * The writer writes the committed pages in the background, and pages
+     * committed again before being written are written once.
+     */
+    @Test public void backgroundWrite() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.startPageWriter(NEVER, PageWriter.DEFAULT_CHECKPOINT_BYTES);
+        for (int i = 0; i < PAGES; i++) {
+            deleteFrom(i);
+            deleteFrom(i);
+        }
+        assertEquals(PAGES, pool.getNumCommittedDirtyPages());
+
+        pool.startPageWriter(1, PageWriter.DEFAULT_CHECKPOINT_BYTES);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getNumCommittedDirtyPages() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getNumCommittedDirtyPages());
+        // the writer does not force the file; flushing for a checkpoint does
+        assertEquals(1, pool.getNumUnforcedFiles());
+        pool.flushAllPages();
+        assertEquals(0, pool.getNumUnforcedFiles());
+        assertEquals(TUPLES_PER_PAGE * PAGES - 2 * PAGES, countOnDisk());
+    }
+
+    /**
+     * Stopping the writer takes a checkpoint, so recovery does not redo the
+     * logged after image over the page committed without logging afterwards.
+     */
+    @Test public void stopThenRecover() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.startPageWriter(NEVER, PageWriter.DEFAULT_CHECKPOINT_BYTES);
+        deleteFrom(0);
+        pool.stopPageWriter();
+        assertEquals(0, pool.getNumCommittedDirtyPages());
+        deleteFrom(0);
+
+        // crash: the second commit wrote the page without logging it
+        Database.reset();
+        hf = Utility.openHeapFile(2, f);
+        Database.getLogFile().recover();
+        assertEquals(TUPLES_PER_PAGE * PAGES - 2, countOnDisk());
+    }
+
+    /**
+     * Committed pages which the writer has not written are written when
+     * their frames are needed, rather than filling the pool.
+     */
+    @Test public void evictCommitted() throws Exception {
+        BufferPool pool = Database.resetBufferPool(3);
+        pool.startPageWriter(NEVER, PageWriter.DEFAULT_CHECKPOINT_BYTES);
+        for (int i = 0; i < PAGES; i++) {
+            deleteFrom(i);
+        }
+        assertTrue(pool.getNumCommittedDirtyPages() <= 3);
+        pool.flushAllPages();
+        assertEquals(0, pool.getNumCommittedDirtyPages());
+        assertEquals(TUPLES_PER_PAGE * PAGES - PAGES, countOnDisk());
+    }
+
+    /**
+     * A round which fails, here because the table of the page was removed
+     * from the catalog, leaves the page committed and does not stop the
+     * writer.
+     */
+    @Test public void failedRound() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.startPageWriter(NEVER, PageWriter.DEFAULT_CHECKPOINT_BYTES);
+        deleteFrom(0);
+        Database.getCatalog().clear();
+        pool.startPageWriter(20, PageWriter.DEFAULT_CHECKPOINT_BYTES);
+        Thread.sleep(100);
+        assertEquals(1, pool.getNumCommittedDirtyPages());
+
+        Database.getCatalog().addTable(hf);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getNumCommittedDirtyPages() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, pool.getNumCommittedDirtyPages());
+        assertEquals(TUPLES_PER_PAGE * PAGES - 1, countOnDisk());
+    }
+
+    /**
+     * Without a page writer, commit writes the pages.
+     */
+    @Test public void force() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertFalse(pool.hasPageWriter());
+        deleteFrom(0);
+        assertEquals(0, pool.getNumCommittedDirtyPages());
+        assertEquals(TUPLES_PER_PAGE * PAGES - 1, countOnDisk());
+    }
+
+    /**
+     * A round writes more pages as the log approaches the checkpoint
+     * distance, and as the committed pages fill the pool.
+     */
+    @Test public void pacing() {
+        assertEquals(PageWriter.MIN_PAGES_PER_ROUND,
+                PageWriter.pagesToWrite(10, 1000, 0, 1000));
+        assertEquals(3, PageWriter.pagesToWrite(3, 1000, 0, 1000));
+        assertEquals(50, PageWriter.pagesToWrite(100, 100000, 500, 1000));
+        assertEquals(100, PageWriter.pagesToWrite(100, 100000, 2000, 1000));
+        assertEquals(100, PageWriter.pagesToWrite(100, 200, 0, 1000));
+        assertEquals(25, PageWriter.pagesToWrite(100, 800, 0, 1000));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageWriterTest.class);
+    }
+}
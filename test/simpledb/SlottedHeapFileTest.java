@@ -0,0 +1,134 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+    private static final int ROWS = 5000;
+
+    private File text;
+
+    /**
+     * Write a text file of ROWS tuples with short string codes.
+     */
+    @Before public void createText() throws Exception {
+        text = File.createTempFile("table", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < ROWS; i++) {
+            w.write(i + ",c" + (i % 100) + "\n");
+        }
+        w.close();
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.getMapFile(f).deleteOnExit();
+        ZoneMap.getMapFile(f).deleteOnExit();
+        return f;
+    }
+
+    private static Set<String> scan(DbFile f) throws Exception {
+        Set<String> rows = new HashSet<String>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(t.getField(0) + "," + t.getField(1));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertSlotted(): a table of short
+     * strings takes an order of magnitude fewer pages than a HeapFile, and
+     * scans return the same tuples.
+     */
+    @Test public void convert() throws Exception {
+        File heap = tempFile();
+        HeapFileEncoder.convert(text, heap, BufferPool.PAGE_SIZE, 2, TYPES);
+        File slotted = tempFile();
+        HeapFileEncoder.convertSlotted(text, slotted, TYPES, ',');
+
+        HeapFile hf = new HeapFile(heap, new TupleDesc(TYPES));
+        SlottedHeapFile shf = new SlottedHeapFile(slotted, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(hf, "heap");
+        Database.getCatalog().addTable(shf, "slotted");
+        assertTrue(10 * shf.numPages() <= hf.numPages());
+
+        Set<String> rows = scan(hf);
+        assertEquals(ROWS, rows.size());
+        assertEquals(rows, scan(shf));
+    }
+
+    /**
+     * Tuples inserted into and deleted from a SlottedHeapFile are seen by
+     * later scans of the file.
+     */
+    @Test public void insertDelete() throws Exception {
+        File f = tempFile();
+        HeapFileEncoder.convertSlotted(text, f, TYPES, ',');
+        SlottedHeapFile shf = new SlottedHeapFile(f, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(shf, "slotted");
+        int pages = shf.numPages();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = shf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Tuple t = new Tuple(new TupleDesc(TYPES));
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("a much longer string than the codes", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, shf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // read every page from the file again
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Set<String> rows = scan(shf);
+        assertEquals(ROWS, rows.size());
+        assertTrue(rows.contains("-1,a much longer string than the codes"));
+        assertTrue(!rows.contains(first.getField(0) + "," + first.getField(1)));
+        assertTrue(shf.numPages() <= pages + 1);
+    }
+
+    /**
+     * Catalog.loadSchema() creates a SlottedHeapFile for tables marked slotted.
+     */
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("codes (a int, b string) slotted\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        assertEquals(SlottedHeapFile.class, Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("codes")).getClass());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
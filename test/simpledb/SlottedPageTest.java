@@ -0,0 +1,172 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static ArrayList<Integer> keys(SlottedPage page) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            keys.add(((IntField) it.next().getField(0)).getValue());
+        }
+        return keys;
+    }
+
+    /**
+     * Unit test for SlottedPage.insertTuple(): short strings take only their
+     * length, and tuples are read back unchanged, also after a round trip
+     * through getPageData().
+     */
+    @Test public void insertTuple() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "c" + n % 10))) {
+            page.insertTuple(tuple(n, "c" + n % 10));
+            n++;
+        }
+        // 4 + 2 + 2 characters, plus a slot: 10 times more than the 30
+        // tuples of a HeapPage
+        assertTrue(n > 10 * HeapPage.getNumTuples(TD));
+        assertEquals(0, page.getFreeSpace());
+
+        page = new SlottedPage(pid, page.getPageData());
+        int i = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); i++) {
+            Tuple t = it.next();
+            assertEquals(new RecordId(pid, i), t.getRecordId());
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals("c" + i % 10, ((StringField) t.getField(1)).getValue());
+        }
+        assertEquals(n, i);
+    }
+
+    /**
+     * Unit test for SlottedPage.deleteTuple(): the data of the page is
+     * compacted, the slots of the other tuples do not change, and the space
+     * of the deleted tuple is used again.
+     */
+    @Test public void deleteTuple() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        Tuple[] tuples = new Tuple[4];
+        for (int i = 0; i < tuples.length; i++) {
+            tuples[i] = tuple(i, "value " + i);
+            page.insertTuple(tuples[i]);
+        }
+        int free = page.getFreeBytes();
+
+        page.deleteTuple(tuples[1]);
+        assertFalse(page.isSlotUsed(1));
+        assertEquals(free + SlottedPage.getTupleLength(tuples[1]), page.getFreeBytes());
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        expected.add(0);
+        expected.add(2);
+        expected.add(3);
+        assertEquals(expected, keys(page));
+        // the tuples moved by the compaction are intact
+        for (Iterator<Tuple> it = new SlottedPage(pid, page.getPageData()).iterator(); it.hasNext(); ) {
+            Tuple moved = it.next();
+            assertEquals("value " + moved.getField(0),
+                    ((StringField) moved.getField(1)).getValue());
+        }
+
+        // the empty slot is reused
+        Tuple t = tuple(4, "a longer value than before");
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 1), t.getRecordId());
+
+        // deleting the last slot shrinks the slot directory
+        page.deleteTuple(tuples[3]);
+        assertEquals(3, page.getNumSlots());
+        page.deleteTuple(tuples[2]);
+        page.deleteTuple(t);
+        page.deleteTuple(tuples[0]);
+        assertEquals(0, page.getNumSlots());
+        assertEquals(BufferPool.PAGE_SIZE - SlottedPage.HEADER_SIZE, page.getFreeBytes());
+    }
+
+    /**
+     * Unit test for SlottedPage.getFreeSpace(byte[], int): the free space computed
+     * from the header matches the page.
+     */
+    @Test public void getFreeSpace() throws Exception {
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(FreeSpaceMap.MAX_FREE_SPACE, page.getFreeSpace());
+        for (int i = 0; i < 100; i++) {
+            page.insertTuple(tuple(i, "some string"));
+        }
+        assertEquals(page.getFreeBytes() / SlottedPage.FREE_SPACE_UNIT, page.getFreeSpace());
+        assertEquals(page.getFreeSpace(), SlottedPage.getFreeSpace(page.getPageData(),
+                BufferPool.PAGE_SIZE));
+    }
+
+    /**
+     * Unit test for SlottedPage.insertTuple() with strings that are not
+     * ASCII: they take their encoded length and are read back unchanged.
+     */
+    @Test public void nonAsciiString() throws Exception {
+        String s = "gr\u00fc\u00dfe \u65e5\u672c";
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        int free = page.getFreeBytes();
+        page.insertTuple(tuple(1, s));
+        assertEquals(4 + 2 + s.getBytes(SlottedPage.CHARSET).length + SlottedPage.SLOT_SIZE,
+                free - page.getFreeBytes());
+
+        page = new SlottedPage(pid, page.getPageData());
+        assertEquals(s, ((StringField) page.iterator().next().getField(1)).getValue());
+    }
+
+    /**
+     * Unit test for SlottedPage.getBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        TransactionId tid = new TransactionId();
+        SlottedPage page = new SlottedPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "a"));
+        page.markDirty(true, tid);
+        page.insertTuple(tuple(2, "b"));
+        assertEquals(1, keys(page.getBeforeImage()).size());
+        page.setBeforeImage();
+        assertEquals(2, keys(page.getBeforeImage()).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,207 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StealTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = HeapPage.getNumTuples(Utility.getTupleDesc(2));
+    private static final int PAGES = 10;
+    private static final int POOL_PAGES = 3;
+
+    private File f;
+    private HeapFile hf;
+
+    /**
+     * Create a table of full pages, each tuple being (i, -i), and a buffer
+     * pool much smaller than the table.
+     */
+    @Before public void createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < TUPLES_PER_PAGE * PAGES; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.getMapFile(f).deleteOnExit();
+        ZoneMap.getMapFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        hf = Utility.openHeapFile(2, f);
+        Database.resetBufferPool(POOL_PAGES);
+    }
+
+    /**
+     * @return the number of tuples of the table and the sum of their first
+     *         fields, read from disk
+     */
+    private long[] summarize() throws Exception {
+        Database.resetBufferPool(POOL_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        long[] summary = new long[2];
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(-t.getInt(0), t.getInt(1));
+            summary[0]++;
+            summary[1] += t.getInt(0);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return summary;
+    }
+
+    /**
+     * Deletes every tuple of the table, and inserts one tuple (-1, 1).
+     *
+     * @return the number of tuples deleted
+     */
+    private int rewrite(TransactionId tid) throws Exception {
+        Delete delete = new Delete(tid, new SeqScan(tid, hf.getId(), ""));
+        delete.open();
+        int deleted = delete.next().getInt(0);
+        delete.close();
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[] { -1, 1 }));
+        return deleted;
+    }
+
+    /**
+     * In NO-STEAL mode a transaction cannot dirty more pages than the pool
+     * holds; in STEAL mode its pages are written out through the log.
+     */
+    @Test public void largeTransaction() throws Exception {
+        assertFalse(Database.getBufferPool().isSteal());
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            rewrite(t.getId());
+            fail("all pages in the pool are dirty");
+        } catch (DbException e) {
+            // expected
+        }
+        t.abort();
+        assertEquals(TUPLES_PER_PAGE * PAGES, summarize()[0]);
+
+        Database.getBufferPool().setSteal(true);
+        t = new Transaction();
+        t.start();
+        assertEquals(TUPLES_PER_PAGE * PAGES, rewrite(t.getId()));
+        t.commit();
+        assertFalse(Database.getLogFile().isActive(t.getId()));
+        assertEquals(1, summarize()[0]);
+    }
+
+    /**
+     * Aborting a transaction whose pages were stolen restores them from the
+     * log, whether it is aborted through Transaction or the buffer pool.
+     */
+    @Test public void abort() throws Exception {
+        long[] expected = summarize();
+        Database.getBufferPool().setSteal(true);
+        Transaction t = new Transaction();
+        t.start();
+        rewrite(t.getId());
+        t.abort();
+        long[] actual = summarize();
+        assertEquals(expected[0], actual[0]);
+        assertEquals(expected[1], actual[1]);
+
+        Database.getBufferPool().setSteal(true);
+        TransactionId tid = new TransactionId();
+        rewrite(tid);
+        assertTrue(Database.getLogFile().isActive(tid));
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertFalse(Database.getLogFile().isActive(tid));
+        actual = summarize();
+        assertEquals(expected[0], actual[0]);
+        assertEquals(expected[1], actual[1]);
+
+        // a transaction which only reads writes no log records
+        int records = Database.getLogFile().getTotalRecords();
+        summarize();
+        assertEquals(records, Database.getLogFile().getTotalRecords());
+    }
+
+    /**
+     * After a crash, recovery undoes the pages stolen from transactions
+     * which did not commit, and keeps those of committed transactions.
+     */
+    @Test public void recover() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        pool.setSteal(true);
+        Transaction committed = new Transaction();
+        committed.start();
+        Tuple t = Utility.getHeapTuple(new int[] { -2, 2 });
+        pool.insertTuple(committed.getId(), hf.getId(), t);
+        committed.commit();
+        long[] expected = summarize();
+
+        // the second transaction's pages are stolen, and it never ends
+        pool = Database.getBufferPool();
+        pool.setSteal(true);
+        Transaction crashed = new Transaction();
+        crashed.start();
+        assertEquals(TUPLES_PER_PAGE * PAGES + 1, rewrite(crashed.getId()));
+
+        // restart from the files on disk
+        Database.reset();
+        hf = Utility.openHeapFile(2, f);
+        Database.resetBufferPool(POOL_PAGES);
+        Database.getLogFile().recover();
+        long[] actual = summarize();
+        assertEquals(expected[0], actual[0]);
+        assertEquals(expected[1], actual[1]);
+        assertEquals(TUPLES_PER_PAGE * PAGES + 1, actual[0]);
+    }
+
+    /**
+     * Leaving STEAL mode takes a checkpoint, so recovery does not redo the
+     * pages stolen before over pages committed without logging afterwards.
+     */
+    @Test public void leaveSteal() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        pool.setSteal(true);
+        Transaction t = new Transaction();
+        t.start();
+        rewrite(t.getId());
+        t.commit();
+        pool.setSteal(false);
+
+        t = new Transaction();
+        t.start();
+        pool.insertTuple(t.getId(), hf.getId(), Utility.getHeapTuple(new int[] { -2, 2 }));
+        t.commit();
+        long[] expected = summarize();
+
+        Database.reset();
+        hf = Utility.openHeapFile(2, f);
+        Database.resetBufferPool(POOL_PAGES);
+        Database.getLogFile().recover();
+        long[] actual = summarize();
+        assertEquals(2, actual[0]);
+        assertEquals(expected[1], actual[1]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealTest.class);
+    }
+}
@@ -43,7 +43,7 @@ public class TestUtil {
      *   provided in the constructor. This iterator is already open.
      * @param width the number of fields in each tuple
      * @param tupdata an array such that the ith element the jth tuple lives
-     *   in slot j * width + i.  Objects can be strings or ints;  tuples must all be of same type.
+     *   in slot j * width + i.  Objects can be strings, ints, longs or doubles;  tuples must all be of same type.
      * @require tupdata.length % width == 0
      * @throws DbException if we encounter an error creating the
      *   TupleIterator
@@ -60,6 +60,12 @@ public class TestUtil {
             if (tupdata[j] instanceof Integer) {
                 types[j] = Type.INT_TYPE;
             }
+            if (tupdata[j] instanceof Long) {
+                types[j] = Type.LONG_TYPE;
+            }
+            if (tupdata[j] instanceof Double) {
+                types[j] = Type.DOUBLE_TYPE;
+            }
         }
         td = new TupleDesc(types);
 
@@ -70,6 +76,10 @@ public class TestUtil {
                 Object t = tupdata[i++];
                 if (t instanceof String)
                     f = new StringField((String)t, Type.STRING_LEN); 
+                else if (t instanceof Long)
+                    f = new LongField((Long)t);
+                else if (t instanceof Double)
+                    f = new DoubleField((Double)t);
                 else
                     f = new IntField((Integer)t);
 
@@ -379,6 +389,8 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.getMapFile(emptyFile).deleteOnExit();
+            ZoneMap.getMapFile(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
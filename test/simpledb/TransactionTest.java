@@ -112,6 +112,35 @@ public class TransactionTest extends TestUtil.CreateHeapFile {
     testTransactionComplete(false);
   }
 
+  /**
+   * Unit test for BufferPool.transactionComplete() covering an abort after
+   * a commit of the same cached page. The abort must restore the committed
+   * contents, not the contents the page had before the commit.
+   */
+  @Test public void abortAfterCommit() throws Exception {
+    HeapPage p = (HeapPage) bp.getPage(tid1, p2, Permissions.READ_WRITE);
+    assertEquals(true, bp.markDirty(p, tid1));
+    Tuple t = Utility.getHeapTuple(new int[] { 6, 830 });
+    p.insertTuple(t);
+    bp.transactionComplete(tid1, true);
+
+    p = (HeapPage) bp.getPage(tid2, p2, Permissions.READ_WRITE);
+    assertEquals(true, bp.markDirty(p, tid2));
+    p.deleteTuple(t);
+    bp.transactionComplete(tid2, false);
+
+    p = (HeapPage) bp.getPage(new TransactionId(), p2, Permissions.READ_ONLY);
+    boolean found = false;
+    for (Iterator<Tuple> it = p.iterator(); it.hasNext(); ) {
+      Tuple tup = it.next();
+      if (((IntField) tup.getField(0)).getValue() == 6
+          && ((IntField) tup.getField(1)).getValue() == 830) {
+        found = true;
+      }
+    }
+    assertEquals(true, found);
+  }
+
   /**
    * JUnit suite target
    */
@@ -1,6 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -57,6 +63,81 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for Tuple.merge(), Tuple.project() and Tuple.getInt(): the
+     * tuples built are backed by the bytes of the fields.
+     */
+    @Test public void compactTuples() {
+        TupleDesc td1 = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple t1 = new Tuple(td1);
+        t1.setField(0, new IntField(7));
+        t1.setField(1, new StringField("seven", Type.STRING_LEN));
+        Tuple t2 = Utility.getHeapTuple(new int[] { -3, 42 });
+        TupleDesc merged = TupleDesc.merge(td1, t2.getTupleDesc());
+
+        Tuple joined = Tuple.merge(merged, t1, t2);
+        assertEquals(merged, joined.getTupleDesc());
+        assertEquals(7, joined.getInt(0));
+        assertEquals(new StringField("seven", Type.STRING_LEN), joined.getField(1));
+        assertEquals(-3, joined.getInt(2));
+        assertEquals(new IntField(42), joined.getField(3));
+        assertEquals("7\tseven\t-3\t42", joined.toString().trim());
+        try {
+            joined.getInt(1);
+            fail("field 1 is a string");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        RecordId rid = new RecordId(new HeapPageId(1, 2), 3);
+        joined.setRecordId(rid);
+        TupleDesc projectedTd = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple projected = Tuple.project(projectedTd, joined, Arrays.asList(3, 1));
+        assertEquals(42, projected.getInt(0));
+        assertEquals(new StringField("seven", Type.STRING_LEN), projected.getField(1));
+        assertEquals(rid, projected.getRecordId());
+
+        // setting a field detaches the tuple from its bytes
+        projected.setField(0, new IntField(1));
+        assertEquals(1, projected.getInt(0));
+        assertEquals(new StringField("seven", Type.STRING_LEN), projected.getField(1));
+        assertEquals(42, joined.getInt(3));
+        Tuple again = Tuple.merge(TupleDesc.merge(projectedTd, td1), projected, t1);
+        assertEquals(1, again.getInt(0));
+        assertEquals(7, again.getInt(2));
+    }
+
+    /**
+     * Unit test for Tuple.keep() and Tuple.getField() on a tuple which refers
+     * to bytes holding other tuples, as tuples read from a page do.
+     */
+    @Test public void keepTuples() {
+        TupleDesc td = Utility.getTupleDesc(2);
+        byte[] page = new byte[3 * td.getSize()];
+        for (int i = 0; i < 6; i++) {
+            Type.writeInt(page, 4 * i, i);
+        }
+        RecordId rid = new RecordId(new HeapPageId(1, 2), 1);
+        Tuple t = new Tuple(td, rid, page, td.getSize());
+
+        // fields are decoded once
+        assertEquals(new IntField(3), t.getField(1));
+        assertSame(t.getField(1), t.getField(1));
+
+        // a kept tuple has its own copy of its bytes
+        Tuple kept = t.keep();
+        assertNotSame(t, kept);
+        assertSame(kept, kept.keep());
+        assertEquals(rid, kept.getRecordId());
+        Type.writeInt(page, td.getSize(), 99);
+        assertEquals(99, t.getInt(0));
+        assertEquals(2, kept.getInt(0));
+        assertEquals(new IntField(3), kept.getField(1));
+
+        Tuple set = new Tuple(td);
+        assertSame(set, set.keep());
+    }
+
     /**
      * JUnit suite target
      */
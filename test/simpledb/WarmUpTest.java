@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class WarmUpTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 6;
+    private static final int POOL_PAGES = 8;
+    /** An interval long enough that the saver never runs during a test. */
+    private static final long NEVER = 3600 * 1000;
+
+    private HeapFile hf;
+    private File f;
+
+    /**
+     * Create a table which fits in the pool, and read all of it.
+     */
+    @Before public void createTable() throws Exception {
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * PAGES, null, null);
+        f = File.createTempFile("hotpages", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        Database.resetBufferPool(POOL_PAGES);
+        readAll();
+    }
+
+    @After public void stopSaver() {
+        Database.getBufferPool().stopHotPageSaver();
+    }
+
+    private void readAll() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES; i++) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), i),
+                    Permissions.READ_ONLY);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The saved pages are read back into a new pool, and requests for them
+     * are hits.
+     */
+    @Test public void warmUp() throws Exception {
+        Database.getBufferPool().saveHotPages(f);
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        assertEquals(PAGES, pool.warmUp(f, BufferPool.DEFAULT_WARM_UP_MILLIS));
+        readAll();
+        assertEquals(PAGES, pool.getPrefetchHits());
+    }
+
+    /**
+     * Only as many pages as fit in the pool are read, and none once the
+     * budget is spent.
+     */
+    @Test public void limits() throws Exception {
+        Database.getBufferPool().saveHotPages(f);
+        BufferPool pool = Database.resetBufferPool(PAGES / 2);
+        assertEquals(PAGES / 2, pool.warmUp(f, BufferPool.DEFAULT_WARM_UP_MILLIS));
+        assertEquals(0, pool.getWastedPrefetches());
+
+        pool = Database.resetBufferPool(POOL_PAGES);
+        assertEquals(0, pool.warmUp(f, 0));
+        assertEquals(0, pool.warmUp(new File(f.getPath() + ".missing"),
+                BufferPool.DEFAULT_WARM_UP_MILLIS));
+    }
+
+    /**
+     * Pages of tables which are gone are skipped.
+     */
+    @Test public void droppedTable() throws Exception {
+        Database.getBufferPool().saveHotPages(f);
+        Database.getCatalog().clear();
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        assertEquals(0, pool.warmUp(f, BufferPool.DEFAULT_WARM_UP_MILLIS));
+    }
+
+    /**
+     * Stopping the saver saves the hot pages.
+     */
+    @Test public void saveOnStop() throws Exception {
+        Database.getBufferPool().startHotPageSaver(f, NEVER);
+        assertFalse(f.exists());
+        Database.getBufferPool().stopHotPageSaver();
+        assertTrue(f.exists());
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES);
+        assertEquals(PAGES, pool.warmUp(f, BufferPool.DEFAULT_WARM_UP_MILLIS));
+    }
+
+    /**
+     * The parser saves the hot pages next to the catalog file, whatever the
+     * working directory.
+     */
+    @Test public void hotPagesFile() {
+        File dir = f.getParentFile();
+        assertEquals(new File(dir, "catalog.txt.hotpages"),
+                Parser.getHotPagesFile(new File(dir, "catalog.txt")));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmUpTest.class);
+    }
+}
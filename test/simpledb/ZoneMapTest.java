@@ -0,0 +1,173 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int TUPLES_PER_PAGE = HeapPage.getNumTuples(Utility.getTupleDesc(2));
+    private static final int PAGES = 10;
+
+    private HeapFile hf;
+
+    /**
+     * Create a table whose first field increases with the page number, as
+     * with time-ordered inserts, and whose last page is partly filled.
+     */
+    @Before public void createTable() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < TUPLES_PER_PAGE * (PAGES - 1) + 1; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(-i);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.getMapFile(f).deleteOnExit();
+        ZoneMap.getMapFile(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+        hf = Utility.openHeapFile(2, f);
+    }
+
+    private static Predicate predicate(int field, Predicate.Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    private int count(TransactionId tid, Predicate p) throws Exception {
+        DbFileIterator it = hf.iterator(tid, p);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            assertTrue(p.filter(it.next()));
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Unit test for ZoneMap(): a missing map is rebuilt from the pages of the
+     * table, and rules out the pages whose bounds a predicate cannot match.
+     */
+    @Test public void rebuild() throws Exception {
+        ZoneMap zm = hf.getZoneMap();
+        int first = 3 * TUPLES_PER_PAGE;
+        for (int i = 0; i < PAGES; i++) {
+            assertEquals(i == 3, zm.mayMatch(i, predicate(0, Predicate.Op.EQUALS, first)));
+            assertEquals(i == 3, zm.mayMatch(i, predicate(1, Predicate.Op.EQUALS, -first)));
+            assertEquals(i >= 3, zm.mayMatch(i, predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, first)));
+            assertEquals(i < 3, zm.mayMatch(i, predicate(0, Predicate.Op.LESS_THAN, first)));
+            assertEquals(i <= 3, zm.mayMatch(i, predicate(0, Predicate.Op.LESS_THAN_OR_EQ, first)));
+        }
+        // the last page holds a single value
+        int last = TUPLES_PER_PAGE * (PAGES - 1);
+        assertFalse(zm.mayMatch(PAGES - 1, predicate(0, Predicate.Op.NOT_EQUALS, last)));
+        assertTrue(zm.mayMatch(PAGES - 2, predicate(0, Predicate.Op.NOT_EQUALS, last)));
+    }
+
+    /**
+     * Unit test for HeapFile.iterator(tid, predicate): pages ruled out by the
+     * zone map are locked but not read, and the tuples returned are those
+     * satisfying the predicate.
+     */
+    @Test public void skippingScan() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        Predicate p = predicate(0, Predicate.Op.GREATER_THAN, 5 * TUPLES_PER_PAGE + 2);
+        assertEquals(TUPLES_PER_PAGE * 4 - 2, count(tid, p));
+        for (int i = 0; i < PAGES; i++) {
+            assertTrue(pool.holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        }
+        assertEquals(PAGES - 5, pool.getNumPageObjects());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserted tuples widen the bounds of their page right away, and deleted
+     * tuples leave them unchanged.
+     */
+    @Test public void insertDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        Predicate p = predicate(0, Predicate.Op.EQUALS, -100);
+        assertEquals(0, count(tid, p));
+        Tuple t = Utility.getHeapTuple(new int[] { -100, 0 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(1, count(tid, p));
+
+        int pageNo = t.getRecordId().getPageId().pageNumber();
+        Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(0, count(tid, p));
+        assertTrue(hf.getZoneMap().mayMatch(pageNo, p));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // writing the page recomputes its bounds
+        assertFalse(hf.getZoneMap().mayMatch(pageNo, p));
+    }
+
+    /**
+     * Unit test for HeapFile.pageChanged(): writing an older image of a page
+     * which a transaction is changing does not drop the bounds of the tuples
+     * it inserted, as happens when a page writer writes a committed page.
+     */
+    @Test public void pageChangedDuringWrite() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), PAGES - 1);
+        Page image = hf.readPage(pid);
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { -100, 0 });
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(pid, t.getRecordId().getPageId());
+        Predicate p = predicate(0, Predicate.Op.EQUALS, -100);
+        assertTrue(hf.getZoneMap().mayMatch(PAGES - 1, p));
+
+        hf.writePage(image);
+        assertFalse(hf.getZoneMap().mayMatch(PAGES - 1, p));
+        Page live = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        hf.pageChanged(live);
+        assertTrue(hf.getZoneMap().mayMatch(PAGES - 1, p));
+        assertEquals(1, count(tid, p));
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    /**
+     * Unit test for ZoneMap.pageWritten(): bounds of written pages are
+     * persisted and loaded again unless the table changed later.
+     */
+    @Test public void persist() throws Exception {
+        File mapFile = ZoneMap.getMapFile(hf.getFile());
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(),
+                Utility.getHeapTuple(new int[] { -100, 0 }));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(mapFile.exists());
+        assertEquals(PAGES * 2 * 8, mapFile.length());
+
+        // make the map file newer than the table, and load it
+        Files.setLastModifiedTime(mapFile.toPath(), FileTime.fromMillis(
+                Files.getLastModifiedTime(hf.getFile().toPath()).toMillis() + 1000));
+        ZoneMap zm = new ZoneMap(hf);
+        Predicate p = predicate(0, Predicate.Op.EQUALS, -100);
+        assertTrue(zm.mayMatch(PAGES - 1, p));
+        assertFalse(zm.mayMatch(0, p));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
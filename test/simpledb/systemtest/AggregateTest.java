@@ -9,21 +9,40 @@ import simpledb.*;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 public class AggregateTest extends SimpleDbTestBase {
-    public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
+    public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Field>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, table.getId(), "");
         Aggregate ag = new Aggregate(ss, aggregateColumn, groupColumn, operation);
-
-        SystemTestUtil.matchTuples(ag, expectedResult);
+        TupleDesc td = ag.getTupleDesc();
+        assertEquals(operation.getResultType(), td.getFieldType(td.numFields() - 1));
+
+        ArrayList<ArrayList<Field>> copy = new ArrayList<ArrayList<Field>>(expectedResult);
+        ag.open();
+        while (ag.hasNext()) {
+            Tuple t = ag.next();
+            ArrayList<Field> list = new ArrayList<Field>();
+            for (int i = 0; i < td.numFields(); i++) {
+                list.add(t.getField(i));
+            }
+            if (!copy.remove(list)) {
+                fail("expected tuples does not contain: " + t);
+            }
+        }
+        ag.close();
+        assertTrue("expected to find the following tuples: " + copy, copy.isEmpty());
         Database.getBufferPool().transactionComplete(tid);
     }
 
-    private int computeAggregate(ArrayList<Integer> values, Aggregator.Op operation) {
-        if (operation == Aggregator.Op.COUNT) return values.size();
+    private Field computeAggregate(ArrayList<Integer> values, Aggregator.Op operation) {
+        if (operation == Aggregator.Op.COUNT) return new LongField(values.size());
 
-        int value = 0;
+        long value = 0;
         if (operation == Aggregator.Op.MIN) value = Integer.MAX_VALUE;
         else if (operation == Aggregator.Op.MAX) value = Integer.MIN_VALUE;
 
@@ -44,11 +63,12 @@ public class AggregateTest extends SimpleDbTestBase {
             }
         }
 
-        if (operation == Aggregator.Op.AVG) value /= values.size();
-        return value;
+        if (operation == Aggregator.Op.AVG) return new DoubleField((double) value / values.size());
+        if (operation == Aggregator.Op.SUM) return new LongField(value);
+        return new IntField((int) value);
     }
 
-    private ArrayList<ArrayList<Integer>> aggregate(ArrayList<ArrayList<Integer>> tuples, Aggregator.Op operation, int aggregateColumn, int groupColumn) {
+    private ArrayList<ArrayList<Field>> aggregate(ArrayList<ArrayList<Integer>> tuples, Aggregator.Op operation, int aggregateColumn, int groupColumn) {
         // Group the values
         HashMap<Integer, ArrayList<Integer>> values = new HashMap<Integer, ArrayList<Integer>>();
         for (ArrayList<Integer> t : tuples) {
@@ -60,10 +80,10 @@ public class AggregateTest extends SimpleDbTestBase {
             values.get(key).add(value);
         }
 
-        ArrayList<ArrayList<Integer>> results = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Field>> results = new ArrayList<ArrayList<Field>>();
         for (Map.Entry<Integer, ArrayList<Integer>> e : values.entrySet()) {
-            ArrayList<Integer> result = new ArrayList<Integer>();
-            if (groupColumn != Aggregator.NO_GROUPING) result.add(e.getKey());
+            ArrayList<Field> result = new ArrayList<Field>();
+            if (groupColumn != Aggregator.NO_GROUPING) result.add(new IntField(e.getKey()));
             result.add(computeAggregate(e.getValue(), operation));
             results.add(result);
         }
@@ -81,7 +101,7 @@ public class AggregateTest extends SimpleDbTestBase {
                 COLUMNS, ROWS, MAX_VALUE, null, createdTuples);
 
         // Compute the expected answer
-        ArrayList<ArrayList<Integer>> expected =
+        ArrayList<ArrayList<Field>> expected =
                 aggregate(createdTuples, operation, 1, groupColumn);
 
         // validate that we get the answer
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -68,25 +69,27 @@ public class ScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
-    /** Verifies that the buffer pool is actually caching data.
-     * @throws TransactionAbortedException
-     * @throws DbException */
-    @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
-        /** Counts the number of readPage operations. */
-        class InstrumentedHeapFile extends HeapFile {
-            public InstrumentedHeapFile(File f, TupleDesc td) {
-                super(f, td);
-            }
+    /** Counts the number of readPage operations, including reads ahead. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        private static final long serialVersionUID = 1L;
 
-            @Override
-            public Page readPage(PageId pid) throws NoSuchElementException {
-                readCount += 1;
-                return super.readPage(pid);
-            }
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
 
-            public int readCount = 0;
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount.incrementAndGet();
+            return super.readPage(pid);
         }
 
+        public final AtomicInteger readCount = new AtomicInteger(0);
+    }
+
+    /** Verifies that the buffer pool is actually caching data.
+     * @throws TransactionAbortedException
+     * @throws DbException */
+    @Test public void testCache() throws IOException, DbException, TransactionAbortedException {
         // Create the table
         final int PAGES = 30;
         ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
@@ -97,12 +100,105 @@ public class ScanTest extends SimpleDbTestBase {
 
         // Scan the table once
         SystemTestUtil.matchTuples(table, tuples);
-        assertEquals(PAGES, table.readCount);
-        table.readCount = 0;
+        assertEquals(PAGES, table.readCount.get());
+        table.readCount.set(0);
 
         // Scan the table again: all pages should be cached
         SystemTestUtil.matchTuples(table, tuples);
-        assertEquals(0, table.readCount);
+        assertEquals(0, table.readCount.get());
+    }
+
+    /** Verifies that scanning a table larger than the buffer pool does not
+     * evict the pages of a table which fits in it.
+     * @throws TransactionAbortedException
+     * @throws DbException */
+    @Test public void testScanRing() throws IOException, DbException, TransactionAbortedException {
+        final int SMALL_PAGES = 10;
+        final int LARGE_PAGES = BufferPool.DEFAULT_PAGES + 10;
+        ArrayList<ArrayList<Integer>> smallTuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*SMALL_PAGES, 1000, null, smallTuples);
+        InstrumentedHeapFile small = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(small, SystemTestUtil.getUUID());
+        ArrayList<ArrayList<Integer>> largeTuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*LARGE_PAGES, 1000, null, largeTuples);
+        InstrumentedHeapFile large = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(large, SystemTestUtil.getUUID());
+
+        SystemTestUtil.matchTuples(small, smallTuples);
+        assertEquals(SMALL_PAGES, small.readCount.get());
+        small.readCount.set(0);
+
+        // the large scan reads every page, but only through its ring
+        SystemTestUtil.matchTuples(large, largeTuples);
+        assertEquals(LARGE_PAGES, large.readCount.get());
+
+        // the small table is still cached
+        SystemTestUtil.matchTuples(small, smallTuples);
+        assertEquals(0, small.readCount.get());
+    }
+
+    /** Waits until the specified number of pages of the table have been read. */
+    private static void waitForReads(InstrumentedHeapFile table, int reads)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (table.readCount.get() < reads && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(reads, table.readCount.get());
+    }
+
+    /** Verifies that pages read ahead are counted as prefetch hits when they
+     * are requested and as wasted when they are dropped first, and that read
+     * ahead never reads a page twice. */
+    @Test public void testReadAhead() throws Exception {
+        final int PAGES = 10;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        BufferPool pool = Database.getBufferPool();
+
+        // pages read ahead and then requested are hits
+        for (int i = 0; i < PAGES / 2; i++) {
+            pool.prefetchPage(new HeapPageId(table.getId(), i), null);
+        }
+        waitForReads(table, PAGES / 2);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < PAGES / 2; i++) {
+            pool.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(PAGES / 2, pool.getPrefetchHits());
+        assertEquals(PAGES / 2, table.readCount.get());
+        pool.transactionComplete(tid);
+
+        // pages read ahead and then discarded are wasted
+        for (int i = PAGES / 2; i < PAGES; i++) {
+            pool.prefetchPage(new HeapPageId(table.getId(), i), null);
+        }
+        waitForReads(table, PAGES);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pool.getWastedPrefetches() < PAGES / 2 && System.currentTimeMillis() < deadline) {
+            // a page still being read cannot be discarded yet
+            for (int i = PAGES / 2; i < PAGES; i++) {
+                pool.discardPage(new HeapPageId(table.getId(), i));
+            }
+        }
+        assertEquals(PAGES / 2, pool.getWastedPrefetches());
+        assertEquals(PAGES / 2, pool.getPrefetchHits());
+
+        // a scan reading ahead reads each page once
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount.set(0);
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount.get());
+
+        // a pool which was replaced drops its read-ahead
+        pool = Database.getBufferPool();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount.set(0);
+        pool.prefetchPage(new HeapPageId(table.getId(), 0), null);
+        Thread.sleep(100);
+        assertEquals(0, table.readCount.get());
     }
 
     /** Make test compatible with older version of ant. */